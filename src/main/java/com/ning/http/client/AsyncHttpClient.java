@@ -569,6 +569,42 @@ public class AsyncHttpClient implements Closeable {
         return executeRequest(request, new AsyncCompletionHandlerBase());
     }
 
+    /**
+     * Open connections to the endpoint of the passed URL ahead of traffic, so
+     * the first requests don't pay for the connection (and, for https, the
+     * TLS handshake) setup.
+     *
+     * @param url A well formed URL.
+     * @param connections the number of connections to open
+     * @return a {@link ListenableFuture} of the number of connections, which
+     *          have been opened and pooled. It may be lower than the requested
+     *          number, if the pool limits are reached or pooling is disabled
+     */
+    public ListenableFuture<Integer> warmUp(String url, int connections) {
+        return warmUp(new RequestBuilder("GET").setUrl(url).build(), connections);
+    }
+
+    /**
+     * Open connections to the endpoint of the passed {@link Request} ahead
+     * of traffic. The request is not sent, its URL, proxy, connection pool
+     * partitioning and addresses select the endpoint.
+     *
+     * @param request {@link Request}
+     * @param connections the number of connections to open
+     * @return a {@link ListenableFuture} of the number of connections, which
+     *          have been opened and pooled. It fails with an
+     *          {@link UnsupportedOperationException}, if the provider doesn't
+     *          implement {@link ConnectionWarmUp}
+     */
+    public ListenableFuture<Integer> warmUp(Request request, int connections) {
+        if (!(httpProvider instanceof ConnectionWarmUp)) {
+            return new ListenableFuture.CompletedFailure<>(new UnsupportedOperationException(
+                    httpProvider.getClass().getName() + " doesn't support the connection warm-up"));
+        }
+        
+        return ((ConnectionWarmUp) httpProvider).warmUp(request, connections);
+    }
+
     /**
      * Configure and execute the associated {@link RequestFilter}. This class may decorate the {@link Request} and {@link AsyncHandler}
      *
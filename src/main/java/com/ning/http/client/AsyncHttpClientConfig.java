@@ -123,6 +123,7 @@ public class AsyncHttpClientConfig {
     protected String[] enabledCipherSuites;
     protected Integer sslSessionCacheSize;
     protected Integer sslSessionTimeout;
+    protected TimeoutBudget timeoutBudget;
     protected AsyncHttpProviderConfig<?, ?> providerConfig;
 
     protected AsyncHttpClientConfig() {
@@ -160,6 +161,7 @@ public class AsyncHttpClientConfig {
             String[] enabledCipherSuites,//
             Integer sslSessionCacheSize,//
             Integer sslSessionTimeout,//
+            TimeoutBudget timeoutBudget,//
             AsyncHttpProviderConfig<?, ?> providerConfig) {
 
         this.connectTimeout = connectTimeout;
@@ -194,6 +196,7 @@ public class AsyncHttpClientConfig {
         this.enabledCipherSuites = enabledCipherSuites;
         this.sslSessionCacheSize = sslSessionCacheSize;
         this.sslSessionTimeout = sslSessionTimeout;
+        this.timeoutBudget = timeoutBudget;
         this.providerConfig = providerConfig;
     }
 
@@ -382,6 +385,11 @@ public class AsyncHttpClientConfig {
 
     /**
      * Return the number of time the library will retry when an {@link java.io.IOException} is throw by the remote server
+     * <p>
+     * Retries are enabled by default (5 retries). Besides the replays requested by the
+     * {@link com.ning.http.client.filter.IOExceptionFilter}s, a request is retried automatically
+     * if no response has been received yet, its body can be re-sent, and either its method is idempotent,
+     * or it has not been fully sent over a reused pooled connection. Set to 0 to disable retries.
      *
      * @return the number of time the library will retry when an {@link java.io.IOException} is throw by the remote server
      */
@@ -520,6 +528,16 @@ public class AsyncHttpClientConfig {
         return sslSessionTimeout;
     }
 
+    /**
+     * Return the default per-phase {@link TimeoutBudget}, which might be
+     * overridden per request.
+     *
+     * @return the default {@link TimeoutBudget}, or <tt>null</tt> if not set
+     */
+    public TimeoutBudget getTimeoutBudget() {
+        return timeoutBudget;
+    }
+
     /**
      * Builder for an {@link AsyncHttpClient}
      */
@@ -558,6 +576,7 @@ public class AsyncHttpClientConfig {
         private String[] enabledCipherSuites;
         private Integer sslSessionCacheSize = defaultSslSessionCacheSize();
         private Integer sslSessionTimeout = defaultSslSessionTimeout();
+        private TimeoutBudget timeoutBudget;
         private AsyncHttpProviderConfig<?, ?> providerConfig;
 
         public Builder() {
@@ -840,6 +859,7 @@ public class AsyncHttpClientConfig {
 
         /**
          * Set the number of time a request will be retried when an {@link java.io.IOException} occurs because of a Network exception.
+         * Defaults to 5, 0 disables the retries.
          *
          * @param maxRequestRetry the number of time a request will be retried
          * @return this
@@ -980,6 +1000,19 @@ public class AsyncHttpClientConfig {
             return this;
         }
 
+        /**
+         * Set the default per-phase {@link TimeoutBudget}: pool acquisition,
+         * connect, TLS handshake, time to first byte and total timeouts.
+         * Each phase timeout might be overridden per request.
+         *
+         * @param timeoutBudget the default {@link TimeoutBudget}
+         * @return a {@link Builder}
+         */
+        public Builder setTimeoutBudget(TimeoutBudget timeoutBudget) {
+            this.timeoutBudget = timeoutBudget;
+            return this;
+        }
+
         /**
          * Create a config builder with values taken from the given prototype configuration.
          *
@@ -1022,6 +1055,7 @@ public class AsyncHttpClientConfig {
             enabledCipherSuites = prototype.enabledCipherSuites;
             sslSessionCacheSize = prototype.sslSessionCacheSize;
             sslSessionTimeout = prototype.sslSessionTimeout;
+            timeoutBudget = prototype.timeoutBudget;
             acceptAnyCertificate = prototype.acceptAnyCertificate;
         }
 
@@ -1085,6 +1119,7 @@ public class AsyncHttpClientConfig {
                     enabledCipherSuites, //
                     sslSessionCacheSize, //
                     sslSessionTimeout, //
+                    timeoutBudget, //
                     providerConfig);
         }
     }
@@ -279,4 +279,9 @@ public class AsyncHttpClientConfigBean extends AsyncHttpClientConfig {
         this.sslSessionTimeout = sslSessionTimeout;
         return this;
     }
+
+    public AsyncHttpClientConfigBean setTimeoutBudget(TimeoutBudget timeoutBudget) {
+        this.timeoutBudget = timeoutBudget;
+        return this;
+    }
 }
@@ -0,0 +1,540 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link NameResolver} that caches the results of a delegate resolver.
+ * If the delegate is a {@link NameResolver.MultiAddressNameResolver}, all the
+ * addresses of a host are cached.
+ * <p>
+ * Successful lookups are kept for a configurable time-to-live, failed lookups
+ * (negative results) for a separate, usually shorter, time-to-live. Once an
+ * entry has lived longer than the refresh-ahead threshold, the next hit
+ * returns the cached address and triggers an asynchronous lookup, so hot
+ * hosts never pay for name resolution on the request path. Concurrent
+ * misses for the same name share a single lookup.
+ * <p>
+ * The cache holds up to a configurable number of entries. Expired entries
+ * are purged periodically, as new entries are stored, and once the cache is
+ * full the oldest entries are evicted.
+ * <p>
+ * Instances are thread-safe and are expected to be shared between requests:
+ * <pre>
+ * NameResolver resolver = new CachingNameResolver.Builder()
+ *         .setTtl(60, TimeUnit.SECONDS)
+ *         .build();
+ * client.prepareGet(url).setNameResolver(resolver).execute();
+ * </pre>
+ */
+public class CachingNameResolver implements NameResolver.MultiAddressNameResolver {
+
+    private static final Comparator<Map.Entry<String, Entry>> OLDEST_FIRST =
+            new Comparator<Map.Entry<String, Entry>>() {
+        @Override
+        public int compare(final Map.Entry<String, Entry> e1,
+                final Map.Entry<String, Entry> e2) {
+            final long d = e1.getValue().createdAt - e2.getValue().createdAt;
+            return d < 0 ? -1 : (d > 0 ? 1 : 0);
+        }
+    };
+
+    private final NameResolver delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long refreshAheadNanos;
+    private final Executor refreshExecutor;
+    private final int maxSize;
+    // the expired entries are purged at most once per interval
+    private final long sweepIntervalNanos;
+
+    private final ConcurrentMap<String, Entry> cache = new ConcurrentHashMap<>();
+    // the lookups in progress, the concurrent misses wait for their result
+    private final ConcurrentMap<String, Lookup> lookups = new ConcurrentHashMap<>();
+    private final AtomicLong lastSweepNanos = new AtomicLong(System.nanoTime());
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong negativeHitCount = new AtomicLong();
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    // -------------------------------------------------------- Constructors
+
+    private CachingNameResolver(final Builder builder) {
+        this.delegate = builder.delegate;
+        this.ttlNanos = builder.ttlNanos;
+        this.negativeTtlNanos = builder.negativeTtlNanos;
+        this.refreshAheadNanos = (long) (builder.ttlNanos * builder.refreshAheadFactor);
+        this.refreshExecutor = builder.refreshExecutor != null
+                ? builder.refreshExecutor
+                : RefreshExecutorHolder.EXECUTOR;
+        this.maxSize = builder.maxSize;
+        this.sweepIntervalNanos = Math.max(builder.ttlNanos, builder.negativeTtlNanos);
+    }
+
+    // ------------------------------------------ Methods from NameResolver
+
+    @Override
+    public InetAddress resolve(final String name) throws UnknownHostException {
+        return lookup(name).get()[0];
+    }
+
+    @Override
+    public InetAddress[] resolveAll(final String name) throws UnknownHostException {
+        return lookup(name).get().clone();
+    }
+
+    // ------------------------------------------------------ Public Methods
+
+    /**
+     * Asynchronously resolves the given names and stores the results in the
+     * cache, so the first requests to these hosts don't pay for the lookup.
+     * The names the refresh executor rejects, for example because its queue
+     * is full, are resolved on the request path.
+     *
+     * @param names the host names to be resolved
+     */
+    public void prefetch(final Collection<String> names) {
+        for (final String name : names) {
+            try {
+                refreshExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        load(name);
+                    }
+                });
+            } catch (RejectedExecutionException ignored) {
+                // the name will be resolved on the request path
+            }
+        }
+    }
+
+    /**
+     * Removes the cached result for the given host name, if any.
+     */
+    public void invalidate(final String name) {
+        cache.remove(name);
+    }
+
+    /**
+     * Removes all cached results.
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * @return the number of cached (positive or negative) results.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the number of lookups served with a cached address.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of lookups served with a cached failure.
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    /**
+     * @return the number of lookups, which had to be delegated on the
+     *          request path.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the number of background refresh lookups.
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return the number of unexpired results evicted, because the cache
+     *          was full.
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    // ----------------------------------------------------- Private Methods
+
+    private Entry lookup(final String name) {
+        final Entry entry = cache.get(name);
+        final long now = System.nanoTime();
+
+        if (entry != null && !entry.isExpired(now)) {
+            if (entry.addresses == null) {
+                negativeHitCount.incrementAndGet();
+            } else {
+                hitCount.incrementAndGet();
+                if (now - entry.createdAt >= refreshAheadNanos
+                        && entry.refreshing.compareAndSet(false, true)) {
+                    scheduleRefresh(name, entry);
+                }
+            }
+
+            return entry;
+        }
+
+        missCount.incrementAndGet();
+        return load(name);
+    }
+
+    private InetAddress[] resolveWithDelegate(final String name)
+            throws UnknownHostException {
+        final InetAddress[] addresses =
+                delegate instanceof NameResolver.MultiAddressNameResolver
+                ? ((NameResolver.MultiAddressNameResolver) delegate).resolveAll(name)
+                : new InetAddress[] {delegate.resolve(name)};
+
+        if (addresses.length == 0) {
+            throw new UnknownHostException(name);
+        }
+
+        return addresses;
+    }
+
+    private Entry load(final String name) {
+        final Lookup lookup = new Lookup();
+        final Lookup inProgress = lookups.putIfAbsent(name, lookup);
+        if (inProgress != null) {
+            final Entry entry = inProgress.await();
+            // null if the lookup has failed unexpectedly, try again
+            return entry != null ? entry : load(name);
+        }
+
+        Entry entry = null;
+        try {
+            entry = loadFromDelegate(name);
+            return entry;
+        } finally {
+            lookups.remove(name, lookup);
+            lookup.complete(entry);
+        }
+    }
+
+    private Entry loadFromDelegate(final String name) {
+        Entry entry;
+        try {
+            entry = new Entry(resolveWithDelegate(name), null,
+                    System.nanoTime(), ttlNanos);
+        } catch (UnknownHostException e) {
+            entry = new Entry(null, e.getMessage(),
+                    System.nanoTime(), negativeTtlNanos);
+        }
+
+        if (entry.ttlNanos > 0) {
+            store(name, entry);
+        }
+
+        return entry;
+    }
+
+    private void store(final String name, final Entry entry) {
+        cache.put(name, entry);
+
+        final long now = System.nanoTime();
+        final long lastSweep = lastSweepNanos.get();
+        if ((cache.size() > maxSize || now - lastSweep >= sweepIntervalNanos)
+                && lastSweepNanos.compareAndSet(lastSweep, now)) {
+            sweep(now);
+        }
+    }
+
+    /**
+     * Purges the expired entries and, if the cache is still full, evicts the
+     * oldest entries down to 90% of the maximum size, so the following
+     * stores don't have to sweep again right away.
+     */
+    private void sweep(final long now) {
+        for (final Iterator<Entry> it = cache.values().iterator(); it.hasNext();) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+
+        if (cache.size() <= maxSize) {
+            return;
+        }
+
+        final List<Map.Entry<String, Entry>> entries =
+                new ArrayList<>(cache.entrySet());
+        Collections.sort(entries, OLDEST_FIRST);
+        final int toEvict = entries.size() - maxSize + maxSize / 10;
+        for (int i = 0; i < toEvict && i < entries.size(); i++) {
+            final Map.Entry<String, Entry> e = entries.get(i);
+            if (cache.remove(e.getKey(), e.getValue())) {
+                evictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    private void scheduleRefresh(final String name, final Entry entry) {
+        try {
+            refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshCount.incrementAndGet();
+                    try {
+                        final InetAddress[] addresses = resolveWithDelegate(name);
+                        cache.replace(name, entry, new Entry(addresses, null,
+                                System.nanoTime(), ttlNanos));
+                    } catch (Throwable t) {
+                        // keep serving the cached address until it expires
+                        entry.refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entry.refreshing.set(false);
+        }
+    }
+
+    // ------------------------------------------------------- Inner Classes
+
+    private static final class Lookup {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile Entry entry;
+
+        private void complete(final Entry entry) {
+            this.entry = entry;
+            latch.countDown();
+        }
+
+        private Entry await() {
+            boolean isInterrupted = false;
+            try {
+                while (true) {
+                    try {
+                        latch.await();
+                        return entry;
+                    } catch (InterruptedException e) {
+                        isInterrupted = true;
+                    }
+                }
+            } finally {
+                if (isInterrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final InetAddress[] addresses;
+        private final String failure;
+        private final long createdAt;
+        private final long ttlNanos;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(final InetAddress[] addresses, final String failure,
+                final long createdAt, final long ttlNanos) {
+            this.addresses = addresses;
+            this.failure = failure;
+            this.createdAt = createdAt;
+            this.ttlNanos = ttlNanos;
+        }
+
+        private boolean isExpired(final long now) {
+            return now - createdAt >= ttlNanos;
+        }
+
+        private InetAddress[] get() throws UnknownHostException {
+            if (addresses == null) {
+                throw new UnknownHostException(failure);
+            }
+
+            return addresses;
+        }
+    }
+
+    /**
+     * A small pool of daemon threads with a bounded queue, as lookups block,
+     * so prefetching many names doesn't spawn a thread per name.
+     */
+    private static final class RefreshExecutorHolder {
+        private static final int THREADS = 4;
+        private static final int QUEUE_SIZE = 1024;
+
+        private static final ExecutorService EXECUTOR = createExecutor();
+
+        private static ExecutorService createExecutor() {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    THREADS, THREADS, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+                    new ThreadFactory() {
+                        private final AtomicInteger counter = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread t = new Thread(r,
+                                    "ahc-name-resolver-" + counter.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    public static class Builder {
+        private NameResolver delegate = NameResolver.JdkNameResolver.INSTANCE;
+        private long ttlNanos = TimeUnit.SECONDS.toNanos(60);
+        private long negativeTtlNanos = TimeUnit.SECONDS.toNanos(5);
+        private double refreshAheadFactor = 0.75;
+        private Executor refreshExecutor;
+        private int maxSize = 10000;
+
+        /**
+         * Set the {@link NameResolver} performing the actual lookups.
+         * Defaults to {@link NameResolver.JdkNameResolver}.
+         *
+         * @return this
+         */
+        public Builder setDelegate(final NameResolver delegate) {
+            if (delegate == null) {
+                throw new NullPointerException("delegate");
+            }
+            this.delegate = delegate;
+            return this;
+        }
+
+        /**
+         * Set how long a resolved address is cached. Defaults to 60 seconds.
+         *
+         * @return this
+         */
+        public Builder setTtl(final long ttl, final TimeUnit unit) {
+            this.ttlNanos = unit.toNanos(ttl);
+            return this;
+        }
+
+        /**
+         * Set how long a failed lookup is cached, a non-positive value disables
+         * negative caching. Defaults to 5 seconds.
+         *
+         * @return this
+         */
+        public Builder setNegativeTtl(final long negativeTtl, final TimeUnit unit) {
+            this.negativeTtlNanos = unit.toNanos(negativeTtl);
+            return this;
+        }
+
+        /**
+         * Set the fraction of the time-to-live after which a cache hit triggers
+         * a background refresh of the entry. A value of 1 or more disables
+         * refresh-ahead. Defaults to 0.75.
+         *
+         * @return this
+         */
+        public Builder setRefreshAheadFactor(final double refreshAheadFactor) {
+            if (refreshAheadFactor <= 0) {
+                throw new IllegalArgumentException("refreshAheadFactor must be positive");
+            }
+            this.refreshAheadFactor = refreshAheadFactor;
+            return this;
+        }
+
+        /**
+         * Set the {@link Executor} running background refreshes and prefetches.
+         * By default a shared pool of 4 daemon threads is used, which queues
+         * up to 1024 lookups and rejects the ones beyond.
+         *
+         * @return this
+         */
+        public Builder setRefreshExecutor(final Executor refreshExecutor) {
+            this.refreshExecutor = refreshExecutor;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of cached (positive or negative) results.
+         * Once exceeded, the oldest results are evicted. Defaults to 10000.
+         *
+         * @return this
+         */
+        public Builder setMaxSize(final int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize must be positive");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public CachingNameResolver build() {
+            return new CachingNameResolver(this);
+        }
+    }
+}
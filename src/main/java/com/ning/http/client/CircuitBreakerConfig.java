@@ -0,0 +1,181 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+/**
+ * The settings of the per-endpoint circuit breakers, see
+ * {@link com.ning.http.client.providers.grizzly.GrizzlyAsyncHttpProviderConfig.Property#CIRCUIT_BREAKER}.
+ * <p>
+ * A closed circuit counts the outcomes of the requests to its endpoint:
+ * connect failures, timeouts and <tt>5xx</tt> responses are failures. Once
+ * the failure rate within a window reaches the threshold, the circuit opens
+ * and the requests fail right away with a
+ * {@link CircuitBreakerOpenException}. After the open
+ * duration the circuit is half-open: a limited number of probe requests is
+ * let through, which close the circuit, if they all succeed, or open it
+ * again on the first failure.
+ */
+public class CircuitBreakerConfig {
+
+    private final double failureRateThreshold;
+    private final int minimumRequests;
+    private final long window;
+    private final long openDuration;
+    private final int halfOpenProbes;
+
+    private CircuitBreakerConfig(final Builder builder) {
+        failureRateThreshold = builder.failureRateThreshold;
+        minimumRequests = builder.minimumRequests;
+        window = builder.window;
+        openDuration = builder.openDuration;
+        halfOpenProbes = builder.halfOpenProbes;
+    }
+
+    /**
+     * @return the failure rate, between 0 and 1, which opens the circuit
+     */
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @return the number of requests within a window, below which the
+     *          circuit doesn't open, whatever the failure rate
+     */
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    /**
+     * @return the time window, in milliseconds, the failure rate is
+     *          measured over
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the time, in milliseconds, the circuit stays open, before
+     *          probe requests are let through
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @return the number of successful probe requests, which close a
+     *          half-open circuit
+     */
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakerConfig{"
+                + "failureRateThreshold=" + failureRateThreshold
+                + ", minimumRequests=" + minimumRequests
+                + ", window=" + window
+                + ", openDuration=" + openDuration
+                + ", halfOpenProbes=" + halfOpenProbes
+                + '}';
+    }
+
+    public static class Builder {
+        private double failureRateThreshold = 0.5;
+        private int minimumRequests = 20;
+        private long window = 10000;
+        private long openDuration = 30000;
+        private int halfOpenProbes = 1;
+
+        /**
+         * Defaults to 0.5.
+         */
+        public Builder setFailureRateThreshold(final double failureRateThreshold) {
+            if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+                throw new IllegalArgumentException(
+                        "failureRateThreshold must be within (0, 1]");
+            }
+            
+            this.failureRateThreshold = failureRateThreshold;
+            return this;
+        }
+
+        /**
+         * Defaults to 20.
+         */
+        public Builder setMinimumRequests(final int minimumRequests) {
+            this.minimumRequests = minimumRequests;
+            return this;
+        }
+
+        /**
+         * Defaults to 10000 ms.
+         */
+        public Builder setWindow(final long window) {
+            this.window = window;
+            return this;
+        }
+
+        /**
+         * Defaults to 30000 ms.
+         */
+        public Builder setOpenDuration(final long openDuration) {
+            this.openDuration = openDuration;
+            return this;
+        }
+
+        /**
+         * Defaults to 1.
+         */
+        public Builder setHalfOpenProbes(final int halfOpenProbes) {
+            if (halfOpenProbes <= 0) {
+                throw new IllegalArgumentException("halfOpenProbes must be positive");
+            }
+            
+            this.halfOpenProbes = halfOpenProbes;
+            return this;
+        }
+
+        public CircuitBreakerConfig build() {
+            return new CircuitBreakerConfig(this);
+        }
+    }
+}
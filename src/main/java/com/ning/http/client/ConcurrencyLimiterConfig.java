@@ -0,0 +1,198 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+/**
+ * The settings of the adaptive per-endpoint concurrency limits, see
+ * {@link com.ning.http.client.providers.grizzly.GrizzlyAsyncHttpProviderConfig.Property#CONCURRENCY_LIMITER}.
+ * <p>
+ * The limit of an endpoint follows the gradient of its round-trip time:
+ * while the measured RTT stays within the tolerance of the minimum RTT the
+ * limit grows, and as the RTT rises, because the requests start queueing
+ * on the backend, the limit shrinks towards the no-load minimum. Failed and
+ * timed out requests back the limit off multiplicatively (AIMD). The
+ * requests above the limit fail right away with a
+ * {@link ConcurrencyLimitExceededException}.
+ */
+public class ConcurrencyLimiterConfig {
+
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final double backoffRatio;
+
+    private ConcurrencyLimiterConfig(final Builder builder) {
+        initialLimit = builder.initialLimit;
+        minLimit = builder.minLimit;
+        maxLimit = builder.maxLimit;
+        rttTolerance = builder.rttTolerance;
+        smoothing = builder.smoothing;
+        backoffRatio = builder.backoffRatio;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * @return how many times the minimum RTT the RTT may grow, before the
+     *          limit starts to shrink
+     */
+    public double getRttTolerance() {
+        return rttTolerance;
+    }
+
+    /**
+     * @return the weight, between 0 and 1, of a new limit estimate
+     */
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * @return the factor the limit is multiplied by on a failure
+     */
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiterConfig{"
+                + "initialLimit=" + initialLimit
+                + ", minLimit=" + minLimit
+                + ", maxLimit=" + maxLimit
+                + ", rttTolerance=" + rttTolerance
+                + ", smoothing=" + smoothing
+                + ", backoffRatio=" + backoffRatio
+                + '}';
+    }
+
+    public static class Builder {
+        private int initialLimit = 20;
+        private int minLimit = 1;
+        private int maxLimit = 200;
+        private double rttTolerance = 1.5;
+        private double smoothing = 0.2;
+        private double backoffRatio = 0.9;
+
+        /**
+         * Defaults to 20.
+         */
+        public Builder setInitialLimit(final int initialLimit) {
+            this.initialLimit = initialLimit;
+            return this;
+        }
+
+        /**
+         * Defaults to 1.
+         */
+        public Builder setMinLimit(final int minLimit) {
+            if (minLimit <= 0) {
+                throw new IllegalArgumentException("minLimit must be positive");
+            }
+            
+            this.minLimit = minLimit;
+            return this;
+        }
+
+        /**
+         * Defaults to 200.
+         */
+        public Builder setMaxLimit(final int maxLimit) {
+            this.maxLimit = maxLimit;
+            return this;
+        }
+
+        /**
+         * Defaults to 1.5.
+         */
+        public Builder setRttTolerance(final double rttTolerance) {
+            if (rttTolerance < 1) {
+                throw new IllegalArgumentException("rttTolerance must be at least 1");
+            }
+            
+            this.rttTolerance = rttTolerance;
+            return this;
+        }
+
+        /**
+         * Defaults to 0.2.
+         */
+        public Builder setSmoothing(final double smoothing) {
+            if (smoothing <= 0 || smoothing > 1) {
+                throw new IllegalArgumentException("smoothing must be within (0, 1]");
+            }
+            
+            this.smoothing = smoothing;
+            return this;
+        }
+
+        /**
+         * Defaults to 0.9.
+         */
+        public Builder setBackoffRatio(final double backoffRatio) {
+            if (backoffRatio <= 0 || backoffRatio >= 1) {
+                throw new IllegalArgumentException("backoffRatio must be within (0, 1)");
+            }
+            
+            this.backoffRatio = backoffRatio;
+            return this;
+        }
+
+        public ConcurrencyLimiterConfig build() {
+            if (minLimit > maxLimit) {
+                throw new IllegalArgumentException("minLimit exceeds maxLimit");
+            }
+            
+            return new ConcurrencyLimiterConfig(this);
+        }
+    }
+}
@@ -0,0 +1,799 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client-side load balancing of the requests to a logical host across the
+ * replicas backing it. Each host is either backed by a static set of
+ * addresses, or by all the addresses its name resolves to, which are
+ * refreshed periodically.
+ * <p>
+ * For every request the provider selects one of the {@link Backend}s of the
+ * request host, using the configured {@link Policy}, and connects to its
+ * address, so the connections to every replica are pooled separately. The
+ * <tt>Host</tt> header and the TLS server name still refer to the logical
+ * host. Requests through a proxy, or with an explicit
+ * {@link Request#getInetAddress()}, are not balanced.
+ * <p>
+ * Newly added replicas take a growing share of the traffic during the slow
+ * start window, and a replica, which fails a number of consecutive requests,
+ * is ejected for a while, unless all of the replicas are ejected.
+ */
+public final class LoadBalancer {
+    private final static Logger LOGGER = LoggerFactory.getLogger(LoadBalancer.class);
+
+    /**
+     * The per-request backend selection policies.
+     */
+    public enum Policy {
+        /**
+         * The backends take turns, weighted during the slow start.
+         */
+        ROUND_ROBIN,
+        /**
+         * The backend with the least requests in flight.
+         */
+        LEAST_OUTSTANDING_REQUESTS,
+        /**
+         * The better of two random backends, scored by their average
+         * latency times the number of requests in flight.
+         */
+        POWER_OF_TWO_CHOICES,
+        /**
+         * The backend owning the {@link RoutingKey routing key} of the
+         * request on a consistent hash ring with virtual nodes, so the
+         * requests with the same key land on the same backend, and only
+         * about 1/N of the keys move when a backend joins or leaves.  The
+         * load is bounded: a backend with more requests in flight than its
+         * fair share, times {@link Builder#setHashLoadFactor(double)}, passes
+         * the request on to the next backend on the ring.  Requests without
+         * a routing key are sent to the backend with the least requests in
+         * flight.
+         */
+        CONSISTENT_HASH
+    }
+
+    /**
+     * Extracts the routing key of a request for the
+     * {@link Policy#CONSISTENT_HASH} policy.
+     */
+    public interface RoutingKey {
+
+        /**
+         * @return the routing key of the request, or <tt>null</tt> if it
+         *          has none
+         */
+        String getRoutingKey(Request request);
+    }
+
+    /**
+     * Routes by the value of the passed request header.
+     */
+    public static RoutingKey headerRoutingKey(final String name) {
+        return new RoutingKey() {
+            @Override
+            public String getRoutingKey(final Request request) {
+                return request.getHeaders().getFirstValue(name);
+            }
+        };
+    }
+
+    /**
+     * Routes by the passed number of leading path segments, e.g.
+     * <tt>/users/42</tt> for <tt>/users/42/orders</tt> and two segments.
+     */
+    public static RoutingKey pathPrefixRoutingKey(final int segments) {
+        return new RoutingKey() {
+            @Override
+            public String getRoutingKey(final Request request) {
+                final String path = request.getUri().getPath();
+                if (path == null || path.isEmpty()) {
+                    return "/";
+                }
+                
+                int end = 0;
+                for (int i = 0; i < segments; i++) {
+                    final int slash = path.indexOf('/', end + 1);
+                    if (slash == -1) {
+                        return path;
+                    }
+                    end = slash;
+                }
+                
+                return path.substring(0, end);
+            }
+        };
+    }
+
+    // the weight of a backend, which has just been added
+    private static final double MIN_SLOW_START_WEIGHT = 0.1;
+    // the smoothing factor of the backend latency average
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final Policy policy;
+    private final RoutingKey routingKey;
+    private final int virtualNodes;
+    private final double hashLoadFactor;
+    private final NameResolver nameResolver;
+    private final long refreshIntervalNanos;
+    private final long slowStartNanos;
+    private final int ejectionThreshold;
+    private final long ejectionTimeNanos;
+    private final Map<String, Group> groups;
+
+    private LoadBalancer(final Builder builder) {
+        policy = builder.policy;
+        routingKey = builder.routingKey;
+        virtualNodes = builder.virtualNodes;
+        hashLoadFactor = builder.hashLoadFactor;
+        nameResolver = builder.nameResolver;
+        refreshIntervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.refreshInterval);
+        slowStartNanos = TimeUnit.MILLISECONDS.toNanos(builder.slowStartWindow);
+        ejectionThreshold = builder.ejectionThreshold;
+        ejectionTimeNanos = TimeUnit.MILLISECONDS.toNanos(builder.ejectionTime);
+        
+        final Map<String, Group> map = new HashMap<String, Group>();
+        for (Map.Entry<String, InetAddress[]> entry : builder.hosts.entrySet()) {
+            final Group group = new Group(entry.getKey(), entry.getValue() == null);
+            if (!group.isResolved) {
+                group.setAddresses(entry.getValue(), false);
+            }
+            map.put(entry.getKey(), group);
+        }
+        groups = map;
+    }
+
+    /**
+     * Selects the backend of the next request to the passed host. The
+     * addresses of a resolved host are not refreshed, see
+     * {@link #select(Request, Executor)}.
+     * 
+     * @return the selected backend, or <tt>null</tt> if the host is not
+     *          balanced, or its addresses haven't been resolved yet
+     */
+    public Backend select(final String host) {
+        return select(host, null, null);
+    }
+
+    /**
+     * Selects the backend of the passed request, by its host and, for the
+     * {@link Policy#CONSISTENT_HASH} policy, by its routing key. The
+     * addresses of a resolved host are not refreshed, see
+     * {@link #select(Request, Executor)}.
+     * 
+     * @return the selected backend, or <tt>null</tt> if the request host is
+     *          not balanced, or its addresses haven't been resolved yet
+     */
+    public Backend select(final Request request) {
+        return select(request, null);
+    }
+
+    /**
+     * Selects the backend of the passed request, like
+     * {@link #select(Request)}, and, if the addresses of the request host
+     * are due to be refreshed, resolves them on the passed executor, as
+     * name resolution blocks. The executor is owned by the caller, which is
+     * the provider the load balancer is configured with.
+     * 
+     * @param refreshExecutor the executor of the address refreshes, or
+     *          <tt>null</tt> to leave the refreshes to {@link #refresh()}
+     */
+    public Backend select(final Request request, final Executor refreshExecutor) {
+        return select(request.getUri().getHost(),
+                policy == Policy.CONSISTENT_HASH && routingKey != null
+                        ? routingKey.getRoutingKey(request)
+                        : null,
+                refreshExecutor);
+    }
+
+    private Backend select(final String host, final String key,
+            final Executor refreshExecutor) {
+        final Group group = groups.get(host.toLowerCase(Locale.ENGLISH));
+        if (group == null) {
+            return null;
+        }
+        
+        final long now = System.nanoTime();
+        if (refreshExecutor != null && group.isResolved
+                && now - group.refreshedNanos >= refreshIntervalNanos) {
+            group.refreshAsync(refreshExecutor);
+        }
+        
+        final Backend[] backends = group.backends;
+        switch (backends.length) {
+            case 0: return null;
+            case 1: return backends[0];
+        }
+        
+        if (key != null) {
+            return selectConsistentHash(group.ring, backends, key, now);
+        }
+        
+        Backend[] candidates = backends;
+        int available = 0;
+        for (Backend backend : backends) {
+            if (!backend.isEjected(now)) {
+                available++;
+            }
+        }
+        if (available > 0 && available < backends.length) {
+            candidates = new Backend[available];
+            int i = 0;
+            for (Backend backend : backends) {
+                if (!backend.isEjected(now)) {
+                    candidates[i++] = backend;
+                }
+            }
+        }
+        
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        
+        switch (policy) {
+            case ROUND_ROBIN: return selectRoundRobin(group, candidates, now);
+            case LEAST_OUTSTANDING_REQUESTS: return selectLeastOutstanding(group, candidates, now);
+            case POWER_OF_TWO_CHOICES: return selectPowerOfTwo(candidates, now);
+            case CONSISTENT_HASH: return selectLeastOutstanding(group, candidates, now);
+            default: throw new IllegalStateException("Unexpected policy: " + policy);
+        }
+    }
+
+    /**
+     * @return the current backends of the passed host, an empty list if the
+     *          host is not balanced or not resolved yet
+     */
+    public List<Backend> getBackends(final String host) {
+        final Group group = groups.get(host.toLowerCase(Locale.ENGLISH));
+        return group != null
+                ? Collections.unmodifiableList(Arrays.asList(group.backends))
+                : Collections.<Backend>emptyList();
+    }
+
+    /**
+     * Resolves the addresses of the hosts, which are not backed by a static
+     * set of addresses, right away, blocking the calling thread.
+     */
+    public void refresh() {
+        for (Group group : groups.values()) {
+            if (group.isResolved) {
+                group.refresh();
+            }
+        }
+    }
+
+    private Backend selectRoundRobin(final Group group,
+            final Backend[] candidates, final long now) {
+        final int len = candidates.length;
+        final int start = group.nextIndex();
+        Backend backend = null;
+        for (int i = 0; i < len; i++) {
+            backend = candidates[(start + i) % len];
+            final double weight = backend.getWeight(now);
+            // a backend in slow start skips its turn in proportion
+            if (weight >= 1 || ThreadLocalRandom.current().nextDouble() < weight) {
+                return backend;
+            }
+        }
+        
+        return backend;
+    }
+
+    private Backend selectLeastOutstanding(final Group group,
+            final Backend[] candidates, final long now) {
+        final int len = candidates.length;
+        // starts with a different backend each time to break the ties evenly
+        final int start = group.nextIndex();
+        Backend best = null;
+        double bestLoad = Double.MAX_VALUE;
+        for (int i = 0; i < len; i++) {
+            final Backend backend = candidates[(start + i) % len];
+            final double load = (backend.getOutstandingRequests() + 1)
+                    / backend.getWeight(now);
+            if (load < bestLoad) {
+                best = backend;
+                bestLoad = load;
+            }
+        }
+        
+        return best;
+    }
+
+    private Backend selectPowerOfTwo(final Backend[] candidates, final long now) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int len = candidates.length;
+        final int i = random.nextInt(len);
+        int j = random.nextInt(len - 1);
+        if (j >= i) {
+            j++;
+        }
+        
+        final Backend a = candidates[i];
+        final Backend b = candidates[j];
+        return a.getScore(now) <= b.getScore(now) ? a : b;
+    }
+
+    private Backend selectConsistentHash(final Ring ring,
+            final Backend[] backends, final String key, final long now) {
+        int totalOutstanding = 0;
+        for (Backend backend : backends) {
+            totalOutstanding += backend.getOutstandingRequests();
+        }
+        // the bounded load: the fair share of the requests in flight,
+        // including this one, times the load factor
+        final double capacity = Math.ceil(
+                hashLoadFactor * (totalOutstanding + 1) / backends.length);
+        
+        final long[] points = ring.points;
+        int idx = Arrays.binarySearch(points, hash(key));
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        
+        Backend fallback = null;
+        for (int i = 0; i < points.length; i++) {
+            final Backend backend = ring.owners[(idx + i) % points.length];
+            if (backend.isEjected(now)) {
+                continue;
+            }
+            if (fallback == null) {
+                fallback = backend;
+            }
+            if (backend.getOutstandingRequests()
+                    < Math.max(capacity * backend.getWeight(now), 1)) {
+                return backend;
+            }
+        }
+        
+        // all the backends are either ejected or fully loaded
+        return fallback != null ? fallback : ring.owners[idx % points.length];
+    }
+
+    /**
+     * @return the 64-bit FNV-1a hash of the passed key, finalized with the
+     *          MurmurHash3 mix, so the ring points are spread evenly
+     */
+    static long hash(final String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0, len = key.length(); i < len; i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * The consistent hash ring of a host: the sorted points of the virtual
+     * nodes and their backends.
+     */
+    private static final class Ring {
+        private static final Ring EMPTY = new Ring(new long[0], new Backend[0]);
+        
+        private final long[] points;
+        private final Backend[] owners;
+
+        private Ring(final long[] points, final Backend[] owners) {
+            this.points = points;
+            this.owners = owners;
+        }
+    }
+
+    /**
+     * A concrete address backing a balanced host, along with the load and
+     * health metrics the selection is based on.
+     */
+    public final class Backend {
+        private final InetAddress address;
+        private final long addedNanos;
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+        
+        // the fields below are guarded by "this"
+        private double latencyNanos;
+        private int consecutiveFailures;
+        private volatile long ejectedUntilNanos;
+
+        private Backend(final InetAddress address, final long addedNanos) {
+            this.address = address;
+            this.addedNanos = addedNanos;
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        public int getOutstandingRequests() {
+            return outstandingRequests.get();
+        }
+
+        /**
+         * @return the exponentially weighted moving average of the latency
+         *          of the requests served by the backend
+         */
+        public synchronized long getAverageLatency(final TimeUnit unit) {
+            return unit.convert((long) latencyNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public boolean isEjected() {
+            return isEjected(System.nanoTime());
+        }
+
+        /**
+         * Called by the provider, once the backend has been selected for
+         * a request.
+         */
+        public void onRequestStarted() {
+            outstandingRequests.incrementAndGet();
+        }
+
+        /**
+         * Called by the provider, once a request to the backend has been
+         * completed.
+         * 
+         * @param latencyNanos the time it took the backend to serve the request
+         * @param isFailure <tt>true</tt> if the request has failed, which
+         *          counts towards the ejection of the backend
+         */
+        public void onRequestCompleted(final long latencyNanos,
+                final boolean isFailure) {
+            outstandingRequests.decrementAndGet();
+            
+            synchronized (this) {
+                this.latencyNanos = this.latencyNanos == 0
+                        ? latencyNanos
+                        : this.latencyNanos + LATENCY_ALPHA * (latencyNanos - this.latencyNanos);
+                
+                if (!isFailure) {
+                    consecutiveFailures = 0;
+                } else if (ejectionThreshold > 0
+                        && ++consecutiveFailures >= ejectionThreshold) {
+                    consecutiveFailures = 0;
+                    ejectedUntilNanos = System.nanoTime() + ejectionTimeNanos;
+                    LOGGER.debug("Ejecting backend {}", this);
+                }
+            }
+        }
+
+        /**
+         * Called by the provider, if a request to the backend has been
+         * cancelled, which doesn't tell anything about the backend.
+         */
+        public void onRequestCancelled() {
+            outstandingRequests.decrementAndGet();
+        }
+
+        private boolean isEjected(final long now) {
+            final long until = ejectedUntilNanos;
+            return until != 0 && now - until < 0;
+        }
+
+        private double getWeight(final long now) {
+            if (slowStartNanos <= 0) {
+                return 1;
+            }
+            
+            final double weight = (double) (now - addedNanos) / slowStartNanos;
+            return weight >= 1 ? 1 : Math.max(weight, MIN_SLOW_START_WEIGHT);
+        }
+
+        private double getScore(final long now) {
+            final double latency;
+            synchronized (this) {
+                latency = latencyNanos;
+            }
+            
+            // a backend without measurements yet is given a chance
+            return Math.max(latency, 1) * (getOutstandingRequests() + 1)
+                    / getWeight(now);
+        }
+
+        @Override
+        public String toString() {
+            return "Backend{address=" + address
+                    + ", outstandingRequests=" + getOutstandingRequests()
+                    + ", averageLatency=" + getAverageLatency(TimeUnit.MILLISECONDS) + "ms"
+                    + ", ejected=" + isEjected()
+                    + '}';
+        }
+    }
+
+    private final class Group {
+        private final String host;
+        private final boolean isResolved;
+        private final AtomicInteger index = new AtomicInteger();
+        private final AtomicBoolean isRefreshing = new AtomicBoolean();
+        private volatile Backend[] backends = new Backend[0];
+        private volatile Ring ring = Ring.EMPTY;
+        private volatile long refreshedNanos = System.nanoTime() - refreshIntervalNanos;
+
+        private Group(final String host, final boolean isResolved) {
+            this.host = host;
+            this.isResolved = isResolved;
+        }
+
+        private int nextIndex() {
+            return index.getAndIncrement() & Integer.MAX_VALUE;
+        }
+
+        private void refreshAsync(final Executor executor) {
+            if (!isRefreshing.compareAndSet(false, true)) {
+                return;
+            }
+            
+            // name resolution blocks, so it's never done by the request thread
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        refresh();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the provider is closed
+                isRefreshing.set(false);
+            }
+        }
+
+        private void refresh() {
+            try {
+                final InetAddress[] addresses =
+                        nameResolver instanceof NameResolver.MultiAddressNameResolver
+                        ? ((NameResolver.MultiAddressNameResolver) nameResolver).resolveAll(host)
+                        : new InetAddress[] {nameResolver.resolve(host)};
+                setAddresses(addresses, true);
+            } catch (UnknownHostException e) {
+                LOGGER.warn("Unable to resolve the addresses of {}", host, e);
+            } finally {
+                refreshedNanos = System.nanoTime();
+                isRefreshing.set(false);
+            }
+        }
+
+        /**
+         * Replaces the backends, keeping the metrics of the ones, whose
+         * addresses are still there.
+         */
+        private synchronized void setAddresses(final InetAddress[] addresses,
+                final boolean isSlowStart) {
+            final long now = System.nanoTime();
+            final Backend[] current = backends;
+            final Backend[] updated = new Backend[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                Backend backend = null;
+                for (Backend b : current) {
+                    if (b.address.equals(addresses[i])) {
+                        backend = b;
+                        break;
+                    }
+                }
+                
+                // the initial backends share the traffic equally right away
+                updated[i] = backend != null
+                        ? backend
+                        : new Backend(addresses[i], isSlowStart && current.length > 0
+                                ? now
+                                : now - slowStartNanos);
+            }
+            
+            if (policy == Policy.CONSISTENT_HASH) {
+                ring = buildRing(updated);
+            }
+            backends = updated;
+        }
+        
+        private Ring buildRing(final Backend[] backends) {
+            final int size = backends.length * virtualNodes;
+            final long[] points = new long[size];
+            final Map<Long, Backend> owners = new HashMap<Long, Backend>(size * 2);
+            int n = 0;
+            for (Backend backend : backends) {
+                // the points depend on the address only, so the other
+                // backends keep theirs, when a backend joins or leaves
+                final String id = backend.address.getHostAddress();
+                for (int i = 0; i < virtualNodes; i++) {
+                    final long point = hash(id + '#' + i);
+                    if (owners.put(point, backend) == null) {
+                        points[n++] = point;
+                    }
+                }
+            }
+            
+            final long[] sorted = Arrays.copyOf(points, n);
+            Arrays.sort(sorted);
+            final Backend[] sortedOwners = new Backend[n];
+            for (int i = 0; i < n; i++) {
+                sortedOwners[i] = owners.get(sorted[i]);
+            }
+            
+            return new Ring(sorted, sortedOwners);
+        }
+    }
+
+    public static class Builder {
+        private final Map<String, InetAddress[]> hosts =
+                new HashMap<String, InetAddress[]>();
+        private Policy policy = Policy.LEAST_OUTSTANDING_REQUESTS;
+        private RoutingKey routingKey;
+        private int virtualNodes = 160;
+        private double hashLoadFactor = 1.25;
+        private NameResolver nameResolver = NameResolver.JdkNameResolver.INSTANCE;
+        private long refreshInterval = 30000;
+        private long slowStartWindow = 30000;
+        private int ejectionThreshold = 5;
+        private long ejectionTime = 30000;
+
+        /**
+         * Balances the requests to the passed host across the passed
+         * addresses.
+         */
+        public Builder addHost(final String host, final InetAddress... addresses) {
+            if (addresses.length == 0) {
+                throw new IllegalArgumentException("No addresses for " + host);
+            }
+            
+            hosts.put(host.toLowerCase(Locale.ENGLISH), addresses.clone());
+            return this;
+        }
+
+        /**
+         * Balances the requests to the passed host across all the addresses
+         * its name resolves to, which are refreshed every
+         * {@link #setRefreshInterval(long) refresh interval}.
+         */
+        public Builder addResolvedHost(final String host) {
+            hosts.put(host.toLowerCase(Locale.ENGLISH), null);
+            return this;
+        }
+
+        public Builder setPolicy(final Policy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Sets the routing key of the {@link Policy#CONSISTENT_HASH} policy.
+         * 
+         * @see LoadBalancer#headerRoutingKey(String)
+         * @see LoadBalancer#pathPrefixRoutingKey(int)
+         */
+        public Builder setRoutingKey(final RoutingKey routingKey) {
+            this.routingKey = routingKey;
+            return this;
+        }
+
+        /**
+         * Sets the number of points every backend has on the consistent hash
+         * ring. More points spread the keys more evenly. Defaults to 160.
+         */
+        public Builder setVirtualNodes(final int virtualNodes) {
+            if (virtualNodes <= 0) {
+                throw new IllegalArgumentException("virtualNodes must be positive");
+            }
+            
+            this.virtualNodes = virtualNodes;
+            return this;
+        }
+
+        /**
+         * Sets how many times its fair share of the requests in flight a
+         * backend may take under the {@link Policy#CONSISTENT_HASH} policy,
+         * before the requests spill over to the next backend on the ring.
+         * Defaults to 1.25.
+         */
+        public Builder setHashLoadFactor(final double hashLoadFactor) {
+            if (hashLoadFactor < 1) {
+                throw new IllegalArgumentException("hashLoadFactor must be at least 1");
+            }
+            
+            this.hashLoadFactor = hashLoadFactor;
+            return this;
+        }
+
+        /**
+         * Sets the {@link NameResolver} of the resolved hosts. A
+         * {@link NameResolver.MultiAddressNameResolver} is needed to balance
+         * across all the addresses of a host.
+         */
+        public Builder setNameResolver(final NameResolver nameResolver) {
+            this.nameResolver = nameResolver;
+            return this;
+        }
+
+        /**
+         * Sets how often, in milliseconds, the addresses of the resolved
+         * hosts are refreshed. Defaults to 30000.
+         */
+        public Builder setRefreshInterval(final long refreshInterval) {
+            this.refreshInterval = refreshInterval;
+            return this;
+        }
+
+        /**
+         * Sets the time, in milliseconds, a newly added backend takes to get
+         * its full share of the traffic. Zero or less disables the slow
+         * start. Defaults to 30000.
+         */
+        public Builder setSlowStartWindow(final long slowStartWindow) {
+            this.slowStartWindow = slowStartWindow;
+            return this;
+        }
+
+        /**
+         * Sets the number of consecutive failed requests, after which a
+         * backend is ejected, and the time, in milliseconds, it stays
+         * ejected. A threshold of zero or less disables the ejection.
+         * Defaults to 5 failures and 30000 ms.
+         */
+        public Builder setOutlierEjection(final int ejectionThreshold,
+                final long ejectionTime) {
+            this.ejectionThreshold = ejectionThreshold;
+            this.ejectionTime = ejectionTime;
+            return this;
+        }
+
+        public LoadBalancer build() {
+            return new LoadBalancer(this);
+        }
+    }
+}
@@ -61,7 +61,21 @@ public interface NameResolver {
 
     InetAddress resolve(String name) throws UnknownHostException;
 
-    public enum JdkNameResolver implements NameResolver {
+    /**
+     * {@link NameResolver}, which is able to return all the addresses a host
+     * name resolves to, so a provider may try several of them (for example
+     * both the IPv6 and IPv4 ones) when connecting.
+     */
+    public interface MultiAddressNameResolver extends NameResolver {
+
+        /**
+         * @return all the addresses the name resolves to, in the order of
+         *          preference. The array is never empty.
+         */
+        InetAddress[] resolveAll(String name) throws UnknownHostException;
+    }
+
+    public enum JdkNameResolver implements MultiAddressNameResolver {
 
         INSTANCE;
 
@@ -69,5 +83,10 @@ public interface NameResolver {
         public InetAddress resolve(String name) throws UnknownHostException {
             return InetAddress.getByName(name);
         }
+
+        @Override
+        public InetAddress[] resolveAll(String name) throws UnknownHostException {
+            return InetAddress.getAllByName(name);
+        }
     }
 }
@@ -234,4 +234,10 @@ public interface Request {
     ConnectionPoolPartitioning getConnectionPoolPartitioning();
 
     NameResolver getNameResolver();
+
+    /**
+     * Overrides the config default per-phase timeouts
+     * @return the {@link TimeoutBudget}, or <tt>null</tt> if not set
+     */
+    TimeoutBudget getTimeoutBudget();
 }
@@ -63,6 +63,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ning.http.client.cookie.Cookie;
+import com.ning.http.client.generators.ByteBufferBodyGenerator;
 import com.ning.http.client.multipart.Part;
 import com.ning.http.client.uri.Uri;
 import com.ning.http.util.AsyncHttpProviderUtils;
@@ -71,6 +72,7 @@ import com.ning.http.util.UriEncoder;
 import java.io.File;
 import java.io.InputStream;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -112,6 +114,7 @@ public abstract class RequestBuilderBase<T extends RequestBuilderBase<T>> {
         public String charset;
         private ConnectionPoolPartitioning connectionPoolPartitioning = ConnectionPoolPartitioning.PerHostConnectionPoolPartitioning.INSTANCE;
         private NameResolver nameResolver = NameResolver.JdkNameResolver.INSTANCE;
+        private TimeoutBudget timeoutBudget;
         private List<Param> queryParams;
 
         public RequestImpl() {
@@ -143,6 +146,7 @@ public abstract class RequestBuilderBase<T extends RequestBuilderBase<T>> {
                 this.charset = prototype.getBodyEncoding();
                 this.connectionPoolPartitioning = prototype.getConnectionPoolPartitioning();
                 this.nameResolver = prototype.getNameResolver();
+                this.timeoutBudget = prototype.getTimeoutBudget();
             }
         }
 
@@ -270,6 +274,11 @@ public abstract class RequestBuilderBase<T extends RequestBuilderBase<T>> {
         public NameResolver getNameResolver() {
             return nameResolver;
         }
+
+        @Override
+        public TimeoutBudget getTimeoutBudget() {
+            return timeoutBudget;
+        }
         
         @Override
         public List<Param> getQueryParams() {
@@ -482,6 +491,20 @@ public abstract class RequestBuilderBase<T extends RequestBuilderBase<T>> {
         request.compositeByteData = data;
         return derived.cast(this);
     }
+
+    /**
+     * Sets the body as a list of, possibly direct, {@link ByteBuffer}s, which
+     * are sent together, without being copied into a single buffer.
+     * 
+     * @see ByteBufferBodyGenerator
+     */
+    public T setByteBufferData(List<ByteBuffer> data) {
+        resetFormParams();
+        resetNonMultipartData();
+        resetMultipartData();
+        request.bodyGenerator = new ByteBufferBodyGenerator(data);
+        return derived.cast(this);
+    }
     
     public T setBody(String data) {
         resetFormParams();
@@ -612,11 +635,25 @@ public abstract class RequestBuilderBase<T extends RequestBuilderBase<T>> {
         return derived.cast(this);
     }
 
+    /**
+     * Sets the {@link NameResolver} the request host is resolved with.
+     * <p>
+     * Pooled connections are partitioned by the resolver, which is compared
+     * with {@link Object#equals(Object)}, so requests, which are meant to
+     * share connections, must either share the same resolver instance, or
+     * use a resolver implementing <tt>equals()</tt> and <tt>hashCode()</tt>.
+     * Creating a new resolver per request defeats the connection pooling.
+     */
     public T setNameResolver(NameResolver nameResolver) {
         request.nameResolver = nameResolver;
         return derived.cast(this);
     }
 
+    public T setTimeoutBudget(TimeoutBudget timeoutBudget) {
+        request.timeoutBudget = timeoutBudget;
+        return derived.cast(this);
+    }
+
     public T setSignatureCalculator(SignatureCalculator signatureCalculator) {
         this.signatureCalculator = signatureCalculator;
         return derived.cast(this);
@@ -0,0 +1,188 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+/**
+ * Independent timeouts for the phases of a request execution. A phase, whose
+ * timeout is not set (zero or negative), is not limited separately.
+ * <p>
+ * A budget can be set as a client default using
+ * {@link AsyncHttpClientConfig.Builder#setTimeoutBudget(TimeoutBudget)} and
+ * overridden per request using
+ * {@link RequestBuilderBase#setTimeoutBudget(TimeoutBudget)}: each phase
+ * timeout, set in the request budget, overrides the client default.
+ * If a phase expires, the request fails with a {@link PhaseTimeoutException}.
+ */
+public class TimeoutBudget {
+
+    /**
+     * The phases of a request execution.
+     */
+    public enum Phase {
+        /**
+         * Waiting for a connection, when the connection limits are reached.
+         */
+        POOL_ACQUISITION("Pool acquisition"),
+        /**
+         * Establishing a new TCP connection. If this timeout is not set,
+         * {@link AsyncHttpClientConfig#getConnectTimeout()} is used.
+         */
+        CONNECT("Connect"),
+        /**
+         * The TLS handshake of a new connection.
+         */
+        TLS_HANDSHAKE("TLS handshake"),
+        /**
+         * From the moment the request is fully sent until the response
+         * status line is received.
+         */
+        FIRST_BYTE("Time to first byte"),
+        /**
+         * The entire request execution.
+         */
+        TOTAL("Total");
+        
+        private final String description;
+
+        private Phase(final String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private final int poolAcquisitionTimeout;
+    private final int connectTimeout;
+    private final int tlsHandshakeTimeout;
+    private final int firstByteTimeout;
+    private final int totalTimeout;
+
+    private TimeoutBudget(final Builder builder) {
+        poolAcquisitionTimeout = builder.poolAcquisitionTimeout;
+        connectTimeout = builder.connectTimeout;
+        tlsHandshakeTimeout = builder.tlsHandshakeTimeout;
+        firstByteTimeout = builder.firstByteTimeout;
+        totalTimeout = builder.totalTimeout;
+    }
+
+    /**
+     * @return the timeout of the passed phase in milliseconds, or a value
+     *          less than or equal to zero, if the phase timeout is not set.
+     */
+    public int getTimeout(final Phase phase) {
+        switch (phase) {
+            case POOL_ACQUISITION: return poolAcquisitionTimeout;
+            case CONNECT: return connectTimeout;
+            case TLS_HANDSHAKE: return tlsHandshakeTimeout;
+            case FIRST_BYTE: return firstByteTimeout;
+            case TOTAL: return totalTimeout;
+            default: throw new IllegalStateException("Unexpected phase: " + phase);
+        }
+    }
+
+    /**
+     * @return the timeout of the passed phase taken from the request budget,
+     *          or, if it's not set there, from the client default budget.
+     *          Either budget might be <tt>null</tt>.
+     */
+    public static int resolve(final Phase phase,
+            final TimeoutBudget requestBudget, final TimeoutBudget defaultBudget) {
+        if (requestBudget != null) {
+            final int timeout = requestBudget.getTimeout(phase);
+            if (timeout > 0) {
+                return timeout;
+            }
+        }
+        
+        return defaultBudget != null ? defaultBudget.getTimeout(phase) : -1;
+    }
+
+    @Override
+    public String toString() {
+        return "TimeoutBudget{poolAcquisition=" + poolAcquisitionTimeout
+                + ", connect=" + connectTimeout
+                + ", tlsHandshake=" + tlsHandshakeTimeout
+                + ", firstByte=" + firstByteTimeout
+                + ", total=" + totalTimeout + '}';
+    }
+
+    /**
+     * Builder for a {@link TimeoutBudget}. All the timeouts are in
+     * milliseconds.
+     */
+    public static class Builder {
+        private int poolAcquisitionTimeout = -1;
+        private int connectTimeout = -1;
+        private int tlsHandshakeTimeout = -1;
+        private int firstByteTimeout = -1;
+        private int totalTimeout = -1;
+
+        public Builder setPoolAcquisitionTimeout(final int poolAcquisitionTimeout) {
+            this.poolAcquisitionTimeout = poolAcquisitionTimeout;
+            return this;
+        }
+
+        public Builder setConnectTimeout(final int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder setTlsHandshakeTimeout(final int tlsHandshakeTimeout) {
+            this.tlsHandshakeTimeout = tlsHandshakeTimeout;
+            return this;
+        }
+
+        public Builder setFirstByteTimeout(final int firstByteTimeout) {
+            this.firstByteTimeout = firstByteTimeout;
+            return this;
+        }
+
+        public Builder setTotalTimeout(final int totalTimeout) {
+            this.totalTimeout = totalTimeout;
+            return this;
+        }
+
+        public TimeoutBudget build() {
+            return new TimeoutBudget(this);
+        }
+    }
+}
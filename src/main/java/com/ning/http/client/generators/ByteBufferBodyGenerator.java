@@ -0,0 +1,130 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.generators;
+
+import com.ning.http.client.Body;
+import com.ning.http.client.BodyGenerator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link BodyGenerator} backed by a list of, possibly direct,
+ * {@link ByteBuffer}s, which are sent from their position to their limit.
+ * The buffers are never modified, so the body can be sent again. Providers
+ * may send the buffers together, without copying them into a single one.
+ */
+public class ByteBufferBodyGenerator implements BodyGenerator {
+
+    private final List<ByteBuffer> buffers;
+
+    public ByteBufferBodyGenerator(List<ByteBuffer> buffers) {
+        this.buffers = Collections.unmodifiableList(buffers);
+    }
+
+    /**
+     * @return the buffers of the body, which must not be modified
+     */
+    public List<ByteBuffer> getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return the total number of bytes remaining in the buffers
+     */
+    public long getContentLength() {
+        long length = 0;
+        for (ByteBuffer buffer : buffers) {
+            length += buffer.remaining();
+        }
+        return length;
+    }
+
+    protected final class ByteBufferBody implements Body {
+        private int index;
+        private ByteBuffer current;
+
+        @Override
+        public long getContentLength() {
+            return ByteBufferBodyGenerator.this.getContentLength();
+        }
+
+        @Override
+        public long read(ByteBuffer byteBuffer) throws IOException {
+            long read = 0;
+            while (byteBuffer.hasRemaining()) {
+                if (current == null || !current.hasRemaining()) {
+                    if (index == buffers.size()) {
+                        break;
+                    }
+                    // leave the position of the body buffer untouched
+                    current = buffers.get(index++).duplicate();
+                    continue;
+                }
+
+                final int n = Math.min(current.remaining(), byteBuffer.remaining());
+                final ByteBuffer slice = current.duplicate();
+                slice.limit(slice.position() + n);
+                byteBuffer.put(slice);
+                current.position(current.position() + n);
+                read += n;
+            }
+
+            return read == 0 && index == buffers.size()
+                    && (current == null || !current.hasRemaining())
+                    ? -1
+                    : read;
+        }
+
+        @Override
+        public void close() {
+            index = 0;
+            current = null;
+        }
+    }
+
+    @Override
+    public Body createBody() throws IOException {
+        return new ByteBufferBody();
+    }
+}
@@ -54,10 +54,16 @@
  */
 package com.ning.http.client.multipart;
 
-import java.util.Timer;
+import com.ning.http.util.HashedTimingWheel;
 import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Fails a part upload, if nothing has been written for the stall time.
+ * The checks are driven by the shared {@link HashedTimingWheel}, so no
+ * thread is created per upload. The handler remains a {@link TimerTask},
+ * which runs a single check, for compatibility.
+ * 
  * @author Gail Hernandez
  */
 public class FilePartStallHandler extends TimerTask {
@@ -69,7 +75,13 @@ public class FilePartStallHandler extends TimerTask {
 
     public void completed() {
         if (_waitTime > 0) {
-            _timer.cancel();
+            synchronized (this) {
+                _completed = true;
+                if (_timeout != null) {
+                    _timeout.cancel();
+                    _timeout = null;
+                }
+            }
         }
     }
 
@@ -77,18 +89,20 @@ public class FilePartStallHandler extends TimerTask {
         return _failed;
     }
 
+    @Override
     public void run() {
-        if (!_written) {
-            _failed = true;
-            _timer.cancel();
-        }
-        _written = false;
+        check();
+    }
+
+    @Override
+    public boolean cancel() {
+        completed();
+        return super.cancel();
     }
 
     public void start() {
         if (_waitTime > 0) {
-            _timer = new Timer();
-            _timer.scheduleAtFixedRate(this, _waitTime, _waitTime);
+            schedule();
         }
     }
 
@@ -96,8 +110,39 @@ public class FilePartStallHandler extends TimerTask {
         _written = true;
     }
 
-    private long _waitTime;
-    private Timer _timer;
-    private boolean _failed;
-    private boolean _written;
+    /**
+     * @return <tt>true</tt> if something has been written since the last check
+     */
+    private boolean check() {
+        if (!_written) {
+            _failed = true;
+            return false;
+        }
+        _written = false;
+        return true;
+    }
+
+    private synchronized void schedule() {
+        if (!_completed) {
+            _timeout = HashedTimingWheel.sharedInstance().schedule(
+                    _check, _waitTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // the wheel runs the checks through a private task, so the public
+    // TimerTask.run() doesn't reschedule them
+    private final Runnable _check = new Runnable() {
+        @Override
+        public void run() {
+            if (check()) {
+                schedule();
+            }
+        }
+    };
+
+    private final long _waitTime;
+    private HashedTimingWheel.Timeout _timeout;
+    private boolean _completed;
+    private volatile boolean _failed;
+    private volatile boolean _written;
 }
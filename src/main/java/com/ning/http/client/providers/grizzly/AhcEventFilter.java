@@ -78,8 +78,9 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.filterchain.FilterChainContext;
 import org.glassfish.grizzly.filterchain.FilterChainEvent;
@@ -92,7 +93,6 @@ import org.glassfish.grizzly.http.HttpResponsePacket;
 import org.glassfish.grizzly.http.util.Header;
 import org.glassfish.grizzly.http.util.HttpStatus;
 import org.glassfish.grizzly.utils.Exceptions;
-import org.glassfish.grizzly.utils.IdleTimeoutFilter;
 import org.glassfish.grizzly.websockets.WebSocketHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -140,6 +140,20 @@ final class AhcEventFilter extends HttpClientFilter {
         // no-op
     }
 
+    @Override
+    public NextAction handleRead(final FilterChainContext ctx)
+            throws IOException {
+        final Connection connection = ctx.getConnection();
+        if (ConnectionManager.isIdle(connection)) {
+            // unsolicited data, like a 408 response, on an idle pooled
+            // connection: the connection can't be reused
+            ConnectionManager.onUnsolicitedData(connection);
+            return ctx.getStopAction();
+        }
+        
+        return super.handleRead(ctx);
+    }
+
     @Override
     public NextAction handleEvent(final FilterChainContext ctx,
             final FilterChainEvent event) throws IOException {
@@ -171,6 +185,9 @@ final class AhcEventFilter extends HttpClientFilter {
         
         final HttpTransactionContext context =
                 HttpTransactionContext.currentTransaction(content.getHttpHeader());
+        if (!context.isWSRequest) {
+            provider.armReadTimeout(ctx.getConnection());
+        }
         final AsyncHandler handler = context.getAsyncHandler();
         if (handler != null && context.currentState != AsyncHandler.STATE.ABORT) {
             try {
@@ -215,9 +232,11 @@ final class AhcEventFilter extends HttpClientFilter {
             final FilterChainContext ctx) {
         
         super.onInitialLineParsed(httpHeader, ctx);
+        provider.disarmFirstByteTimeout(ctx.getConnection());
         if (httpHeader.isSkipRemainder()) {
             return;
         }
+        provider.armReadTimeout(ctx.getConnection());
         final HttpResponsePacket responsePacket = (HttpResponsePacket) httpHeader;
         final HttpTransactionContext context =
                 HttpTransactionContext.currentTransaction(httpHeader);
@@ -326,6 +345,9 @@ final class AhcEventFilter extends HttpClientFilter {
                 HttpTransactionContext.currentTransaction(httpHeader);
         final HttpResponsePacket responsePacket = (HttpResponsePacket) httpHeader;
         final int statusCode = responsePacket.getStatus();
+        
+        provider.getConnectionManager().onResponseReceived(ctx.getConnection(),
+                statusCode, responsePacket.getHeader(Header.KeepAlive));
 
         if (context.establishingTunnel && !HttpStatus.PROXY_AUTHENTICATION_REQUIRED_407.statusMatches(statusCode) ) {
             // finish request/response processing, because Grizzly itself
@@ -359,24 +381,8 @@ final class AhcEventFilter extends HttpClientFilter {
                 
                 final Request newRequest = fc.getRequest();
                 final AsyncHandler newHandler = fc.getAsyncHandler();
-                try {
-                    final GrizzlyResponseFuture responseFuture = context.future;
-                    final ConnectionManager m = context.provider.getConnectionManager();
-                    final Connection c = m.openSync(newRequest);
-
-                    final HttpTransactionContext newContext =
-                            context.cloneAndStartTransactionFor(c, newRequest);
-                    responseFuture.setAsyncHandler(newHandler);
-                    responseFuture.setHttpTransactionCtx(newContext);
-                    
-                    try {
-                        provider.execute(newContext);
-                    } catch (IOException ioe) {
-                        newContext.abort(ioe);
-                    }
-                } catch (Exception e) {
-                    context.abort(e);
-                }
+                context.future.setAsyncHandler(newHandler);
+                sendNextRequest(context, null, newRequest, null);
                 return false;
             }
         }
@@ -403,11 +409,10 @@ final class AhcEventFilter extends HttpClientFilter {
                     httpHeader.setChunked(false);
                     ws.onConnect();
                     WebSocketHolder.set(ctx.getConnection(), context.protocolHandler, ws);
+                    provider.disarmReadTimeout(ctx.getConnection());
                     ((WebSocketUpgradeHandler) context.getAsyncHandler()).onSuccess(context.webSocket);
-                    final int wsTimeout = provider.getClientConfig().getWebSocketTimeout();
-                    IdleTimeoutFilter.setCustomTimeout(ctx.getConnection(),
-                            (wsTimeout <= 0) ? IdleTimeoutFilter.FOREVER : wsTimeout,
-                            TimeUnit.MILLISECONDS);
+                    provider.setIdleTimeout(ctx.getConnection(),
+                            provider.getClientConfig().getWebSocketTimeout());
                     context.done(handler.onCompleted());
                 } else {
                     httpHeader.setSkipRemainder(true);
@@ -439,6 +444,7 @@ final class AhcEventFilter extends HttpClientFilter {
     protected boolean onHttpPacketParsed(final HttpHeader httpHeader,
             final FilterChainContext ctx) {
         final Connection connection = ctx.getConnection();
+        provider.disarmReadTimeout(connection);
         
         final boolean result = super.onHttpPacketParsed(httpHeader, ctx);
         
@@ -500,10 +506,11 @@ final class AhcEventFilter extends HttpClientFilter {
             public void completed(HttpTransactionContext context) {
                 if (!context.isReuseConnection()) {
                     final Connection c = (Connection) httpContext.getCloseable();
+                    final ConnectionManager cm = context.provider.getConnectionManager();
                     if (!httpContext.getRequest().getProcessingState().isStayAlive()) {
                         context.keepAliveDisabled();
+                        cm.onKeepAliveDisabled(c);
                     } else {
-                        final ConnectionManager cm = context.provider.getConnectionManager();
                         cm.returnConnection(c);
                     }
                 }
@@ -511,6 +518,50 @@ final class AhcEventFilter extends HttpClientFilter {
         });
     }
 
+    /**
+     * Sends the next request of the same exchange (redirect, authentication
+     * round-trip or replay). The request is sent over the passed connection,
+     * or, if it's <tt>null</tt>, over a connection obtained asynchronously
+     * from the pool, so the selector thread is never blocked.
+     * 
+     * @param invocationStatus the {@link StatusHandler.InvocationStatus} of
+     *          the new transaction, or <tt>null</tt> to inherit the current one
+     */
+    private static void sendNextRequest(final HttpTransactionContext context,
+            final Connection connection, final Request nextRequest,
+            final StatusHandler.InvocationStatus invocationStatus) {
+        
+        final GrizzlyResponseFuture future = context.future;
+        if (future != null && future.isDeadlineExceeded()) {
+            // don't start a new round-trip, if there's no time left for it
+            context.abort(new TimeoutException("Timeout exceeded"));
+            return;
+        }
+        
+        final CompletionHandler<HttpTransactionContext> sendHandler =
+                new EmptyCompletionHandler<HttpTransactionContext>() {
+            @Override
+            public void completed(final HttpTransactionContext newContext) {
+                if (invocationStatus != null) {
+                    newContext.invocationStatus = invocationStatus;
+                }
+                try {
+                    newContext.provider.execute(newContext);
+                } catch (IOException ioe) {
+                    newContext.abort(ioe);
+                }
+            }
+        };
+        
+        if (connection != null) {
+            sendHandler.completed(
+                    context.cloneAndStartTransactionFor(connection, nextRequest));
+        } else {
+            context.cloneAndStartTransactionForNewConnection(nextRequest,
+                    false, sendHandler);
+        }
+    }
+
     private static boolean redirectCountExceeded(final HttpTransactionContext context) {
         return context.redirectCount > context.maxRedirectCount;
     }
@@ -559,8 +610,6 @@ final class AhcEventFilter extends HttpClientFilter {
                 return true;
             }
             
-            final GrizzlyAsyncHttpProvider provider =
-                    httpTransactionContext.provider;
             final Request req = httpTransactionContext.getAhcRequest();
 
             try {
@@ -612,26 +661,15 @@ final class AhcEventFilter extends HttpClientFilter {
                     httpTransactionContext.reuseConnection();
                 } else {
                     // if it's not keep-alive - take new Connection from the pool
-                    final ConnectionManager m = provider.getConnectionManager();
-                    c = m.openSync(req);
+                    c = null;
                 }
                 
                 final Request nextRequest = new RequestBuilder(req)
                         .setRealm(newRealm)
                         .build();
                 httpTransactionContext.skipCleanup = true;
-                final HttpTransactionContext newContext
-                        = httpTransactionContext.cloneAndStartTransactionFor(
-                                c, nextRequest);
-                if (!isContinueAuth) {
-                    newContext.invocationStatus = InvocationStatus.STOP;
-                }
-                
-                try {
-                    provider.execute(newContext);
-                } catch (IOException ioe) {
-                    newContext.abort(ioe);
-                }
+                sendNextRequest(httpTransactionContext, c, nextRequest,
+                        isContinueAuth ? null : InvocationStatus.STOP);
             } catch (Exception e) {
                 httpTransactionContext.abort(e);
             }
@@ -676,9 +714,6 @@ final class AhcEventFilter extends HttpClientFilter {
                 return true;
             }
             
-            final GrizzlyAsyncHttpProvider provider =
-                    httpTransactionContext.provider;
-                        
             final Request req = httpTransactionContext.getAhcRequest();
 
             try {
@@ -721,24 +756,15 @@ final class AhcEventFilter extends HttpClientFilter {
                     httpTransactionContext.reuseConnection();
                 } else {
                     // if it's not keep-alive - take new Connection from the pool
-                    final ConnectionManager m = provider.getConnectionManager();
-                    c = m.openSync(req);
+                    c = null;
                 }
                 
                 final Request nextRequest = new RequestBuilder(req)
                         .setRealm(newRealm)
                         .build();
                 
-                final HttpTransactionContext newContext
-                        = httpTransactionContext.cloneAndStartTransactionFor(
-                                c, nextRequest);
-                newContext.invocationStatus = InvocationStatus.STOP;
-                
-                try {
-                    provider.execute(newContext);
-                } catch (IOException ioe) {
-                    newContext.abort(ioe);
-                }
+                sendNextRequest(httpTransactionContext, c, nextRequest,
+                        InvocationStatus.STOP);
             } catch (Exception e) {
                 httpTransactionContext.abort(e);
             }
@@ -768,7 +794,6 @@ final class AhcEventFilter extends HttpClientFilter {
             }
                         
             final Request req = httpTransactionContext.getAhcRequest();
-            final GrizzlyAsyncHttpProvider provider = httpTransactionContext.provider;
             
             final Uri origUri = httpTransactionContext.lastRedirectUri == null
                     ? req.getUri()
@@ -796,22 +821,13 @@ final class AhcEventFilter extends HttpClientFilter {
                     httpTransactionContext.reuseConnection();
                 } else {
                     // if it's not keep-alive - take new Connection from the pool
-                    final ConnectionManager m = provider.getConnectionManager();
-                    c = m.openSync(nextRequest);
+                    c = null;
                 }
 
                 httpTransactionContext.skipCleanup = true;
 
-                final HttpTransactionContext newContext =
-                        httpTransactionContext.cloneAndStartTransactionFor(
-                                c, nextRequest);
-                
-                newContext.invocationStatus = InvocationStatus.CONTINUE;
-                try {
-                    provider.execute(newContext);
-                } catch (IOException ioe) {
-                    newContext.abort(ioe);
-                }
+                sendNextRequest(httpTransactionContext, c, nextRequest,
+                        InvocationStatus.CONTINUE);
                 
                 return false;
             } catch (Exception e) {
@@ -0,0 +1,169 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.util.HashedTimingWheel;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
+import org.glassfish.grizzly.attributes.Attribute;
+import org.glassfish.grizzly.filterchain.BaseFilter;
+import org.glassfish.grizzly.filterchain.FilterChainContext;
+import org.glassfish.grizzly.filterchain.NextAction;
+import org.glassfish.grizzly.utils.NullaryFunction;
+
+/**
+ * The idle timeout filter, which, unlike Grizzly's
+ * {@link org.glassfish.grizzly.utils.IdleTimeoutFilter}, doesn't scan all
+ * the connections periodically, but keeps a single {@link HashedTimingWheel}
+ * task per connection.
+ * <p>
+ * Only connections, whose idle timeout has been set using
+ * {@link #setIdleTimeout(Connection, long)} (upgraded WebSocket connections),
+ * are tracked, HTTP requests are limited by the request deadline.
+ * A connection is never timed out while an event is being processed, the
+ * timeout is (re)armed once the processing of the last event is complete.
+ * 
+ * @author Grizzly team
+ */
+final class AhcIdleTimeoutFilter extends BaseFilter {
+    static final long FOREVER = Long.MAX_VALUE;
+    
+    private static final Attribute<ConnectionTimeout> IDLE_TIMEOUT_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    AhcIdleTimeoutFilter.class.getName() + ".idle-timeout");
+    private static final Attribute<AtomicInteger> ACTIVE_EVENTS_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    AhcIdleTimeoutFilter.class.getName() + ".active-events",
+                    new NullaryFunction<AtomicInteger>() {
+                        @Override
+                        public AtomicInteger evaluate() {
+                            return new AtomicInteger();
+                        }
+                    });
+    private static final Attribute<Long> IDLE_TIMEOUT_MILLIS_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    AhcIdleTimeoutFilter.class.getName() + ".idle-timeout-millis");
+    
+    private final HashedTimingWheel wheel;
+    private final ConnectionTimeout.Handler timeoutHandler;
+    private final FilterChainContext.CompletionListener completionListener =
+            new FilterChainContext.CompletionListener() {
+                @Override
+                public void onComplete(final FilterChainContext ctx) {
+                    onEventComplete(ctx);
+                }
+            };
+
+    // -------------------------------------------------------- Constructors
+
+    AhcIdleTimeoutFilter(final HashedTimingWheel wheel,
+            final ConnectionTimeout.Handler timeoutHandler) {
+        this.wheel = wheel;
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    // ----------------------------------------------- Methods from BaseFilter
+
+    @Override
+    public NextAction handleRead(final FilterChainContext ctx)
+            throws IOException {
+        onEventStarted(ctx);
+        return ctx.getInvokeAction();
+    }
+
+    @Override
+    public NextAction handleWrite(final FilterChainContext ctx)
+            throws IOException {
+        onEventStarted(ctx);
+        return ctx.getInvokeAction();
+    }
+
+    // --------------------------------------------------- Package Methods
+
+    /**
+     * Starts tracking the idle timeout of the passed {@link Connection}.
+     */
+    void setIdleTimeout(final Connection connection,
+            final long timeoutMillis) {
+        IDLE_TIMEOUT_MILLIS_ATTR.set(connection, timeoutMillis);
+        if (timeoutMillis == FOREVER) {
+            obtainTimeout(connection).disarm();
+        } else {
+            obtainTimeout(connection).arm(timeoutMillis);
+        }
+    }
+    
+    // --------------------------------------------------- Private Methods
+
+    private void onEventStarted(final FilterChainContext ctx) {
+        final Connection connection = ctx.getConnection();
+        if (!IDLE_TIMEOUT_MILLIS_ATTR.isSet(connection)) {
+            return;
+        }
+        
+        if (ACTIVE_EVENTS_ATTR.get(connection).getAndIncrement() == 0) {
+            obtainTimeout(connection).disarm();
+        }
+        
+        ctx.addCompletionListener(completionListener);
+    }
+    
+    private void onEventComplete(final FilterChainContext ctx) {
+        final Connection connection = ctx.getConnection();
+        if (ACTIVE_EVENTS_ATTR.get(connection).decrementAndGet() != 0) {
+            return;
+        }
+        
+        final long timeout = IDLE_TIMEOUT_MILLIS_ATTR.get(connection);
+        if (timeout == FOREVER) {
+            obtainTimeout(connection).disarm();
+        } else {
+            obtainTimeout(connection).arm(timeout);
+        }
+    }
+    
+    private ConnectionTimeout obtainTimeout(final Connection connection) {
+        return ConnectionTimeout.obtain(IDLE_TIMEOUT_ATTR, connection,
+                wheel, timeoutHandler);
+    }
+}
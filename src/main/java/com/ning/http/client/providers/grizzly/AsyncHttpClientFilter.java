@@ -113,14 +113,26 @@ final class AsyncHttpClientFilter extends BaseFilter {
         private final static NTLMEngine ntlmEngine = new NTLMEngine();
     }
     
+    // the Host header value of the connection's last request
+    private final static Attribute<HostHeader> HOST_HEADER =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    AsyncHttpClientFilter.class.getName() + ".host-header");
+    
     private static final HeaderValue KEEP_ALIVE_VALUE = HeaderValue.newHeaderValue("keep-alive");
     private static final HeaderValue CLOSE_VALUE = HeaderValue.newHeaderValue("close");
+    private static final HeaderValue ACCEPT_ALL_VALUE = HeaderValue.newHeaderValue("*/*");
+    private static final HeaderValue GZIP_VALUE = HeaderValue.newHeaderValue("gzip");
 
     private final AsyncHttpClientConfig config;
+    // the User-Agent header value, encoded once for all the requests
+    private final HeaderValue userAgentValue;
 
     // -------------------------------------------------------- Constructors
     AsyncHttpClientFilter(final GrizzlyAsyncHttpProvider provider) {
         this.config = provider.getClientConfig();
+        this.userAgentValue = config.getUserAgent() != null
+                ? HeaderValue.newHeaderValue(config.getUserAgent())
+                : null;
     }
 
     // --------------------------------------------- Methods from BaseFilter
@@ -158,6 +170,7 @@ final class AsyncHttpClientFilter extends BaseFilter {
         if (!isUsedConnection) {
             USED_CONNECTION.set(connection, Boolean.TRUE);
         }
+        httpTxCtx.isReusedConnection = isUsedConnection;
         
         final Request ahcRequest = httpTxCtx.getAhcRequest();
         if (isUpgradeRequest(httpTxCtx.getAsyncHandler()) &&
@@ -225,7 +238,7 @@ final class AsyncHttpClientFilter extends BaseFilter {
         
         copyHeaders(ahcRequest, requestPacket);
         addCookies(ahcRequest, requestPacket);
-        addHostHeaderIfNeeded(ahcRequest, uri, requestPacket);
+        addHostHeaderIfNeeded(ahcRequest, uri, requestPacket, connection);
         addServiceHeaders(requestPacket);
         addAcceptHeaders(requestPacket);
         
@@ -401,21 +414,34 @@ final class AsyncHttpClientFilter extends BaseFilter {
     }
 
     private void addHostHeaderIfNeeded(final Request request, final Uri uri,
-            final HttpRequestPacket requestPacket) {
+            final HttpRequestPacket requestPacket, final Connection connection) {
         if (!requestPacket.containsHeader(Header.Host)) {
             String host = request.getVirtualHost();
             if (host != null) {
                 requestPacket.addHeader(Header.Host, host);
             } else {
-                if (uri.getPort() == -1) {
-                    requestPacket.addHeader(Header.Host, uri.getHost());
-                } else {
-                    requestPacket.addHeader(Header.Host, uri.getHost() + ':' + uri.getPort());
-                }
+                requestPacket.getHeaders().addValue(Header.Host)
+                        .setBytes(getHostHeader(connection, uri).value);
             }
         }
     }
 
+    /**
+     * @return the Host header of the passed {@link Uri}, which is encoded
+     *          once per connection, as all the requests sent over
+     *          a connection usually target the same host
+     */
+    private static HostHeader getHostHeader(final Connection connection,
+            final Uri uri) {
+        HostHeader hostHeader = HOST_HEADER.get(connection);
+        if (hostHeader == null || !hostHeader.matches(uri)) {
+            hostHeader = new HostHeader(uri);
+            HOST_HEADER.set(connection, hostHeader);
+        }
+        
+        return hostHeader;
+    }
+
     private Realm getRealm(final Request request) {
         return request.getRealm() != null ? request.getRealm() : config.getRealm();
     }
@@ -469,8 +495,8 @@ final class AsyncHttpClientFilter extends BaseFilter {
     private void addServiceHeaders(final HttpRequestPacket requestPacket) {
         final MimeHeaders headers = requestPacket.getHeaders();
 
-        if (!headers.contains(Header.UserAgent)) {
-            headers.addValue(Header.UserAgent).setString(config.getUserAgent());
+        if (userAgentValue != null && !headers.contains(Header.UserAgent)) {
+            headers.addValue(Header.UserAgent).setBytes(userAgentValue.getByteArray());
         }
         
         setKeepAliveForHeader(Header.Connection, requestPacket);
@@ -507,10 +533,10 @@ final class AsyncHttpClientFilter extends BaseFilter {
     private void addAcceptHeaders(final HttpRequestPacket requestPacket) {
         final MimeHeaders headers = requestPacket.getHeaders();
         if (config.isCompressionEnforced() && !headers.contains(Header.AcceptEncoding)) {
-            headers.addValue(Header.AcceptEncoding).setString("gzip");
+            headers.addValue(Header.AcceptEncoding).setBytes(GZIP_VALUE.getByteArray());
         }
         if (!headers.contains(Header.Accept)) {
-            headers.addValue(Header.Accept).setString("*/*");
+            headers.addValue(Header.Accept).setBytes(ACCEPT_ALL_VALUE.getByteArray());
         }
     }
 
@@ -537,4 +563,25 @@ final class AsyncHttpClientFilter extends BaseFilter {
         request.getProcessingState().setKeepAlive(
                 ConnectionManager.isKeepAlive(connection));
     }
+    
+    /**
+     * The encoded Host header value of a host and port.
+     */
+    private static final class HostHeader {
+        private final String host;
+        private final int port;
+        private final byte[] value;
+
+        private HostHeader(final Uri uri) {
+            host = uri.getHost();
+            port = uri.getPort();
+            value = HeaderValue.newHeaderValue(port == -1
+                    ? host
+                    : host + ':' + port).getByteArray();
+        }
+        
+        private boolean matches(final Uri uri) {
+            return port == uri.getPort() && host.equals(uri.getHost());
+        }
+    } // END HostHeader
 } // END AsyncHttpClientFiler
@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.CircuitBreakerConfig;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The circuit breaker of an endpoint.
+ * 
+ * @see CircuitBreakerConfig
+ */
+final class CircuitBreaker {
+    
+    /**
+     * The {@link #tryAcquire()} result of a request, which may not be sent.
+     */
+    static final long REJECTED = -1;
+    
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+    
+    private final CircuitBreakerConfig config;
+    private final long windowNanos;
+    private final long openDurationNanos;
+    
+    // the fields below are guarded by "this"
+    private State state = State.CLOSED;
+    // incremented on every state change, so the outcomes of the requests
+    // admitted in a previous state are not counted
+    private long epoch;
+    // the requests and failures counted in the current window
+    private long windowStartNanos = System.nanoTime();
+    private int requests;
+    private int failures;
+    private long openedNanos;
+    // the probes let through and succeeded since the circuit got half-open
+    private int probes;
+    private int succeededProbes;
+    private long lastProbeNanos;
+
+    CircuitBreaker(final CircuitBreakerConfig config) {
+        this.config = config;
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getWindow());
+        openDurationNanos = TimeUnit.MILLISECONDS.toNanos(config.getOpenDuration());
+    }
+    
+    /**
+     * @return the permit of the request, which has to be passed to
+     *          {@link #onSuccess(long)}, {@link #onFailure(long)} or
+     *          {@link #release(long)}, or {@link #REJECTED} if the request
+     *          may not be sent to the endpoint
+     */
+    synchronized long tryAcquire() {
+        final long now = System.nanoTime();
+        switch (state) {
+            case CLOSED:
+                return epoch;
+            case OPEN:
+                if (now - openedNanos < openDurationNanos) {
+                    return REJECTED;
+                }
+                
+                setState(State.HALF_OPEN);
+                probes = 0;
+                succeededProbes = 0;
+                // fall through
+            default:
+                if (probes >= config.getHalfOpenProbes()) {
+                    if (now - lastProbeNanos < openDurationNanos) {
+                        return REJECTED;
+                    }
+                    
+                    // the probes have got no outcome (cancelled), try again
+                    probes = succeededProbes;
+                }
+                
+                probes++;
+                lastProbeNanos = now;
+                return epoch;
+        }
+    }
+    
+    /**
+     * Gives the permit of a request back, which hasn't been sent after all,
+     * so a half-open circuit lets another probe through.
+     */
+    synchronized void release(final long permit) {
+        if (permit == epoch && state == State.HALF_OPEN
+                && probes > succeededProbes) {
+            probes--;
+        }
+    }
+    
+    synchronized void onSuccess(final long permit) {
+        if (permit != epoch) {
+            // an outcome of a request admitted in a previous state
+            return;
+        }
+        
+        switch (state) {
+            case CLOSED:
+                count(false);
+                break;
+            case HALF_OPEN:
+                if (++succeededProbes >= config.getHalfOpenProbes()) {
+                    close();
+                }
+                break;
+            default:
+                // unreachable, no request is admitted while open
+        }
+    }
+    
+    synchronized void onFailure(final long permit) {
+        if (permit != epoch) {
+            // an outcome of a request admitted in a previous state
+            return;
+        }
+        
+        switch (state) {
+            case CLOSED:
+                count(true);
+                break;
+            case HALF_OPEN:
+                open();
+                break;
+            default:
+                // unreachable, no request is admitted while open
+        }
+    }
+    
+    synchronized State getState() {
+        return state;
+    }
+    
+    private void count(final boolean isFailure) {
+        final long now = System.nanoTime();
+        if (now - windowStartNanos >= windowNanos) {
+            windowStartNanos = now;
+            requests = 0;
+            failures = 0;
+        }
+        
+        requests++;
+        if (isFailure) {
+            failures++;
+        }
+        
+        if (requests >= config.getMinimumRequests()
+                && failures >= requests * config.getFailureRateThreshold()) {
+            open();
+        }
+    }
+    
+    private void open() {
+        setState(State.OPEN);
+        openedNanos = System.nanoTime();
+    }
+    
+    private void close() {
+        setState(State.CLOSED);
+        windowStartNanos = System.nanoTime();
+        requests = 0;
+        failures = 0;
+    }
+    
+    private void setState(final State state) {
+        this.state = state;
+        epoch++;
+    }
+}
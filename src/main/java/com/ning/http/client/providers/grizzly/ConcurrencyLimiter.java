@@ -0,0 +1,178 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The adaptive concurrency limit of an endpoint and the number of requests
+ * in flight to it.
+ * 
+ * @see ConcurrencyLimiterConfig
+ */
+public final class ConcurrencyLimiter {
+    // the minimum RTT is re-learned every RTT_RESET_SAMPLES samples, so the
+    // limit follows a backend, which has become slower for good
+    private static final int RTT_RESET_SAMPLES = 1000;
+    
+    private final ConcurrencyLimiterConfig config;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    
+    // the fields below are guarded by "this"
+    private double estimatedLimit;
+    private long minRttNanos;
+    private int samples;
+
+    ConcurrencyLimiter(final ConcurrencyLimiterConfig config) {
+        this.config = config;
+        estimatedLimit = clamp(config.getInitialLimit());
+        limit = (int) estimatedLimit;
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the minimum round-trip time observed
+     */
+    public synchronized long getMinRtt(final TimeUnit unit) {
+        return unit.convert(minRttNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrencyLimiter{limit=" + limit
+                + ", inFlight=" + getInFlight()
+                + ", minRtt=" + getMinRtt(TimeUnit.MICROSECONDS) + "us"
+                + '}';
+    }
+
+    // --------------------------------------------------- Package Methods
+
+    /**
+     * @return <tt>true</tt> if the request has been admitted, in which case
+     *          its outcome must be reported
+     */
+    boolean tryAcquire() {
+        int n;
+        do {
+            n = inFlight.get();
+            if (n >= limit) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(n, n + 1));
+        
+        return true;
+    }
+
+    /**
+     * Reports a completed request and its round-trip time.
+     */
+    void onSample(final long rttNanos) {
+        final int n = inFlight.getAndDecrement();
+        
+        synchronized (this) {
+            if (++samples >= RTT_RESET_SAMPLES) {
+                samples = 0;
+                minRttNanos = 0;
+            }
+            if (minRttNanos == 0 || rttNanos < minRttNanos) {
+                minRttNanos = Math.max(rttNanos, 1);
+            }
+            
+            // the RTT gradient: 1 while the RTT is within the tolerance,
+            // down to 0.5 as the requests queue up on the backend
+            final double gradient = Math.max(0.5, Math.min(1.0,
+                    config.getRttTolerance() * minRttNanos / Math.max(rttNanos, 1)));
+            // the headroom, which lets the limit grow
+            final double queueSize = Math.sqrt(estimatedLimit);
+            final double newLimit = estimatedLimit * gradient + queueSize;
+            if (newLimit > estimatedLimit && n * 2 < estimatedLimit) {
+                // not limited by the concurrency, so nothing learned
+                return;
+            }
+            
+            update(estimatedLimit * (1 - config.getSmoothing())
+                    + newLimit * config.getSmoothing());
+        }
+    }
+
+    /**
+     * Reports a failed or timed out request.
+     */
+    void onDropped() {
+        inFlight.decrementAndGet();
+        
+        synchronized (this) {
+            update(estimatedLimit * config.getBackoffRatio());
+        }
+    }
+
+    /**
+     * Reports a request, whose outcome doesn't tell anything about the
+     * endpoint (cancelled, or rejected before it's been sent).
+     */
+    void onIgnored() {
+        inFlight.decrementAndGet();
+    }
+
+    private void update(final double newLimit) {
+        estimatedLimit = clamp(newLimit);
+        limit = (int) estimatedLimit;
+    }
+
+    private double clamp(final double value) {
+        return Math.max(config.getMinLimit(), Math.min(config.getMaxLimit(), value));
+    }
+}
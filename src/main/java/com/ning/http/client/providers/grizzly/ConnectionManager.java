@@ -55,22 +55,47 @@
 package com.ning.http.client.providers.grizzly;
 
 import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.CircuitBreakerConfig;
+import com.ning.http.client.CircuitBreakerOpenException;
+import com.ning.http.client.ConcurrencyLimitExceededException;
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import com.ning.http.client.LoadBalancer;
+import com.ning.http.client.NameResolver;
 import com.ning.http.client.ProxyServer;
+import com.ning.http.client.PhaseTimeoutException;
 import com.ning.http.client.Request;
+import com.ning.http.client.TimeoutBudget;
 import com.ning.http.client.uri.Uri;
+import com.ning.http.util.HashedTimingWheel;
 import com.ning.http.util.ProxyUtils;
 import java.io.IOException;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLEngine;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
 import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.ConnectorHandler;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.GrizzlyFuture;
@@ -79,9 +104,13 @@ import org.glassfish.grizzly.connectionpool.ConnectionInfo;
 import org.glassfish.grizzly.connectionpool.Endpoint;
 import org.glassfish.grizzly.connectionpool.MultiEndpointPool;
 import org.glassfish.grizzly.connectionpool.SingleEndpointPool;
+import org.glassfish.grizzly.impl.FutureImpl;
 import org.glassfish.grizzly.nio.transport.TCPNIOConnectorHandler;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
-import org.glassfish.grizzly.utils.Exceptions;
+import org.glassfish.grizzly.ssl.SSLUtils;
+import org.glassfish.grizzly.threadpool.GrizzlyExecutorService;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.glassfish.grizzly.utils.Futures;
 
 /**
  * Connection manager.
@@ -92,7 +121,14 @@ class ConnectionManager {
     private static final Attribute<Boolean> IS_NOT_KEEP_ALIVE =
             Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
                     ConnectionManager.class.getName() + ".is-not-keepalive");
+    private static final Attribute<ConnectionRecord> CONNECTION_RECORD_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    ConnectionManager.class.getName() + ".connection-record");
+    private static final Attribute<ConnectionTimeout> POOLED_IDLE_TIMEOUT_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    ConnectionManager.class.getName() + ".pooled-idle-timeout");
 
+    private final GrizzlyAsyncHttpProvider provider;
     private final boolean poolingEnabled;
     private final MultiEndpointPool<SocketAddress> pool;
     
@@ -100,14 +136,78 @@ class ConnectionManager {
     private final TCPNIOConnectorHandler defaultConnectionHandler;
     private final AsyncHttpClientConfig config;
     private final boolean poolingSSLConnections;
-    private final Map<String, Endpoint> endpointMap =
-            new ConcurrentHashMap<String,Endpoint>();
+    // the registry of endpoints, lock-free on lookup. Endpoints without
+    // connections or pending takes are evicted once idle, or once the
+    // registry is over capacity
+    private final ConcurrentMap<EndpointKey, AhcEndpoint> endpointMap =
+            new ConcurrentHashMap<EndpointKey, AhcEndpoint>();
+    private final int maxEndpoints;
+    private final long endpointIdleTimeoutNanos;
+    private final AtomicBoolean isIdleSweepScheduled = new AtomicBoolean();
+    private final AtomicBoolean isCapacitySweepScheduled = new AtomicBoolean();
+    private final Runnable idleEndpointSweeper = new Runnable() {
+        @Override
+        public void run() {
+            isIdleSweepScheduled.set(false);
+            sweepEndpoints();
+            if (!endpointMap.isEmpty()) {
+                scheduleIdleEndpointSweep();
+            }
+        }
+    };
+    private final Runnable capacityEndpointSweeper = new Runnable() {
+        @Override
+        public void run() {
+            isCapacitySweepScheduled.set(false);
+            sweepEndpoints();
+        }
+    };
+    private volatile HashedTimingWheel.Timeout idleSweepTask;
+    
+    // NameResolver invocations may block, so they never run on a selector thread
+    private final ExecutorService resolverExecutor;
+    // schedules the staggered connection attempts (Happy Eyeballs) and
+    // reaps idle pooled connections
+    private final HashedTimingWheel timingWheel;
+    private final int connectionAttemptDelay;
+    // the maximum number of requests per endpoint waiting for a connection
+    private final int maxWaitQueueSize;
+    // whether pooled connections are checked for liveness on checkout
+    private final boolean validatePooledConnections;
+    // selects the replica of a balanced host for every request, or null
+    private final LoadBalancer loadBalancer;
+    // the settings of the per-endpoint circuit breakers, or null
+    private final CircuitBreakerConfig circuitBreakerConfig;
+    // the settings of the per-endpoint concurrency limiters, or null
+    private final ConcurrencyLimiterConfig concurrencyLimiterConfig;
+    private final PoolWaitQueueStatistics waitQueueStatistics =
+            new PoolWaitQueueStatistics(null);
+    private final ConnectionPoolStatistics poolStatistics =
+            new ConnectionPoolStatistics(null, waitQueueStatistics);
+    // the number of request takes the pool hasn't served yet
+    private final AtomicInteger pendingPoolTakes = new AtomicInteger();
+    // the pooled connection idle timeout, if it's controlled by timingWheel
+    // rather than by the pool itself, otherwise -1
+    private final long pooledIdleTimeout;
+    private final ConnectionTimeout.Handler pooledIdleTimeoutHandler =
+            new ConnectionTimeout.Handler() {
+                @Override
+                public void onTimeout(final Connection connection) {
+                    if (isReadyInPool(connection)) {
+                        setEvictionReason(connection,
+                                ConnectionPoolStatistics.EvictionReason.IDLE);
+                        // the pool gets notified and removes the connection
+                        connection.closeSilently();
+                    }
+                }
+            };
 
     // -------------------------------------------------------- Constructors
     ConnectionManager(final GrizzlyAsyncHttpProvider provider,
             final TCPNIOTransport transport,
             final GrizzlyAsyncHttpProviderConfig providerConfig) {
         
+        this.provider = provider;
         this.transport = transport;
         config = provider.getClientConfig();
         this.poolingEnabled = config.isAllowPoolingConnections();
@@ -115,21 +215,78 @@ class ConnectionManager {
         
         defaultConnectionHandler = TCPNIOConnectorHandler.builder(transport).build();
         
+        final int resolverThreads = Math.max(2,
+                Runtime.getRuntime().availableProcessors());
+        resolverExecutor = GrizzlyExecutorService.createInstance(
+                ThreadPoolConfig.defaultConfig().copy()
+                .setCorePoolSize(1)
+                .setMaxPoolSize(resolverThreads)
+                .setPoolName("grizzly-ahc-resolver"));
+        
+        connectionAttemptDelay = providerConfig != null
+                ? (Integer) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.CONNECTION_ATTEMPT_DELAY)
+                : (Integer) GrizzlyAsyncHttpProviderConfig.Property.CONNECTION_ATTEMPT_DELAY.defaultValue;
+        maxWaitQueueSize = providerConfig != null
+                ? (Integer) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE)
+                : (Integer) GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE.defaultValue;
+        validatePooledConnections = providerConfig != null
+                ? (Boolean) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.VALIDATE_POOLED_CONNECTIONS)
+                : (Boolean) GrizzlyAsyncHttpProviderConfig.Property.VALIDATE_POOLED_CONNECTIONS.defaultValue;
+        loadBalancer = providerConfig != null
+                ? (LoadBalancer) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.LOAD_BALANCER)
+                : null;
+        circuitBreakerConfig = providerConfig != null
+                ? (CircuitBreakerConfig) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.CIRCUIT_BREAKER)
+                : null;
+        concurrencyLimiterConfig = providerConfig != null
+                ? (ConcurrencyLimiterConfig) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.CONCURRENCY_LIMITER)
+                : null;
+        timingWheel = provider.getTimingWheel();
+        maxEndpoints = providerConfig != null
+                ? (Integer) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.MAX_ENDPOINTS)
+                : (Integer) GrizzlyAsyncHttpProviderConfig.Property.MAX_ENDPOINTS.defaultValue;
+        final int endpointIdleTimeout = providerConfig != null
+                ? (Integer) providerConfig.getProperty(
+                        GrizzlyAsyncHttpProviderConfig.Property.ENDPOINT_IDLE_TIMEOUT)
+                : (Integer) GrizzlyAsyncHttpProviderConfig.Property.ENDPOINT_IDLE_TIMEOUT.defaultValue;
+        endpointIdleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(endpointIdleTimeout);
+        
         if (providerConfig != null && providerConfig.getConnectionPool() != null) {
             pool = providerConfig.getConnectionPool();
+            pooledIdleTimeout = -1;
         } else {
             if (poolingEnabled) {
+                // the pool scans all its connections every keepAliveCheckInterval,
+                // so let the timing wheel reap the idle connections instead,
+                // unless the connection TTL, which is checked by the same scan,
+                // is configured
+                final boolean isWheelReaping = config.getPooledConnectionIdleTimeout() > 0
+                        && config.getConnectionTTL() <= 0;
+                pooledIdleTimeout = isWheelReaping
+                        ? config.getPooledConnectionIdleTimeout()
+                        : -1;
+                
                 final MultiEndpointPool.Builder<SocketAddress> builder
                         = MultiEndpointPool.builder(SocketAddress.class)
-                        .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                        .connectTimeout(-1, TimeUnit.MILLISECONDS) // see AhcEndpoint.connect()
                         .asyncPollTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
                         .maxConnectionsTotal(config.getMaxConnections())
                         .maxConnectionsPerEndpoint(config.getMaxConnectionsPerHost())
-                        .keepAliveTimeout(config.getPooledConnectionIdleTimeout(), TimeUnit.MILLISECONDS)
+                        .keepAliveTimeout(isWheelReaping
+                                ? -1 // never expired by the pool
+                                : config.getPooledConnectionIdleTimeout(),
+                                TimeUnit.MILLISECONDS)
                         .keepAliveCheckInterval(1, TimeUnit.SECONDS)
                         .connectorHandler(defaultConnectionHandler)
                         .connectionTTL(config.getConnectionTTL(), TimeUnit.MILLISECONDS)
-                        .failFastWhenMaxSizeReached(true);
+                        .failFastWhenMaxSizeReached(maxWaitQueueSize <= 0);
 
                 if (!poolingSSLConnections) {
                     builder.endpointPoolCustomizer(new NoSSLPoolCustomizer());
@@ -137,119 +294,334 @@ class ConnectionManager {
 
                 pool = builder.build();
             } else {
+                pooledIdleTimeout = -1;
                 pool = MultiEndpointPool.builder(SocketAddress.class)
-                        .connectTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
+                        .connectTimeout(-1, TimeUnit.MILLISECONDS) // see AhcEndpoint.connect()
                         .asyncPollTimeout(config.getConnectTimeout(), TimeUnit.MILLISECONDS)
                         .maxConnectionsTotal(config.getMaxConnections())
                         .maxConnectionsPerEndpoint(config.getMaxConnectionsPerHost())
                         .keepAliveTimeout(0, TimeUnit.MILLISECONDS) // no pool
                         .connectorHandler(defaultConnectionHandler)
-                        .failFastWhenMaxSizeReached(true)
+                        .failFastWhenMaxSizeReached(maxWaitQueueSize <= 0)
                         .build();
             }
         }
     }
 
     // ----------------------------------------------------- Private Methods
+    /**
+     * Obtains a connection for the request asynchronously: either a pooled
+     * one, or a new one. If the maximum number of connections has been
+     * reached, the request waits in the FIFO wait queue of its endpoint
+     * for a connection to be released, limited by its pool acquisition
+     * timeout and by the deadline of the response future.
+     * 
+     * @param isPreviousFailed <tt>true</tt> if the previous transaction of
+     *          the response future, if any, has failed and the request is
+     *          being retried
+     */
     void openAsync(final Request request,
+            final GrizzlyResponseFuture<?> responseFuture,
+            final boolean isPreviousFailed,
             final CompletionHandler<Connection> completionHandler)
             throws IOException {
         
         final ProxyServer proxy = ProxyUtils.getProxyServer(config, request);
+        final LoadBalancer.Backend backend = loadBalancer != null
+                && proxy == null && request.getInetAddress() == null
+                ? loadBalancer.select(request, resolverExecutor)
+                : null;
+        final AhcEndpoint endpoint = retainEndpoint(request, proxy,
+                backend != null ? backend.getAddress() : request.getInetAddress());
         
-        final String scheme;
-        final String host;
-        final int port;
-        if (proxy != null) {
-            scheme = proxy.getProtocol().getProtocol();
-            host = proxy.getHost();
-            port = getPort(scheme, proxy.getPort());
-        } else {
-            final Uri uri = request.getUri();
-            scheme = uri.getScheme();
-            host = uri.getHost();
-            port = getPort(scheme, uri.getPort());
+        final CircuitBreaker circuitBreaker = endpoint.circuitBreaker;
+        final long circuitPermit = circuitBreaker != null
+                ? circuitBreaker.tryAcquire()
+                : CircuitBreaker.REJECTED;
+        if (circuitBreaker != null && circuitPermit == CircuitBreaker.REJECTED) {
+            endpoint.release();
+            responseFuture.startExchange(null, null, isPreviousFailed);
+            throw new CircuitBreakerOpenException(endpoint.getId().toString());
         }
         
-        final String partitionId = getPartitionId(request.getInetAddress(), request, proxy);
-        Endpoint endpoint = endpointMap.get(partitionId);
-        if (endpoint == null) {
-            final boolean isSecure = Utils.isSecure(scheme);
-            endpoint = new AhcEndpoint(partitionId,
-                    isSecure, request.getInetAddress(), host, port, request.getLocalAddress(),
-                    defaultConnectionHandler);
-
-            endpointMap.put(partitionId, endpoint);
+        final ConcurrencyLimiter limiter = endpoint.concurrencyLimiter;
+        if (limiter != null && !limiter.tryAcquire()) {
+            if (circuitBreaker != null) {
+                // the request is not sent, so it's not a half-open probe
+                circuitBreaker.release(circuitPermit);
+            }
+            endpoint.release();
+            responseFuture.startExchange(null, null, isPreviousFailed);
+            throw new ConcurrencyLimitExceededException(
+                    endpoint.getId().toString(), limiter.getLimit());
         }
-
-        pool.take(endpoint, completionHandler);
-    }
-
-    Connection openSync(final Request request)
-            throws IOException {
-        
-        final ProxyServer proxy = ProxyUtils.getProxyServer(config, request);
         
-        final String scheme;
-        final String host;
-        final int port;
-        if (proxy != null) {
-            scheme = proxy.getProtocol().getProtocol();
-            host = proxy.getHost();
-            port = getPort(scheme, proxy.getPort());
-        } else {
-            final Uri uri = request.getUri();
-            scheme = uri.getScheme();
-            host = uri.getHost();
-            port = getPort(scheme, uri.getPort());
-        }
+        responseFuture.startExchange(backend, limiter, isPreviousFailed);
         
-        final boolean isSecure = Utils.isSecure(scheme);
+        final int connectTimeout = provider.getPhaseTimeout(request,
+                TimeoutBudget.Phase.CONNECT);
+        final AcquisitionHandler acquisitionHandler = new AcquisitionHandler(
+                endpoint, completionHandler, responseFuture, connectTimeout,
+                circuitPermit);
+        acquisitionHandler.take();
         
-        final String partitionId = getPartitionId(request.getInetAddress(), request, proxy);
-        Endpoint endpoint = endpointMap.get(partitionId);
-        if (endpoint == null) {
-            endpoint = new AhcEndpoint(partitionId,
-                    isSecure, request.getInetAddress(), host, port, request.getLocalAddress(),
-                    defaultConnectionHandler);
-
-            endpointMap.put(partitionId, endpoint);
+        // if the request waits for a connection, which is being established
+        // on its behalf, it's limited by the connect timeout
+        if (!acquisitionHandler.isConnectStarted()) {
+            acquisitionHandler.startWaiting(provider.getPhaseTimeout(
+                    request, TimeoutBudget.Phase.POOL_ACQUISITION));
         }
+    }
 
-        Connection c = pool.poll(endpoint);
+    /**
+     * Opens up to the passed number of connections to the endpoint of the
+     * request ahead of traffic and parks them in the pool as ready. For
+     * https endpoints, which are not reached through a proxy, the TLS
+     * handshake is completed first. The connections are taken from the pool
+     * all at once, so every take opens a new connection, until the pool
+     * limits are reached. The future gets the number of connections parked.
+     */
+    void warmUp(final Request request, final int connections,
+            final GrizzlyResponseFuture<Integer> future) throws IOException {
+        final AhcEndpoint endpoint = retainEndpoint(request);
+        if (connections <= 0 || !poolingEnabled
+                || (endpoint.isSecure() && !poolingSSLConnections)) {
+            // the connections can't be pooled
+            endpoint.release();
+            future.done(0);
+            return;
+        }
         
-        if (c == null) {
-            final Future<Connection> future =
-                    defaultConnectionHandler.connect(
-                    new InetSocketAddress(host, port),
-                    request.getLocalAddress() != null
-                            ? new InetSocketAddress(request.getLocalAddress(), 0)
-                            : null);
-
-            final int cTimeout = config.getConnectTimeout();
+        final boolean isHandshake = endpoint.isSecure()
+                && ProxyUtils.getProxyServer(config, request) == null;
+        final WarmUp warmUp = new WarmUp(endpoint, future, isHandshake
+                ? request.getUri()
+                : null);
+        final int connectTimeout = provider.getPhaseTimeout(request,
+                TimeoutBudget.Phase.CONNECT);
+        
+        for (int i = 0; i < connections; i++) {
+            final WarmUp.TakeHandler takeHandler = warmUp.newTake();
+            final PendingTake pendingTake = new PendingTake(connectTimeout,
+                    CircuitBreaker.REJECTED);
+            
+            // an overflow take is not awaited, so it's withdrawn right away
+            final GrizzlyFuture<Connection> takeFuture;
+            endpoint.pendingTakes.offer(pendingTake);
             try {
-                c = cTimeout > 0
-                        ? future.get(cTimeout, TimeUnit.MILLISECONDS)
-                        : future.get();
-            } catch (ExecutionException ee) {
-                throw Exceptions.makeIOException(ee.getCause());
-            } catch (Exception e) {
-                throw Exceptions.makeIOException(e);
+                takeFuture = pool.take(endpoint);
             } finally {
-                future.cancel(false);
+                endpoint.pendingTakes.remove(pendingTake);
+            }
+            takeFuture.addCompletionHandler(takeHandler);
+            
+            if (!pendingTake.isConnectStarted.get()
+                    && !warmUp.isTakenRightAway(takeHandler)) {
+                // the pool limits have been reached, so the take either has
+                // been failed, or has been queued, in which case it's
+                // removed from the pool wait list
+                takeFuture.cancel(false);
+                break;
             }
         }
+        
+        warmUp.onAllTaken();
+    }
+
+    int getEndpointCount() {
+        return endpointMap.size();
+    }
 
-        assert c != null; // either connection is not null or exception thrown
-        return c;
+    /**
+     * @return the number of request takes the pool hasn't served, failed or
+     *          cancelled yet, either waiting for a connection to be released
+     *          or for a new connection to be established
+     */
+    int getPendingPoolTakeCount() {
+        return pendingPoolTakes.get();
+    }
+
+    PoolWaitQueueStatistics getWaitQueueStatistics() {
+        return waitQueueStatistics;
     }
 
     boolean returnConnection(final Connection c) {
-        return pool.release(c);
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        long idleTimeout = pooledIdleTimeout;
+        if (record != null) {
+            if (record.exchanges >= record.maxExchanges) {
+                // the server won't serve another request over the connection
+                record.evictionReason =
+                        ConnectionPoolStatistics.EvictionReason.NOT_KEEP_ALIVE;
+                c.closeSilently();
+                return false;
+            }
+            
+            // evict the connection before the server would close it
+            final long serverIdleTimeout = record.endpoint.keepAliveIdleTimeout;
+            if (serverIdleTimeout > 0
+                    && (idleTimeout <= 0 || serverIdleTimeout < idleTimeout)) {
+                idleTimeout = serverIdleTimeout;
+            }
+            
+            // mark idle before the pool can hand the connection out again
+            record.onReleased();
+        }
+        
+        final boolean isReturned = pool.release(c);
+        if (!isReturned) {
+            if (record != null) {
+                record.onTaken();
+            }
+        } else if (idleTimeout > 0) {
+            ConnectionTimeout.obtain(POOLED_IDLE_TIMEOUT_ATTR, c, timingWheel,
+                    pooledIdleTimeoutHandler).arm(idleTimeout);
+        }
+        
+        return isReturned;
+    }
+    
+    /**
+     * Counts the timed out request over the passed {@link Connection} as
+     * a failure of its endpoint.
+     */
+    void onRequestTimedOut(final Connection c) {
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        if (record != null && record.endpoint.circuitBreaker != null) {
+            record.endpoint.circuitBreaker.onFailure(record.circuitPermit);
+        }
+    }
+    
+    /**
+     * Counts the exchange completed over the passed {@link Connection}, the
+     * response status counts towards the circuit breaker of its endpoint, and
+     * applies the server hints of the response <tt>Keep-Alive</tt> header,
+     * if any: the <tt>timeout</tt> becomes the pooled idle timeout of the
+     * endpoint, minus a safety margin, and <tt>max</tt>, the number of
+     * requests the server accepts over the connection, retires it once
+     * reached. Interim (1xx) responses are not counted, as the exchange
+     * goes on with the final response.
+     */
+    void onResponseReceived(final Connection c, final int status,
+            final String keepAlive) {
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        if (record == null || status < 200) {
+            return;
+        }
+        
+        final CircuitBreaker circuitBreaker = record.endpoint.circuitBreaker;
+        if (circuitBreaker != null) {
+            if (status >= 500) {
+                circuitBreaker.onFailure(record.circuitPermit);
+            } else {
+                circuitBreaker.onSuccess(record.circuitPermit);
+            }
+        }
+        
+        final int exchanges = ++record.exchanges;
+        if (keepAlive == null) {
+            return;
+        }
+        
+        final int timeout = getKeepAliveParameter(keepAlive, "timeout");
+        if (timeout > 0) {
+            record.endpoint.keepAliveIdleTimeout = toPooledIdleTimeout(timeout);
+        }
+        final int max = getKeepAliveParameter(keepAlive, "max");
+        if (max >= 0) {
+            record.maxExchanges = exchanges + max;
+        }
+    }
+    
+    /**
+     * @return the value of the passed <tt>Keep-Alive</tt> header parameter,
+     *          like <tt>timeout</tt> in <tt>timeout=5, max=100</tt>, or -1
+     *          if it's missing or malformed
+     */
+    static int getKeepAliveParameter(final String keepAlive, final String name) {
+        final int len = keepAlive.length();
+        int start = 0;
+        while (start < len) {
+            int end = keepAlive.indexOf(',', start);
+            if (end == -1) {
+                end = len;
+            }
+            
+            final int eq = keepAlive.indexOf('=', start);
+            if (eq != -1 && eq < end
+                    && keepAlive.substring(start, eq).trim().equalsIgnoreCase(name)) {
+                try {
+                    return Integer.parseInt(keepAlive.substring(eq + 1, end).trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+            
+            start = end + 1;
+        }
+        
+        return -1;
+    }
+    
+    /**
+     * @return the pooled idle timeout, in milliseconds, for the passed server
+     *          keep-alive timeout, in seconds: a quarter of it earlier, but
+     *          at most a second
+     */
+    static long toPooledIdleTimeout(final int serverTimeoutSeconds) {
+        final long serverTimeout = TimeUnit.SECONDS.toMillis(serverTimeoutSeconds);
+        return serverTimeout - Math.min(serverTimeout / 4, 1000);
+    }
+    
+    /**
+     * Marks the passed {@link Connection} as not reusable, because either
+     * the client or the server disabled keep-alive.
+     */
+    void onKeepAliveDisabled(final Connection c) {
+        setEvictionReason(c, ConnectionPoolStatistics.EvictionReason.NOT_KEEP_ALIVE);
+    }
+    
+    ConnectionPoolStatistics getPoolStatistics() {
+        return poolStatistics;
+    }
+    
+    Map<String, ConnectionPoolStatistics> getEndpointStatistics() {
+        final Map<String, ConnectionPoolStatistics> result =
+                new LinkedHashMap<String, ConnectionPoolStatistics>();
+        for (AhcEndpoint endpoint : endpointMap.values()) {
+            result.put(endpoint.key.toString(), endpoint.statistics);
+        }
+        
+        return result;
+    }
+    
+    Map<String, ConcurrencyLimiter> getConcurrencyLimiters() {
+        final Map<String, ConcurrencyLimiter> result =
+                new LinkedHashMap<String, ConcurrencyLimiter>();
+        for (AhcEndpoint endpoint : endpointMap.values()) {
+            if (endpoint.concurrencyLimiter != null) {
+                result.put(endpoint.key.toString(), endpoint.concurrencyLimiter);
+            }
+        }
+        
+        return result;
+    }
+    
+    private static void setEvictionReason(final Connection c,
+            final ConnectionPoolStatistics.EvictionReason reason) {
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        if (record != null) {
+            record.evictionReason = reason;
+        }
     }
 
     void destroy() {
+        final HashedTimingWheel.Timeout sweepTask = idleSweepTask;
+        if (sweepTask != null) {
+            sweepTask.cancel();
+        }
         pool.close();
+        resolverExecutor.shutdownNow();
     }
 
     boolean isReadyInPool(final Connection c) {
@@ -257,17 +629,149 @@ class ConnectionManager {
         return ci != null && ci.isReady();
     }
     
+    /**
+     * Checks if the pooled connection can't be reused, because it has been
+     * closed while idle in the pool, either by the peer, or because it has
+     * got unexpected data, see {@link #onUnsolicitedData(Connection)}.
+     * The channel itself is read by the selector thread only, so the check
+     * relies on the connection state Grizzly maintains.
+     */
+    static boolean isStale(final Connection c) {
+        return !c.isOpen();
+    }
+    
+    /**
+     * @return <tt>true</tt> if the connection has been released to the pool
+     *          and hasn't been passed to a request since
+     */
+    static boolean isIdle(final Connection c) {
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        return record != null && record.isIdle.get();
+    }
+    
+    /**
+     * Closes the idle pooled connection, which has got unexpected data, like
+     * an unsolicited <tt>408</tt> response. Called by the selector thread.
+     */
+    static void onUnsolicitedData(final Connection c) {
+        final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(c);
+        if (record != null) {
+            record.evictionReason =
+                    ConnectionPoolStatistics.EvictionReason.SERVER_CLOSE;
+        }
+        
+        c.closeSilently();
+    }
+    
     static boolean isKeepAlive(final Connection connection) {
         return !IS_NOT_KEEP_ALIVE.isSet(connection);
     }
     
-    private static String getPartitionId(InetAddress overrideAddress, Request request,
-            ProxyServer proxyServer) {
-        return (overrideAddress != null ? overrideAddress.toString() + "_" : "") + 
-            request.getConnectionPoolPartitioning()
-             .getPartitionKey(request.getUri(), proxyServer).toString();
+    /**
+     * Looks up the endpoint of the request, registering it if needed, and
+     * retains it, so it's not evicted until {@link AhcEndpoint#release()}.
+     */
+    private AhcEndpoint retainEndpoint(final Request request) {
+        return retainEndpoint(request, ProxyUtils.getProxyServer(config, request),
+                request.getInetAddress());
     }
+    
+    /**
+     * Like {@link #retainEndpoint(Request)}, but the endpoint connects to
+     * the passed remote address, if it's not <tt>null</tt>, rather than to
+     * the address the request host resolves to.
+     */
+    private AhcEndpoint retainEndpoint(final Request request,
+            final ProxyServer proxy, final InetAddress remoteAddress) {
+        final EndpointKey probe = EndpointKey.probe(request, proxy, remoteAddress);
+        for (;;) {
+            AhcEndpoint endpoint = endpointMap.get(probe);
+            if (endpoint == null) {
+                final AhcEndpoint newEndpoint = createEndpoint(probe.copy(),
+                        request, proxy, remoteAddress);
+                endpoint = endpointMap.putIfAbsent(newEndpoint.key, newEndpoint);
+                if (endpoint == null) {
+                    endpoint = newEndpoint;
+                    onEndpointRegistered();
+                }
+            }
+            
+            if (endpoint.retain()) {
+                return endpoint;
+            }
+            
+            // the endpoint is being evicted, wait for its sub-pool to be closed,
+            // before a new one can be registered under the same id
+            synchronized (endpoint) {
+                endpointMap.remove(endpoint.key, endpoint);
+            }
+        }
+    }
+    
+    private AhcEndpoint createEndpoint(final EndpointKey key,
+            final Request request, final ProxyServer proxy,
+            final InetAddress remoteAddress) {
+        final String scheme;
+        final String host;
+        final int port;
+        if (proxy != null) {
+            scheme = proxy.getProtocol().getProtocol();
+            host = proxy.getHost();
+            port = getPort(scheme, proxy.getPort());
+        } else {
+            final Uri uri = request.getUri();
+            scheme = uri.getScheme();
+            host = uri.getHost();
+            port = getPort(scheme, uri.getPort());
+        }
 
+        final boolean isSecure = Utils.isSecure(scheme);
+        return new AhcEndpoint(key,
+                isSecure, remoteAddress, host, port, request.getLocalAddress(),
+                request.getNameResolver(), defaultConnectionHandler);
+    }
+    
+    private void onEndpointRegistered() {
+        if (maxEndpoints > 0 && endpointMap.size() > maxEndpoints
+                && isCapacitySweepScheduled.compareAndSet(false, true)) {
+            timingWheel.schedule(capacityEndpointSweeper, 0, TimeUnit.MILLISECONDS);
+        }
+        
+        scheduleIdleEndpointSweep();
+    }
+    
+    private void scheduleIdleEndpointSweep() {
+        if (endpointIdleTimeoutNanos > 0
+                && isIdleSweepScheduled.compareAndSet(false, true)) {
+            idleSweepTask = timingWheel.schedule(idleEndpointSweeper,
+                    endpointIdleTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+    
+    /**
+     * Evicts the endpoints, which have neither connections nor pending
+     * takes, and either have been idle for the endpoint idle timeout, or
+     * the registry is over capacity, closing their sub-pools.
+     */
+    private void sweepEndpoints() {
+        final long now = System.nanoTime();
+        final boolean isOverCapacity =
+                maxEndpoints > 0 && endpointMap.size() > maxEndpoints;
+        for (AhcEndpoint endpoint : endpointMap.values()) {
+            if (!isOverCapacity && (endpointIdleTimeoutNanos <= 0
+                    || now - endpoint.lastAccessNanos < endpointIdleTimeoutNanos)) {
+                continue;
+            }
+            
+            synchronized (endpoint) {
+                if (endpoint.tryEvict()) {
+                    pool.close(endpoint);
+                    endpointMap.remove(endpoint.key, endpoint);
+                }
+            }
+        }
+    }
+    
     private static int getPort(final String scheme, final int p) {
         int port = p;
         if (port == -1) {
@@ -285,26 +789,54 @@ class ConnectionManager {
 
     private class AhcEndpoint extends Endpoint<SocketAddress> {
 
-        private final String partitionId;
+        private final EndpointKey key;
         private final boolean isSecure;
         private final InetAddress remoteOverrideAddress;
         private final String host;
         private final int port;
         private final InetAddress localAddress;
+        private final NameResolver nameResolver;
         private final ConnectorHandler<SocketAddress> connectorHandler;
+        // the number of requests waiting for a connection to this endpoint
+        private final AtomicInteger waitQueueSize = new AtomicInteger();
+        // the number of open connections and pending takes, or -1 once evicted
+        private final AtomicInteger refs = new AtomicInteger();
+        private final PoolWaitQueueStatistics waitQueueStatistics =
+                new PoolWaitQueueStatistics(ConnectionManager.this.waitQueueStatistics);
+        private final ConnectionPoolStatistics statistics =
+                new ConnectionPoolStatistics(poolStatistics, waitQueueStatistics);
+        private final CircuitBreaker circuitBreaker = circuitBreakerConfig != null
+                ? new CircuitBreaker(circuitBreakerConfig)
+                : null;
+        private final ConcurrencyLimiter concurrencyLimiter =
+                concurrencyLimiterConfig != null
+                ? new ConcurrencyLimiter(concurrencyLimiterConfig)
+                : null;
+        private volatile long lastAccessNanos = System.nanoTime();
+        // the pooled idle timeout derived from the server Keep-Alive
+        // timeout, or -1 if the server hasn't advertised one
+        private volatile long keepAliveIdleTimeout = -1;
+        // the takes, which may be served by a new connection, in the order
+        // the pool serves them
+        private final Queue<PendingTake> pendingTakes =
+                new ConcurrentLinkedQueue<PendingTake>();
         
-        private AhcEndpoint(final String partitionId,
+        private AhcEndpoint(final EndpointKey key,
                 final boolean isSecure,
                 final InetAddress remoteOverrideAddress, final String host, final int port,
                 final InetAddress localAddress,
+                final NameResolver nameResolver,
                 final ConnectorHandler<SocketAddress> connectorHandler) {
             
-            this.partitionId = partitionId;
+            this.key = key;
             this.isSecure = isSecure;
             this.remoteOverrideAddress = remoteOverrideAddress;
             this.host = host;
             this.port = port;
             this.localAddress = localAddress;
+            this.nameResolver = nameResolver != null
+                    ? nameResolver
+                    : NameResolver.JdkNameResolver.INSTANCE;
             this.connectorHandler = connectorHandler;
         }
 
@@ -312,25 +844,193 @@ class ConnectionManager {
             return isSecure;
         }
         
+        /**
+         * Registers a pending take, so the endpoint is not evicted.
+         * 
+         * @return <tt>false</tt> if the endpoint has been evicted
+         */
+        private boolean retain() {
+            int r;
+            do {
+                r = refs.get();
+                if (r < 0) {
+                    return false;
+                }
+            } while (!refs.compareAndSet(r, r + 1));
+            
+            lastAccessNanos = System.nanoTime();
+            return true;
+        }
+        
+        private void release() {
+            lastAccessNanos = System.nanoTime();
+            refs.decrementAndGet();
+        }
+        
+        private boolean tryEvict() {
+            return refs.compareAndSet(0, -1);
+        }
+        
+        /**
+         * The pool establishes a new connection, calling {@link #connect()},
+         * either synchronously from within a take or later on, once there's
+         * room for it, on behalf of its oldest waiting take. Either way the
+         * connection goes to the oldest take, which isn't being served by
+         * another connection being established.
+         * 
+         * @return the take the connection is established for, or
+         *          <tt>null</tt> if the connection is not requested by a take
+         */
+        private PendingTake startPendingTakeConnect() {
+            for (PendingTake pendingTake : pendingTakes) {
+                if (pendingTake.isConnectStarted.compareAndSet(false, true)) {
+                    return pendingTake;
+                }
+            }
+            
+            return null;
+        }
+        
         @Override
         public Object getId() {
-            return partitionId;
+            return key;
         }
 
         @Override
         public GrizzlyFuture<Connection> connect() {
-            return (GrizzlyFuture<Connection>) connectorHandler.connect(
-                    buildRemoteSocketAddress(),
-                    localAddress != null
-                            ? new InetSocketAddress(localAddress, 0)
-                            : null);
+            final PendingTake pendingTake = startPendingTakeConnect();
+            final int connectTimeout;
+            final long circuitPermit;
+            if (pendingTake != null) {
+                connectTimeout = pendingTake.connectTimeout;
+                circuitPermit = pendingTake.circuitPermit;
+            } else {
+                // the connect is not triggered by a request, but by the pool
+                connectTimeout = provider.getPhaseTimeout(null,
+                        TimeoutBudget.Phase.CONNECT);
+                circuitPermit = CircuitBreaker.REJECTED;
+            }
+            
+            final FutureImpl<Connection> future = Futures.createSafeFuture();
+            if (connectTimeout > 0) {
+                armConnectTimeout(future, connectTimeout);
+            }
+            future.addCompletionHandler(new EmptyCompletionHandler<Connection>() {
+                @Override
+                public void cancelled() {
+                    statistics.onConnectFailed();
+                }
+
+                @Override
+                public void failed(final Throwable throwable) {
+                    statistics.onConnectFailed();
+                    if (circuitBreaker != null
+                            && circuitPermit != CircuitBreaker.REJECTED) {
+                        circuitBreaker.onFailure(circuitPermit);
+                    }
+                }
+            });
+            
+            if (remoteOverrideAddress != null) {
+                connectorHandler.connect(
+                        new InetSocketAddress(remoteOverrideAddress, port),
+                        buildLocalSocketAddress(),
+                        new ConnectCompletionHandler(future));
+                return future;
+            }
+            
+            if (Utils.isIpLiteral(host)) {
+                // no name resolution is required
+                connectorHandler.connect(new InetSocketAddress(host, port),
+                        buildLocalSocketAddress(),
+                        new ConnectCompletionHandler(future));
+                return future;
+            }
+            
+            try {
+                resolverExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (future.isDone()) {
+                            // the connect was cancelled (timed out) meanwhile
+                            return;
+                        }
+                        
+                        final InetAddress[] addresses;
+                        try {
+                            addresses = resolveAll();
+                        } catch (Throwable t) {
+                            future.failure(t);
+                            return;
+                        }
+                        
+                        if (addresses.length == 1 || connectionAttemptDelay <= 0) {
+                            connectorHandler.connect(
+                                    new InetSocketAddress(addresses[0], port),
+                                    buildLocalSocketAddress(),
+                                    new ConnectCompletionHandler(future));
+                        } else {
+                            new ConnectRace(future,
+                                    interleaveAddressFamilies(addresses),
+                                    port, buildLocalSocketAddress(),
+                                    connectorHandler).start();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.failure(new IOException(
+                        "Unable to resolve " + host + ": connection manager is closed"));
+            }
+            
+            return future;
         }
 
-        private InetSocketAddress buildRemoteSocketAddress()
-        {
-            return remoteOverrideAddress != null
-                    ? new InetSocketAddress(remoteOverrideAddress, port)
-                    : new InetSocketAddress(host, port);
+        private InetAddress[] resolveAll() throws UnknownHostException {
+            final InetAddress[] addresses =
+                    nameResolver instanceof NameResolver.MultiAddressNameResolver
+                    ? ((NameResolver.MultiAddressNameResolver) nameResolver).resolveAll(host)
+                    : new InetAddress[] {nameResolver.resolve(host)};
+            
+            if (addresses.length == 0) {
+                throw new UnknownHostException(host);
+            }
+            
+            return addresses;
+        }
+        
+        private void armConnectTimeout(final FutureImpl<Connection> future,
+                final int connectTimeout) {
+            final HashedTimingWheel.Timeout timeout = timingWheel.schedule(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            future.failure(new PhaseTimeoutException(
+                                    TimeoutBudget.Phase.CONNECT, connectTimeout));
+                        }
+                    }, connectTimeout, TimeUnit.MILLISECONDS);
+            
+            future.addCompletionHandler(new EmptyCompletionHandler<Connection>() {
+                @Override
+                public void cancelled() {
+                    timeout.cancel();
+                }
+
+                @Override
+                public void failed(final Throwable throwable) {
+                    timeout.cancel();
+                }
+
+                @Override
+                public void completed(final Connection result) {
+                    timeout.cancel();
+                }
+            });
+        }
+        
+        private InetSocketAddress buildLocalSocketAddress() {
+            return localAddress != null
+                    ? new InetSocketAddress(localAddress, 0)
+                    : null;
         }
 
         @Override
@@ -339,6 +1039,754 @@ class ConnectionManager {
             if (pool.getKeepAliveTimeout(TimeUnit.MILLISECONDS) == 0) {
                 IS_NOT_KEEP_ALIVE.set(connection, Boolean.TRUE);
             }
+            
+            // the connection is established on behalf of a pending take,
+            // which retains the endpoint
+            refs.incrementAndGet();
+            statistics.onConnected();
+            
+            final ConnectionRecord record = new ConnectionRecord(this);
+            CONNECTION_RECORD_ATTR.set(connection, record);
+            connection.addCloseListener(record);
+        }
+    }
+    
+    /**
+     * Completes the {@link Endpoint#connect()} future once a connect is done.
+     * If the future has been completed meanwhile (for example by the connect
+     * timeout) the newly established connection gets closed.
+     */
+    private static final class ConnectCompletionHandler
+            implements CompletionHandler<Connection> {
+        private final FutureImpl<Connection> future;
+
+        private ConnectCompletionHandler(final FutureImpl<Connection> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void cancelled() {
+            future.cancel(false);
+        }
+
+        @Override
+        public void failed(final Throwable throwable) {
+            future.failure(throwable);
+        }
+
+        @Override
+        public void completed(final Connection connection) {
+            deliver(future, connection);
+        }
+
+        @Override
+        public void updated(final Connection connection) {
+        }
+    }
+    
+    /**
+     * Completes the future with the passed {@link Connection}, or closes the
+     * connection, if the future has been completed with another result
+     * (cancelled, timed out) meanwhile.
+     */
+    private static void deliver(final FutureImpl<Connection> future,
+            final Connection connection) {
+        future.result(connection);
+        
+        boolean isDelivered;
+        try {
+            isDelivered = !future.isCancelled() && future.get() == connection;
+        } catch (Exception e) {
+            isDelivered = false;
+        }
+        
+        if (!isDelivered) {
+            connection.closeSilently();
+        }
+    }
+    
+    /**
+     * Reorders the resolved addresses so the address families alternate,
+     * starting with the family of the first (most preferred) address, as
+     * recommended by RFC 8305, section 4.
+     */
+    static InetAddress[] interleaveAddressFamilies(final InetAddress[] addresses) {
+        final List<InetAddress> first = new ArrayList<InetAddress>(addresses.length);
+        final List<InetAddress> second = new ArrayList<InetAddress>(addresses.length);
+        final boolean isFirstV6 = addresses[0] instanceof Inet6Address;
+        
+        for (InetAddress address : addresses) {
+            if ((address instanceof Inet6Address) == isFirstV6) {
+                first.add(address);
+            } else {
+                second.add(address);
+            }
+        }
+        
+        final InetAddress[] result = new InetAddress[addresses.length];
+        int idx = 0;
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                result[idx++] = first.get(i);
+            }
+            if (i < second.size()) {
+                result[idx++] = second.get(i);
+            }
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Races connection attempts to several addresses of the same host
+     * (RFC 8305 "Happy Eyeballs"). A new attempt is started every
+     * <tt>connectionAttemptDelay</tt> milliseconds, or immediately once the
+     * previous attempt failed. The first established connection completes the
+     * future, connections established by the other attempts are closed.
+     */
+    final class ConnectRace {
+        private final FutureImpl<Connection> future;
+        private final InetAddress[] addresses;
+        private final int port;
+        private final SocketAddress localAddress;
+        private final ConnectorHandler<SocketAddress> connectorHandler;
+        
+        // the fields below are guarded by "this"
+        private int nextAddressIdx;
+        private int pendingAttempts;
+        private boolean isWon;
+        private Throwable lastError;
+        private HashedTimingWheel.Timeout nextAttemptTask;
+
+        ConnectRace(final FutureImpl<Connection> future,
+                final InetAddress[] addresses, final int port,
+                final SocketAddress localAddress,
+                final ConnectorHandler<SocketAddress> connectorHandler) {
+            this.future = future;
+            this.addresses = addresses;
+            this.port = port;
+            this.localAddress = localAddress;
+            this.connectorHandler = connectorHandler;
+        }
+        
+        void start() {
+            startNextAttempt();
+        }
+        
+        private void startNextAttempt() {
+            final InetAddress address;
+            synchronized (this) {
+                if (isWon || future.isDone()
+                        || nextAddressIdx >= addresses.length) {
+                    return;
+                }
+                
+                address = addresses[nextAddressIdx++];
+                pendingAttempts++;
+                
+                if (nextAddressIdx < addresses.length) {
+                    // if the wheel is stopped, the remaining addresses are
+                    // tried on failure only
+                    nextAttemptTask = timingWheel.schedule(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    startNextAttempt();
+                                }
+                            }, connectionAttemptDelay, TimeUnit.MILLISECONDS);
+                }
+            }
+            
+            connectorHandler.connect(new InetSocketAddress(address, port),
+                    localAddress, new CompletionHandler<Connection>() {
+
+                @Override
+                public void cancelled() {
+                    onAttemptFailed(new IOException("Connect to " + address + " cancelled"));
+                }
+
+                @Override
+                public void failed(final Throwable throwable) {
+                    onAttemptFailed(throwable);
+                }
+
+                @Override
+                public void completed(final Connection connection) {
+                    onAttemptSucceeded(connection);
+                }
+
+                @Override
+                public void updated(final Connection connection) {
+                }
+            });
+        }
+        
+        private void onAttemptSucceeded(final Connection connection) {
+            final boolean isWinner;
+            synchronized (this) {
+                pendingAttempts--;
+                isWinner = !isWon;
+                isWon = true;
+                cancelNextAttemptTask();
+            }
+            
+            if (isWinner) {
+                deliver(future, connection);
+            } else {
+                connection.closeSilently();
+            }
+        }
+        
+        private void onAttemptFailed(final Throwable t) {
+            final boolean startNext;
+            synchronized (this) {
+                pendingAttempts--;
+                lastError = t;
+                if (isWon || future.isDone()) {
+                    return;
+                }
+                
+                startNext = nextAddressIdx < addresses.length;
+                if (startNext) {
+                    cancelNextAttemptTask();
+                } else if (pendingAttempts > 0) {
+                    return;
+                }
+            }
+            
+            if (startNext) {
+                startNextAttempt();
+            } else {
+                future.failure(lastError);
+            }
+        }
+        
+        private void cancelNextAttemptTask() {
+            if (nextAttemptTask != null) {
+                nextAttemptTask.cancel();
+                nextAttemptTask = null;
+            }
+        }
+    }
+    
+    /**
+     * Holds the connections taken from the pool by a warm-up until all the
+     * takes are complete, so every take opens a new connection, then
+     * returns them to the pool.
+     */
+    private final class WarmUp {
+        private final AhcEndpoint endpoint;
+        private final GrizzlyResponseFuture<Integer> future;
+        // the URI of the endpoint to complete the TLS handshake with, if any
+        private final Uri handshakeUri;
+        
+        // the fields below are guarded by "this"
+        private final List<Connection> connections = new ArrayList<Connection>();
+        private int pendingTakes;
+        private boolean isAllTaken;
+        private boolean isDone;
+        private Throwable lastError;
+
+        private WarmUp(final AhcEndpoint endpoint,
+                final GrizzlyResponseFuture<Integer> future,
+                final Uri handshakeUri) {
+            this.endpoint = endpoint;
+            this.future = future;
+            this.handshakeUri = handshakeUri;
+        }
+        
+        private synchronized TakeHandler newTake() {
+            pendingTakes++;
+            return new TakeHandler();
+        }
+        
+        /**
+         * @return <tt>true</tt> if the take has been served right away,
+         *          otherwise the take has either been failed by the pool
+         *          limits, or waits for a connection to be released, which
+         *          won't make the pool any warmer, so it's not awaited
+         */
+        private synchronized boolean isTakenRightAway(final TakeHandler takeHandler) {
+            if (takeHandler.isCompleted) {
+                return !takeHandler.isFailed;
+            }
+            
+            takeHandler.isOverflow = true;
+            pendingTakes--;
+            return false;
+        }
+        
+        private void onAllTaken() {
+            synchronized (this) {
+                isAllTaken = true;
+            }
+            
+            checkDone();
+        }
+        
+        private void onTakeSucceeded(final Connection connection) {
+            final boolean isHeld;
+            synchronized (this) {
+                pendingTakes--;
+                isHeld = !isDone;
+                if (isHeld) {
+                    connections.add(connection);
+                }
+            }
+            
+            if (!isHeld) {
+                release(connection);
+            }
+            checkDone();
+        }
+        
+        private void onTakeFailed(final Throwable t) {
+            synchronized (this) {
+                pendingTakes--;
+                lastError = t;
+            }
+            
+            checkDone();
+        }
+        
+        private void checkDone() {
+            final List<Connection> warmConnections;
+            final Throwable error;
+            synchronized (this) {
+                if (isDone || !isAllTaken || pendingTakes > 0) {
+                    return;
+                }
+                
+                isDone = true;
+                warmConnections = new ArrayList<Connection>(connections);
+                connections.clear();
+                error = lastError;
+            }
+            
+            for (Connection connection : warmConnections) {
+                release(connection);
+            }
+            endpoint.release();
+            
+            if (warmConnections.isEmpty() && error != null) {
+                future.abort(error);
+            } else {
+                future.done(warmConnections.size());
+            }
+        }
+        
+        private void release(final Connection connection) {
+            if (!returnConnection(connection)) {
+                connection.closeSilently();
+            }
+        }
+        
+        private final class TakeHandler
+                extends EmptyCompletionHandler<Connection> {
+            // the fields below are guarded by WarmUp.this
+            private boolean isCompleted;
+            private boolean isFailed;
+            private boolean isOverflow;
+
+            @Override
+            public void cancelled() {
+                failed(new IOException("Connection warm-up cancelled"));
+            }
+
+            @Override
+            public void failed(final Throwable throwable) {
+                if (complete(true)) {
+                    onTakeFailed(throwable);
+                }
+            }
+
+            @Override
+            public void completed(final Connection connection) {
+                final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(connection);
+                if (record != null) {
+                    record.onTaken();
+                }
+                
+                if (!complete(false)) {
+                    release(connection);
+                    return;
+                }
+                
+                if (handshakeUri == null
+                        || SSLUtils.getSSLEngine(connection) != null) {
+                    // plain connection, or the connection has been secured already
+                    onTakeSucceeded(connection);
+                    return;
+                }
+                
+                try {
+                    provider.getSslFilter().handshake(connection,
+                            handshakeUri.getHost(), handshakeUri.getPort(),
+                            new EmptyCompletionHandler<SSLEngine>() {
+                        @Override
+                        public void completed(final SSLEngine sslEngine) {
+                            onTakeSucceeded(connection);
+                        }
+
+                        @Override
+                        public void failed(final Throwable throwable) {
+                            connection.closeSilently();
+                            onTakeFailed(throwable);
+                        }
+                    });
+                } catch (IOException e) {
+                    connection.closeSilently();
+                    onTakeFailed(e);
+                }
+            }
+            
+            /**
+             * @return <tt>false</tt> if the take is an overflow one, which
+             *          isn't awaited by the warm-up
+             */
+            private boolean complete(final boolean isFailure) {
+                synchronized (WarmUp.this) {
+                    isCompleted = true;
+                    isFailed = isFailure;
+                    return !isOverflow;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tracks the pool state of a connection for the statistics of its
+     * endpoint, and releases the endpoint once the connection is closed.
+     */
+    private final class ConnectionRecord
+            implements CloseListener<Closeable, CloseType> {
+        private final AhcEndpoint endpoint;
+        private final long connectedNanos = System.nanoTime();
+        private final AtomicBoolean isIdle = new AtomicBoolean();
+        private volatile long idleSinceNanos;
+        private volatile ConnectionPoolStatistics.EvictionReason evictionReason;
+        // the number of exchanges completed, and the number of exchanges the
+        // server accepts over the connection
+        private volatile int exchanges;
+        private volatile int maxExchanges = Integer.MAX_VALUE;
+        // the circuit breaker permit of the request served over the
+        // connection, its outcome counts only if it's still current
+        private volatile long circuitPermit = CircuitBreaker.REJECTED;
+
+        private ConnectionRecord(final AhcEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+        
+        private void onReleased() {
+            idleSinceNanos = System.nanoTime();
+            if (isIdle.compareAndSet(false, true)) {
+                endpoint.statistics.onReleased();
+            }
+        }
+        
+        /**
+         * @return <tt>true</tt> if the connection was idle in the pool
+         */
+        private boolean onTaken() {
+            if (isIdle.compareAndSet(true, false)) {
+                endpoint.statistics.onTaken();
+                return true;
+            }
+            
+            return false;
+        }
+
+        @Override
+        public void onClosed(final Closeable closeable, final CloseType type)
+                throws IOException {
+            final boolean wasIdle = isIdle.getAndSet(false);
+            ConnectionPoolStatistics.EvictionReason reason = evictionReason;
+            if (reason == null && wasIdle) {
+                final long now = System.nanoTime();
+                final long ttl = config.getConnectionTTL();
+                final long idleTimeout = config.getPooledConnectionIdleTimeout();
+                if (CloseType.REMOTELY.equals(type)) {
+                    reason = ConnectionPoolStatistics.EvictionReason.SERVER_CLOSE;
+                } else if (ttl > 0 && now - connectedNanos
+                        >= TimeUnit.MILLISECONDS.toNanos(ttl)) {
+                    reason = ConnectionPoolStatistics.EvictionReason.TTL;
+                } else if (idleTimeout > 0 && now - idleSinceNanos
+                        >= TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+                    reason = ConnectionPoolStatistics.EvictionReason.IDLE;
+                }
+                // otherwise closed by the client shutting down or evicting
+                // the endpoint
+            }
+            
+            endpoint.statistics.onClosed(wasIdle, reason);
+            endpoint.release();
+        }
+    }
+    
+    /**
+     * The connect settings of a take, which the pool may serve by
+     * establishing a new connection.
+     */
+    private static final class PendingTake {
+        private final int connectTimeout;
+        private final long circuitPermit;
+        private final AtomicBoolean isConnectStarted = new AtomicBoolean();
+
+        private PendingTake(final int connectTimeout, final long circuitPermit) {
+            this.connectTimeout = connectTimeout;
+            this.circuitPermit = circuitPermit;
+        }
+    }
+    
+    /**
+     * Passes the connection taken from the pool to the request, unless the
+     * request has given up waiting (its pool acquisition timeout or deadline
+     * has expired) or has been completed meanwhile, in which case the
+     * connection is returned to the pool.
+     */
+    private final class AcquisitionHandler
+            implements CompletionHandler<Connection>, Runnable {
+        private final AhcEndpoint endpoint;
+        private final CompletionHandler<Connection> delegate;
+        private final GrizzlyResponseFuture<?> responseFuture;
+        private final int connectTimeout;
+        private final long circuitPermit;
+        private final long startNanos = System.nanoTime();
+        // the connect settings of the current take
+        private volatile PendingTake pendingTake;
+        
+        // the fields below are guarded by "this"
+        private boolean isDone;
+        private boolean isWaiting;
+        private long waitStartNanos;
+        private HashedTimingWheel.Timeout timeout;
+        private int acquisitionTimeout;
+        private GrizzlyFuture<Connection> takeFuture;
+
+        private AcquisitionHandler(final AhcEndpoint endpoint,
+                final CompletionHandler<Connection> delegate,
+                final GrizzlyResponseFuture<?> responseFuture,
+                final int connectTimeout, final long circuitPermit) {
+            this.endpoint = endpoint;
+            this.delegate = delegate;
+            this.responseFuture = responseFuture;
+            this.connectTimeout = connectTimeout;
+            this.circuitPermit = circuitPermit;
+        }
+
+        /**
+         * Takes a connection from the pool. If the pool has to queue the
+         * take, the take is cancelled once the request gives up waiting, so
+         * it's removed from the wait list of the pool.
+         */
+        private void take() {
+            final PendingTake t = new PendingTake(connectTimeout, circuitPermit);
+            pendingTake = t;
+            endpoint.pendingTakes.offer(t);
+            
+            final GrizzlyFuture<Connection> f = pool.take(endpoint);
+            pendingPoolTakes.incrementAndGet();
+            synchronized (this) {
+                takeFuture = f;
+            }
+            
+            f.addCompletionHandler(this);
+        }
+        
+        /**
+         * Gives the circuit breaker permit back, as the request is not sent.
+         */
+        private void releaseCircuitPermit() {
+            if (endpoint.circuitBreaker != null) {
+                endpoint.circuitBreaker.release(circuitPermit);
+            }
+        }
+        
+        /**
+         * @return <tt>true</tt> if a new connection is being established for
+         *          the current take
+         */
+        private boolean isConnectStarted() {
+            return pendingTake.isConnectStarted.get();
+        }
+        
+        /**
+         * Withdraws the current take, which has been served, failed or
+         * cancelled, from the takes a new connection may be established for.
+         */
+        private void onTakeDone() {
+            pendingPoolTakes.decrementAndGet();
+            endpoint.pendingTakes.remove(pendingTake);
+        }
+        
+        private void cancelTake() {
+            final GrizzlyFuture<Connection> f;
+            synchronized (this) {
+                f = takeFuture;
+            }
+            
+            // if the connection has been delivered meanwhile, completed(...)
+            // returns it to the pool
+            f.cancel(false);
+        }
+        
+        /**
+         * Puts the request, which hasn't got a connection right away, in
+         * the wait queue of the endpoint, or rejects it if the queue is full.
+         */
+        private void startWaiting(final int acquisitionTimeout) {
+            synchronized (this) {
+                if (isDone) {
+                    return;
+                }
+                
+                if (maxWaitQueueSize <= 0) {
+                    // no wait queue, the pool fails fast, so the request
+                    // may only wait for a connection being established
+                    // on behalf of another request
+                    if (acquisitionTimeout > 0) {
+                        this.acquisitionTimeout = acquisitionTimeout;
+                        timeout = timingWheel.schedule(this,
+                                acquisitionTimeout, TimeUnit.MILLISECONDS);
+                    }
+                    
+                    return;
+                }
+                
+                if (endpoint.waitQueueSize.incrementAndGet() <= maxWaitQueueSize) {
+                    isWaiting = true;
+                    waitStartNanos = System.nanoTime();
+                    endpoint.waitQueueStatistics.onWaitStarted();
+                    
+                    final long remaining =
+                            responseFuture.getRemainingTime(TimeUnit.MILLISECONDS);
+                    final long waitTimeout = acquisitionTimeout > 0
+                            ? Math.min(acquisitionTimeout, remaining)
+                            : remaining;
+                    if (waitTimeout != Long.MAX_VALUE) {
+                        this.acquisitionTimeout = acquisitionTimeout;
+                        timeout = timingWheel.schedule(this,
+                                Math.max(waitTimeout, 0), TimeUnit.MILLISECONDS);
+                    }
+                    
+                    return;
+                }
+                
+                endpoint.waitQueueSize.decrementAndGet();
+                isDone = true;
+            }
+            
+            endpoint.release();
+            cancelTake();
+            releaseCircuitPermit();
+            responseFuture.onConnectionAcquisitionFailed();
+            endpoint.waitQueueStatistics.onRejected();
+            delegate.failed(new IOException("Max connections exceeded, "
+                    + maxWaitQueueSize + " requests are already waiting for a connection to "
+                    + endpoint.getId()));
+        }
+        
+        @Override
+        public void run() {
+            final int timedOutAcquisition;
+            synchronized (this) {
+                if (isDone) {
+                    return;
+                }
+                
+                timedOutAcquisition = acquisitionTimeout;
+                complete(true);
+            }
+            
+            cancelTake();
+            releaseCircuitPermit();
+            responseFuture.onConnectionAcquisitionFailed();
+            delegate.failed(timedOutAcquisition > 0 && !responseFuture.isDeadlineExceeded()
+                    ? new PhaseTimeoutException(
+                            TimeoutBudget.Phase.POOL_ACQUISITION, timedOutAcquisition)
+                    : new TimeoutException("Timeout exceeded"));
+        }
+
+        @Override
+        public void cancelled() {
+            onTakeDone();
+            if (tryComplete()) {
+                delegate.cancelled();
+            }
+        }
+
+        @Override
+        public void failed(final Throwable throwable) {
+            onTakeDone();
+            if (tryComplete()) {
+                delegate.failed(throwable);
+            }
+        }
+
+        @Override
+        public void completed(final Connection connection) {
+            onTakeDone();
+            final ConnectionRecord record = CONNECTION_RECORD_ATTR.get(connection);
+            final boolean isReuse = record != null && record.onTaken();
+            
+            if (isReuse && validatePooledConnections && isStale(connection)) {
+                record.evictionReason =
+                        ConnectionPoolStatistics.EvictionReason.SERVER_CLOSE;
+                // the pool forgets the connection once it's closed
+                connection.closeSilently();
+                
+                if (!responseFuture.isDone()) {
+                    // take another connection in place of the stale one,
+                    // which is either a pooled connection, a new one or
+                    // a place in the wait queue, depending on the pool state
+                    take();
+                } else {
+                    tryComplete();
+                }
+                
+                return;
+            }
+            
+            if (tryComplete() && !responseFuture.isDone()) {
+                endpoint.statistics.onCheckout(System.nanoTime() - startNanos,
+                        isReuse);
+                if (record != null) {
+                    record.circuitPermit = circuitPermit;
+                }
+                responseFuture.onConnectionCheckedOut();
+                delegate.completed(connection);
+            } else if (!returnConnection(connection)) {
+                connection.closeSilently();
+            }
+        }
+
+        @Override
+        public void updated(final Connection connection) {
+        }
+        
+        private synchronized boolean tryComplete() {
+            if (isDone) {
+                return false;
+            }
+            
+            complete(false);
+            return true;
+        }
+        
+        private void complete(final boolean isTimedOut) {
+            isDone = true;
+            
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            
+            if (isWaiting) {
+                endpoint.waitQueueSize.decrementAndGet();
+                endpoint.waitQueueStatistics.onWaitCompleted(
+                        System.nanoTime() - waitStartNanos, isTimedOut);
+            }
+            
+            endpoint.release();
         }
     }
     
@@ -0,0 +1,364 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Live connection pool statistics, either of a single endpoint (a partition
+ * of the pool), or aggregated for the whole client.
+ * 
+ * @see GrizzlyAsyncHttpProvider#getConnectionPoolStatistics()
+ * @see GrizzlyAsyncHttpProvider#getEndpointStatistics()
+ * 
+ * @author Grizzly team
+ */
+public final class ConnectionPoolStatistics
+        implements ConnectionPoolStatisticsMXBean {
+    
+    /**
+     * The reason a connection has left the pool.
+     */
+    public enum EvictionReason {
+        /**
+         * Idle in the pool longer than the pooled connection idle timeout.
+         */
+        IDLE,
+        /**
+         * Open longer than the connection TTL.
+         */
+        TTL,
+        /**
+         * Not reusable, because either the client or the server disabled
+         * keep-alive.
+         */
+        NOT_KEEP_ALIVE,
+        /**
+         * Closed by the server, while idle in the pool.
+         */
+        SERVER_CLOSE
+    }
+    
+    // the connect rate is counted in one-second buckets over RATE_WINDOW
+    // seconds. Buckets are reset lazily, so the rate is approximate
+    private static final int RATE_BUCKETS = 16;
+    private static final int RATE_WINDOW = 10;
+    
+    private final ConnectionPoolStatistics parent;
+    // the source of the pending waiter count
+    private final PoolWaitQueueStatistics waitQueueStatistics;
+    
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger idleConnections = new AtomicInteger();
+    private final AtomicLong connectCount = new AtomicLong();
+    private final AtomicLong connectFailureCount = new AtomicLong();
+    private final AtomicLongArray connectBuckets = new AtomicLongArray(RATE_BUCKETS);
+    private final AtomicLongArray bucketSeconds = new AtomicLongArray(RATE_BUCKETS);
+    private final AtomicLong checkoutCount = new AtomicLong();
+    private final AtomicLong reuseCount = new AtomicLong();
+    private final AtomicLong totalCheckoutWaitNanos = new AtomicLong();
+    private final AtomicLong maxCheckoutWaitNanos = new AtomicLong();
+    private final AtomicLongArray evictionCounts =
+            new AtomicLongArray(EvictionReason.values().length);
+
+    ConnectionPoolStatistics(final ConnectionPoolStatistics parent,
+            final PoolWaitQueueStatistics waitQueueStatistics) {
+        this.parent = parent;
+        this.waitQueueStatistics = waitQueueStatistics;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+    /**
+     * @return the number of open connections, idle or busy
+     */
+    @Override
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return the number of connections idle in the pool
+     */
+    @Override
+    public int getIdleConnections() {
+        return idleConnections.get();
+    }
+
+    /**
+     * @return the number of connections in use by requests
+     */
+    @Override
+    public int getBusyConnections() {
+        return Math.max(openConnections.get() - idleConnections.get(), 0);
+    }
+
+    /**
+     * @return the number of requests waiting for a connection to be released
+     * 
+     * @see PoolWaitQueueStatistics#getQueueDepth()
+     */
+    @Override
+    public int getPendingWaiters() {
+        return waitQueueStatistics.getQueueDepth();
+    }
+
+    /**
+     * @return the number of connections established
+     */
+    @Override
+    public long getConnectCount() {
+        return connectCount.get();
+    }
+
+    /**
+     * @return the number of failed connection attempts
+     */
+    @Override
+    public long getConnectFailureCount() {
+        return connectFailureCount.get();
+    }
+
+    /**
+     * @return the average number of connections established per second
+     *          over the last ten seconds
+     */
+    @Override
+    public double getConnectsPerSecond() {
+        final long second = currentSecond();
+        long sum = 0;
+        for (int i = 1; i <= RATE_WINDOW; i++) {
+            final long s = second - i;
+            final int idx = (int) (s & (RATE_BUCKETS - 1));
+            if (bucketSeconds.get(idx) == s) {
+                sum += connectBuckets.get(idx);
+            }
+        }
+        
+        return sum / (double) RATE_WINDOW;
+    }
+
+    /**
+     * @return the number of connections handed to requests
+     */
+    @Override
+    public long getCheckoutCount() {
+        return checkoutCount.get();
+    }
+
+    /**
+     * @return the number of idle pooled connections handed to requests
+     */
+    @Override
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * @return the share of the checkouts served by an idle pooled connection
+     */
+    @Override
+    public double getReuseRatio() {
+        final long checkouts = checkoutCount.get();
+        return checkouts == 0 ? 0 : reuseCount.get() / (double) checkouts;
+    }
+
+    /**
+     * @return the average time a request has waited for its connection
+     */
+    public long getAverageCheckoutWait(final TimeUnit unit) {
+        final long checkouts = checkoutCount.get();
+        return checkouts == 0
+                ? 0
+                : unit.convert(totalCheckoutWaitNanos.get() / checkouts,
+                        TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time a request has waited for its connection
+     */
+    public long getMaxCheckoutWait(final TimeUnit unit) {
+        return unit.convert(maxCheckoutWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public double getAverageCheckoutWaitMillis() {
+        return getAverageCheckoutWait(TimeUnit.MICROSECONDS) / 1000d;
+    }
+
+    @Override
+    public double getMaxCheckoutWaitMillis() {
+        return getMaxCheckoutWait(TimeUnit.MICROSECONDS) / 1000d;
+    }
+
+    /**
+     * @return the number of connections, which left the pool for the
+     *          passed reason
+     */
+    public long getEvictionCount(final EvictionReason reason) {
+        return evictionCounts.get(reason.ordinal());
+    }
+
+    @Override
+    public long getIdleEvictionCount() {
+        return getEvictionCount(EvictionReason.IDLE);
+    }
+
+    @Override
+    public long getTtlEvictionCount() {
+        return getEvictionCount(EvictionReason.TTL);
+    }
+
+    @Override
+    public long getNotKeepAliveEvictionCount() {
+        return getEvictionCount(EvictionReason.NOT_KEEP_ALIVE);
+    }
+
+    @Override
+    public long getServerCloseEvictionCount() {
+        return getEvictionCount(EvictionReason.SERVER_CLOSE);
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionPoolStatistics{"
+                + "open=" + getOpenConnections()
+                + ", idle=" + getIdleConnections()
+                + ", busy=" + getBusyConnections()
+                + ", pendingWaiters=" + getPendingWaiters()
+                + ", connects=" + getConnectCount()
+                + ", connectFailures=" + getConnectFailureCount()
+                + ", connectsPerSecond=" + getConnectsPerSecond()
+                + ", checkouts=" + getCheckoutCount()
+                + ", reuseRatio=" + getReuseRatio()
+                + ", averageCheckoutWait=" + getAverageCheckoutWaitMillis() + "ms"
+                + ", maxCheckoutWait=" + getMaxCheckoutWaitMillis() + "ms"
+                + ", idleEvictions=" + getIdleEvictionCount()
+                + ", ttlEvictions=" + getTtlEvictionCount()
+                + ", notKeepAliveEvictions=" + getNotKeepAliveEvictionCount()
+                + ", serverCloseEvictions=" + getServerCloseEvictionCount()
+                + '}';
+    }
+
+    // --------------------------------------------------- Package Methods
+
+    void onConnected() {
+        openConnections.incrementAndGet();
+        connectCount.incrementAndGet();
+        
+        final long second = currentSecond();
+        final int idx = (int) (second & (RATE_BUCKETS - 1));
+        final long stamp = bucketSeconds.get(idx);
+        if (stamp != second && bucketSeconds.compareAndSet(idx, stamp, second)) {
+            connectBuckets.set(idx, 0);
+        }
+        connectBuckets.incrementAndGet(idx);
+        
+        if (parent != null) {
+            parent.onConnected();
+        }
+    }
+
+    void onConnectFailed() {
+        connectFailureCount.incrementAndGet();
+        if (parent != null) {
+            parent.onConnectFailed();
+        }
+    }
+
+    void onReleased() {
+        idleConnections.incrementAndGet();
+        if (parent != null) {
+            parent.onReleased();
+        }
+    }
+
+    void onTaken() {
+        idleConnections.decrementAndGet();
+        if (parent != null) {
+            parent.onTaken();
+        }
+    }
+
+    void onCheckout(final long waitNanos, final boolean isReuse) {
+        checkoutCount.incrementAndGet();
+        if (isReuse) {
+            reuseCount.incrementAndGet();
+        }
+        totalCheckoutWaitNanos.addAndGet(waitNanos);
+        long max;
+        while (waitNanos > (max = maxCheckoutWaitNanos.get())) {
+            if (maxCheckoutWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+        
+        if (parent != null) {
+            parent.onCheckout(waitNanos, isReuse);
+        }
+    }
+
+    /**
+     * @param wasIdle <tt>true</tt> if the connection was idle in the pool
+     * @param reason the eviction reason, or <tt>null</tt> if the connection
+     *          has been closed for another reason (failure, cancellation)
+     */
+    void onClosed(final boolean wasIdle, final EvictionReason reason) {
+        openConnections.decrementAndGet();
+        if (wasIdle) {
+            idleConnections.decrementAndGet();
+        }
+        if (reason != null) {
+            evictionCounts.incrementAndGet(reason.ordinal());
+        }
+        
+        if (parent != null) {
+            parent.onClosed(wasIdle, reason);
+        }
+    }
+    
+    private static long currentSecond() {
+        return TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+    }
+}
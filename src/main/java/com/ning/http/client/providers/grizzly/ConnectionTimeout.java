@@ -0,0 +1,210 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.util.HashedTimingWheel;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.attributes.Attribute;
+
+/**
+ * A {@link Connection} timeout driven by a {@link HashedTimingWheel}, whose
+ * deadline can be moved cheaply.
+ * <p>
+ * Moving the deadline forward, which is what happens on every read or write,
+ * doesn't touch the wheel: the already scheduled wheel task notices the
+ * new deadline once it fires and re-schedules itself for the remaining time.
+ * This way there is at most one wheel task per connection and timeout kind.
+ * 
+ * @author Grizzly team
+ */
+final class ConnectionTimeout
+        implements Runnable, CloseListener<Closeable, CloseType> {
+
+    interface Handler {
+        void onTimeout(Connection connection);
+    }
+
+    private final HashedTimingWheel wheel;
+    private final Handler handler;
+    private final Connection connection;
+
+    // the fields below are guarded by "this"
+    private boolean isArmed;
+    private long deadline; // System.nanoTime() based
+    private HashedTimingWheel.Timeout scheduled;
+    private long scheduledDeadline;
+    
+    // ------------------------------------------------------------ Constructors
+
+
+    private ConnectionTimeout(final HashedTimingWheel wheel,
+            final Handler handler, final Connection connection) {
+        this.wheel = wheel;
+        this.handler = handler;
+        this.connection = connection;
+    }
+
+    // ---------------------------------------------------------- Static Methods
+
+
+    /**
+     * Returns the {@link ConnectionTimeout} stored in the passed attribute,
+     * creating and storing a new one, if it doesn't exist yet.
+     */
+    static ConnectionTimeout obtain(final Attribute<ConnectionTimeout> attribute,
+            final Connection connection, final HashedTimingWheel wheel,
+            final Handler handler) {
+        ConnectionTimeout timeout = attribute.get(connection);
+        if (timeout == null) {
+            synchronized (connection) {
+                timeout = attribute.get(connection);
+                if (timeout == null) {
+                    timeout = new ConnectionTimeout(wheel, handler, connection);
+                    attribute.set(connection, timeout);
+                    connection.addCloseListener(timeout);
+                }
+            }
+        }
+        
+        return timeout;
+    }
+    
+    // --------------------------------------------------- Package Methods
+
+
+    /**
+     * (Re)sets the timeout to expire in <tt>timeoutMillis</tt> milliseconds.
+     */
+    void arm(final long timeoutMillis) {
+        final long newDeadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        HashedTimingWheel.Timeout toCancel = null;
+        
+        synchronized (this) {
+            isArmed = true;
+            deadline = newDeadline;
+            
+            if (scheduled != null) {
+                if (scheduledDeadline - newDeadline <= 0) {
+                    // the scheduled task fires before the deadline and
+                    // re-schedules itself
+                    return;
+                }
+                
+                // the new deadline is earlier than the scheduled one
+                toCancel = scheduled;
+            }
+            
+            scheduledDeadline = newDeadline;
+            scheduled = wheel.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+
+    synchronized boolean isArmed() {
+        return isArmed;
+    }
+
+    /**
+     * Disarms the timeout. The wheel task, if any, is left in place and
+     * will be dropped once it fires, so the timeout can be re-armed cheaply.
+     */
+    synchronized void disarm() {
+        isArmed = false;
+    }
+
+    /**
+     * Disarms the timeout and removes its wheel task.
+     */
+    void cancel() {
+        final HashedTimingWheel.Timeout toCancel;
+        synchronized (this) {
+            isArmed = false;
+            toCancel = scheduled;
+            scheduled = null;
+        }
+        
+        if (toCancel != null) {
+            toCancel.cancel();
+        }
+    }
+
+    // ----------------------------------------------- Methods from Runnable
+
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            scheduled = null;
+            if (!isArmed) {
+                return;
+            }
+            
+            final long remaining = deadline - System.nanoTime();
+            if (remaining > 0) {
+                scheduledDeadline = deadline;
+                scheduled = wheel.schedule(this, remaining, TimeUnit.NANOSECONDS);
+                return;
+            }
+            
+            isArmed = false;
+        }
+        
+        handler.onTimeout(connection);
+    }
+
+    // ------------------------------------------ Methods from CloseListener
+
+
+    @Override
+    public void onClosed(final Closeable closeable, final CloseType type)
+            throws IOException {
+        cancel();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.ConnectionPoolPartitioning;
+import com.ning.http.client.NameResolver;
+import com.ning.http.client.ProxyServer;
+import com.ning.http.client.Request;
+import com.ning.http.client.uri.Uri;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import java.net.InetAddress;
+
+/**
+ * The key of an endpoint (a partition of the connection pool).
+ * <p>
+ * For the default {@link ConnectionPoolPartitioning.PerHostConnectionPoolPartitioning}
+ * the key is made of the target scheme, host and port, and the proxy URL,
+ * rather than of a base URL String, so the lookup of the endpoint of a
+ * request doesn't allocate: a thread-local probe key is filled in with the
+ * request fields and an immutable copy is made only once a new endpoint is
+ * registered. Custom partitionings are keyed by the object they return.
+ * The remote override and local addresses, and the {@link NameResolver} of
+ * the request, are part of the key in both cases, as the endpoint connects
+ * with them. The resolver is compared with <tt>equals()</tt>, see
+ * {@link com.ning.http.client.RequestBuilderBase#setNameResolver(NameResolver)}.
+ * 
+ * @author Grizzly team
+ */
+final class EndpointKey {
+    private static final ThreadLocal<EndpointKey> PROBE =
+            new ThreadLocal<EndpointKey>() {
+                @Override
+                protected EndpointKey initialValue() {
+                    return new EndpointKey();
+                }
+            };
+    
+    // the key returned by a custom partitioning, or null
+    private Object partitionKey;
+    private String scheme;
+    private String host;
+    private int port;
+    private String proxyUrl;
+    private InetAddress overrideAddress;
+    private InetAddress localAddress;
+    private NameResolver nameResolver;
+    private int hash;
+
+    private EndpointKey() {
+    }
+
+    /**
+     * @return the thread-local probe key, filled in with the endpoint
+     *          fields of the request. Must not be stored, use {@link #copy()}
+     *          instead
+     */
+    static EndpointKey probe(final Request request, final ProxyServer proxy) {
+        return PROBE.get().set(request, proxy, request.getInetAddress());
+    }
+
+    /**
+     * @return the thread-local probe key, like {@link #probe(Request, ProxyServer)},
+     *          but with the passed remote address, selected by a load balancer,
+     *          in place of the request one
+     */
+    static EndpointKey probe(final Request request, final ProxyServer proxy,
+            final InetAddress remoteAddress) {
+        return PROBE.get().set(request, proxy, remoteAddress);
+    }
+
+    /**
+     * @return an immutable copy of the key
+     */
+    EndpointKey copy() {
+        final EndpointKey key = new EndpointKey();
+        key.partitionKey = partitionKey;
+        key.scheme = scheme;
+        key.host = host;
+        key.port = port;
+        key.proxyUrl = proxyUrl;
+        key.overrideAddress = overrideAddress;
+        key.localAddress = localAddress;
+        key.nameResolver = nameResolver;
+        key.hash = hash;
+        return key;
+    }
+
+    private EndpointKey set(final Request request, final ProxyServer proxy,
+            final InetAddress remoteAddress) {
+        final ConnectionPoolPartitioning partitioning =
+                request.getConnectionPoolPartitioning();
+        if (partitioning == ConnectionPoolPartitioning.PerHostConnectionPoolPartitioning.INSTANCE) {
+            final Uri uri = request.getUri();
+            partitionKey = null;
+            scheme = uri.getScheme();
+            host = uri.getHost();
+            port = AsyncHttpProviderUtils.getDefaultPort(uri);
+            proxyUrl = proxy != null ? proxy.getUrl() : null;
+        } else {
+            partitionKey = partitioning.getPartitionKey(request.getUri(), proxy);
+            scheme = null;
+            host = null;
+            port = 0;
+            proxyUrl = null;
+        }
+        overrideAddress = remoteAddress;
+        localAddress = request.getLocalAddress();
+        nameResolver = request.getNameResolver() != null
+                ? request.getNameResolver()
+                : NameResolver.JdkNameResolver.INSTANCE;
+        
+        int h = partitionKey != null ? partitionKey.hashCode() : 0;
+        h = 31 * h + (scheme != null ? scheme.hashCode() : 0);
+        h = 31 * h + (host != null ? host.hashCode() : 0);
+        h = 31 * h + port;
+        h = 31 * h + (proxyUrl != null ? proxyUrl.hashCode() : 0);
+        h = 31 * h + (overrideAddress != null ? overrideAddress.hashCode() : 0);
+        h = 31 * h + (localAddress != null ? localAddress.hashCode() : 0);
+        h = 31 * h + nameResolver.hashCode();
+        hash = h;
+        
+        return this;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof EndpointKey)) {
+            return false;
+        }
+        
+        final EndpointKey other = (EndpointKey) obj;
+        return hash == other.hash
+                && port == other.port
+                && equal(host, other.host)
+                && equal(scheme, other.scheme)
+                && equal(proxyUrl, other.proxyUrl)
+                && equal(partitionKey, other.partitionKey)
+                && equal(overrideAddress, other.overrideAddress)
+                && equal(localAddress, other.localAddress)
+                && nameResolver.equals(other.nameResolver);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        if (overrideAddress != null) {
+            sb.append(overrideAddress).append('_');
+        }
+        if (partitionKey != null) {
+            sb.append(partitionKey);
+        } else {
+            if (proxyUrl != null) {
+                sb.append(proxyUrl).append('_');
+            }
+            sb.append(scheme).append("://").append(host).append(':').append(port);
+        }
+        if (localAddress != null) {
+            sb.append('_').append(localAddress);
+        }
+        if (nameResolver != NameResolver.JdkNameResolver.INSTANCE) {
+            sb.append('_').append(nameResolver);
+        }
+        return sb.toString();
+    }
+    
+    private static boolean equal(final Object o1, final Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+}
@@ -58,7 +58,9 @@ package com.ning.http.client.providers.grizzly;
 
 import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.attributes.Attribute;
 import org.glassfish.grizzly.asyncqueue.AsyncQueueWriter;
 import org.glassfish.grizzly.filterchain.FilterChainBuilder;
 import org.glassfish.grizzly.filterchain.FilterChainContext;
@@ -73,12 +75,11 @@ import org.glassfish.grizzly.http.util.Header;
 import org.glassfish.grizzly.nio.RoundRobinConnectionDistributor;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
 import org.glassfish.grizzly.nio.transport.TCPNIOTransportBuilder;
+import org.glassfish.grizzly.ssl.SSLBaseFilter;
 import org.glassfish.grizzly.ssl.SSLEngineConfigurator;
 import org.glassfish.grizzly.strategies.SameThreadIOStrategy;
 import org.glassfish.grizzly.strategies.WorkerThreadIOStrategy;
 import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
-import org.glassfish.grizzly.utils.DelayedExecutor;
-import org.glassfish.grizzly.utils.IdleTimeoutFilter;
 import org.glassfish.grizzly.websockets.WebSocketFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,13 +88,21 @@ import com.ning.http.client.AsyncHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.AsyncHttpProvider;
+import com.ning.http.client.ConnectionWarmUp;
 import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.PhaseTimeoutException;
 import com.ning.http.client.Request;
 import com.ning.http.client.SSLEngineFactory;
+import com.ning.http.client.TimeoutBudget;
+import com.ning.http.util.AsyncHttpProviderUtils;
+import com.ning.http.util.HashedTimingWheel;
+import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.security.SecureRandom;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -108,17 +117,47 @@ import static com.ning.http.client.providers.grizzly.GrizzlyAsyncHttpProviderCon
  * @author The Grizzly Team
  * @since 1.7.0
  */
-public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
+public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider,
+        ConnectionWarmUp {
 
     private final static Logger LOGGER = LoggerFactory.getLogger(GrizzlyAsyncHttpProvider.class);
     
+    // probed once: some platforms lack, or have a broken, sendfile
+    private static final boolean SEND_FILE_SUPPORTED = configSendFileSupport();
+    
+    private static final Attribute<ConnectionTimeout> READ_TIMEOUT_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    GrizzlyAsyncHttpProvider.class.getName() + ".read-timeout");
+    private static final Attribute<ConnectionTimeout> TLS_HANDSHAKE_TIMEOUT_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    GrizzlyAsyncHttpProvider.class.getName() + ".tls-handshake-timeout");
+    private static final Attribute<ConnectionTimeout> FIRST_BYTE_TIMEOUT_ATTR =
+            Grizzly.DEFAULT_ATTRIBUTE_BUILDER.createAttribute(
+                    GrizzlyAsyncHttpProvider.class.getName() + ".first-byte-timeout");
+    
     private final TCPNIOTransport clientTransport;
     private final AsyncHttpClientConfig clientConfig;
     private final GrizzlyAsyncHttpProviderConfig providerConfig;
     private final ConnectionManager connectionManager;
-
-    DelayedExecutor.Resolver<Connection> resolver;
-    private DelayedExecutor timeoutExecutor;
+    // whether the file bodies of plain connections are sent using sendfile
+    private final boolean isSendFileEnabled;
+    private ObjectName poolStatisticsName;
+
+    private final HashedTimingWheel timingWheel;
+    private AhcIdleTimeoutFilter idleTimeoutFilter;
+    private SwitchingSSLFilter sslFilter;
+    private int readTimeout;
+    private final ConnectionTimeout.Handler readTimeoutHandler =
+            new ConnectionTimeout.Handler() {
+                @Override
+                public void onTimeout(final Connection connection) {
+                    readTimeout(connection);
+                }
+            };
+    private final ConnectionTimeout.Handler tlsHandshakeTimeoutHandler =
+            new PhaseTimeoutHandler(TimeoutBudget.Phase.TLS_HANDSHAKE);
+    private final ConnectionTimeout.Handler firstByteTimeoutHandler =
+            new PhaseTimeoutHandler(TimeoutBudget.Phase.FIRST_BYTE);
 
     
 
@@ -132,6 +171,11 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
                 clientConfig.getAsyncHttpProviderConfig() instanceof GrizzlyAsyncHttpProviderConfig ?
                 (GrizzlyAsyncHttpProviderConfig) clientConfig.getAsyncHttpProviderConfig()
                 : new GrizzlyAsyncHttpProviderConfig();
+        isSendFileEnabled = SEND_FILE_SUPPORTED
+                && (Boolean) providerConfig.getProperty(SEND_FILE);
+        timingWheel = new HashedTimingWheel("grizzly-ahc-timer",
+                (Integer) providerConfig.getProperty(TIMER_TICK_DURATION),
+                TimeUnit.MILLISECONDS);
         final TCPNIOTransportBuilder builder = TCPNIOTransportBuilder.newInstance();
         clientTransport = builder.build();
         initializeTransport(clientConfig);
@@ -141,6 +185,9 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         } catch (IOException ioe) {
             throw new RuntimeException(ioe);
         }
+        if ((Boolean) providerConfig.getProperty(REGISTER_POOL_STATISTICS_MBEAN)) {
+            registerPoolStatistics();
+        }
 
     }
 
@@ -148,9 +195,55 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         return clientConfig;
     }
 
+    /**
+     * @return the statistics of the requests waiting for a pooled connection
+     * 
+     * @see GrizzlyAsyncHttpProviderConfig.Property#MAX_CONNECTION_WAIT_QUEUE_SIZE
+     */
+    public PoolWaitQueueStatistics getPoolWaitQueueStatistics() {
+        return connectionManager.getWaitQueueStatistics();
+    }
+
+    /**
+     * @return the connection pool statistics aggregated over all endpoints
+     */
+    public ConnectionPoolStatistics getConnectionPoolStatistics() {
+        return connectionManager.getPoolStatistics();
+    }
+
+    /**
+     * @return a snapshot of the connection pool statistics of the endpoints
+     *          currently known to the provider, keyed by endpoint
+     */
+    public Map<String, ConnectionPoolStatistics> getEndpointStatistics() {
+        return connectionManager.getEndpointStatistics();
+    }
+
+    /**
+     * @return a snapshot of the adaptive concurrency limiters of the
+     *          endpoints currently known to the provider, keyed by endpoint
+     * 
+     * @see GrizzlyAsyncHttpProviderConfig.Property#CONCURRENCY_LIMITER
+     */
+    public Map<String, ConcurrencyLimiter> getConcurrencyLimiters() {
+        return connectionManager.getConcurrencyLimiters();
+    }
+
+    boolean isSendFileEnabled() {
+        return isSendFileEnabled;
+    }
+
+    SwitchingSSLFilter getSslFilter() {
+        return sslFilter;
+    }
+
     ConnectionManager getConnectionManager() {
         return connectionManager;
     }
+
+    HashedTimingWheel getTimingWheel() {
+        return timingWheel;
+    }
         
     // ------------------------------------------ Methods from AsyncHttpProvider
 
@@ -168,6 +261,8 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         final GrizzlyResponseFuture<T> future =
                 new GrizzlyResponseFuture<T>(asyncHandler);
         
+        scheduleDeadline(future, request);
+        
         final CompletionHandler<Connection> connectHandler =
                 new CompletionHandler<Connection>() {
             @Override
@@ -213,7 +308,7 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         };
 
         try {
-            connectionManager.openAsync(request, connectHandler);
+            connectionManager.openAsync(request, future, false, connectHandler);
         } catch (IOException ioe) {
             abort(future, ioe);
         } catch (RuntimeException re) {
@@ -228,6 +323,67 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         return future;
     }
 
+    @Override
+    public ListenableFuture<Integer> warmUp(final Request request,
+            final int connections) {
+        
+        if (clientTransport.isStopped()) {
+            return new ListenableFuture.CompletedFailure<>(
+                    new IOException("AsyncHttpClient has been closed."));
+        }
+        
+        final GrizzlyResponseFuture<Integer> future =
+                new GrizzlyResponseFuture<Integer>(null);
+        try {
+            connectionManager.warmUp(request, connections, future);
+        } catch (Exception e) {
+            future.abort(e);
+        }
+        
+        return future;
+    }
+
+    /**
+     * Schedules the absolute deadline of the request execution, which is
+     * the earliest of the request timeout and the total timeout of the
+     * {@link TimeoutBudget}. The deadline is bound to the response future,
+     * so it's shared by all the transactions (redirects, authentication
+     * round-trips, retries) serving the request.
+     */
+    private void scheduleDeadline(final GrizzlyResponseFuture<?> future,
+            final Request request) {
+        final int requestTimeout =
+                AsyncHttpProviderUtils.requestTimeout(clientConfig, request);
+        final int totalTimeout =
+                getPhaseTimeout(request, TimeoutBudget.Phase.TOTAL);
+        
+        final boolean isTotal = totalTimeout > 0
+                && (requestTimeout <= 0 || totalTimeout < requestTimeout);
+        final int timeout = isTotal ? totalTimeout : requestTimeout;
+        if (timeout <= 0) {
+            return;
+        }
+        
+        future.setDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout),
+                timingWheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        final TimeoutException te = isTotal
+                                ? new PhaseTimeoutException(TimeoutBudget.Phase.TOTAL, timeout)
+                                : new TimeoutException("Timeout exceeded");
+                        final HttpTransactionContext tx = future.getHttpTransactionCtx();
+                        if (tx != null && !future.isDone()) {
+                            connectionManager.onRequestTimedOut(tx.getConnection());
+                        }
+                        
+                        // fail the future directly, so the deadline is not
+                        // lost while the request is being redirected or
+                        // retried; the future closes the current connection
+                        future.abort(te);
+                    }
+                }, timeout, TimeUnit.MILLISECONDS));
+    }
+
     private void abort(GrizzlyResponseFuture<?> future, Throwable t) {
         if (!future.isDone()) {
             LOGGER.debug("Aborting Future {}\n", future);
@@ -240,6 +396,7 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
     @Override
     public void close() {
 
+        unregisterPoolStatistics();
         try {
             connectionManager.destroy();
             clientTransport.shutdownNow();
@@ -247,10 +404,7 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
             if (service != null) {
                 service.shutdown();
             }
-            if (timeoutExecutor != null) {
-                timeoutExecutor.stop();
-                timeoutExecutor.getThreadPool().shutdownNow();
-            }
+            timingWheel.stop();
         } catch (IOException ignored) { }
 
     }
@@ -258,13 +412,45 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
     // ------------------------------------------------------- Protected Methods
 
 
+    private void registerPoolStatistics() {
+        try {
+            final ObjectName name = new ObjectName(
+                    "com.ning.http.client:type=ConnectionPool,name=grizzly-"
+                    + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    connectionManager.getPoolStatistics(), name);
+            poolStatisticsName = name;
+        } catch (Exception e) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn("Unable to register the connection pool statistics MBean", e);
+            }
+        }
+    }
+
+    private void unregisterPoolStatistics() {
+        final ObjectName name = poolStatisticsName;
+        if (name == null) {
+            return;
+        }
+        
+        poolStatisticsName = null;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (Exception e) {
+            if (LOGGER.isWarnEnabled()) {
+                LOGGER.warn(e.toString(), e);
+            }
+        }
+    }
+
+
     @SuppressWarnings({"unchecked"})
     void execute(final HttpTransactionContext transactionCtx)
     throws IOException {
 
         try {
             transactionCtx.getConnection().write(transactionCtx,
-                    createWriteCompletionHandler(transactionCtx.future));
+                    createWriteCompletionHandler(transactionCtx));
         } catch (Exception e) {
             if (e instanceof RuntimeException) {
                 throw (RuntimeException) e;
@@ -283,48 +469,17 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         final FilterChainBuilder fcb = FilterChainBuilder.stateless();
         fcb.add(new TransportFilter());
 
-        final int timeout = clientConfig.getRequestTimeout();
-        if (timeout > 0) {
-            int delay = 500;
-            if (timeout < delay) {
-                delay = timeout - 10;
-            }
-            timeoutExecutor = IdleTimeoutFilter.createDefaultIdleDelayedExecutor(delay, TimeUnit.MILLISECONDS);
-            timeoutExecutor.start();
-            final IdleTimeoutFilter.TimeoutResolver timeoutResolver =
-                    new IdleTimeoutFilter.TimeoutResolver() {
+        readTimeout = clientConfig.getReadTimeout();
+        
+        if (clientConfig.getWebSocketTimeout() > 0) {
+            idleTimeoutFilter = new AhcIdleTimeoutFilter(timingWheel,
+                    new ConnectionTimeout.Handler() {
                         @Override
-                        public long getTimeout(final FilterChainContext ctx) {
-                            final Connection connection = ctx.getConnection();
-                            
-                            if (connectionManager.isReadyInPool(connection)) {
-                                // if the connection is in pool - let ConnectionManager take care of its life cycle
-                                return IdleTimeoutFilter.FOREVER;
-                            }
-                            
-                            final HttpTransactionContext context
-                                    = HttpTransactionContext.currentTransaction(connection);
-                            if (context != null) {
-                                if (context.isWSRequest) {
-                                    return clientConfig.getWebSocketTimeout();
-                                }
-                                final long timeout = context.getAhcRequest().getRequestTimeout();
-                                if (timeout > 0) {
-                                    return timeout;
-                                }
-                            }
-                            return timeout;
-                        }
-                    };
-            final IdleTimeoutFilter timeoutFilter = new IdleTimeoutFilter(timeoutExecutor,
-                    timeoutResolver,
-                    new IdleTimeoutFilter.TimeoutHandler() {
-                        public void onTimeout(Connection connection) {
+                        public void onTimeout(final Connection connection) {
                             timeout(connection);
                         }
                     });
-            fcb.add(timeoutFilter);
-            resolver = timeoutFilter.getResolver();
+            fcb.add(idleTimeoutFilter);
         }
 
         final boolean defaultSecState = (clientConfig.getSSLContext() != null);
@@ -334,8 +489,32 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
                                 ? providerConfig.getSslEngineFactory()
                                 : new SSLEngineFactory.DefaultSSLEngineFactory(clientConfig));
         
-        final SwitchingSSLFilter sslFilter =
-                new SwitchingSSLFilter(configurator, defaultSecState);
+        sslFilter = new SwitchingSSLFilter(configurator, defaultSecState);
+        sslFilter.addHandshakeListener(new SSLBaseFilter.HandshakeListener() {
+            @Override
+            public void onStart(final Connection connection) {
+                final HttpTransactionContext tx =
+                        HttpTransactionContext.currentTransaction(connection);
+                final int handshakeTimeout = getPhaseTimeout(
+                        tx != null ? tx.getAhcRequest() : null,
+                        TimeoutBudget.Phase.TLS_HANDSHAKE);
+                if (handshakeTimeout > 0) {
+                    ConnectionTimeout.obtain(TLS_HANDSHAKE_TIMEOUT_ATTR,
+                            connection, timingWheel, tlsHandshakeTimeoutHandler)
+                            .arm(handshakeTimeout);
+                }
+            }
+
+            @Override
+            public void onComplete(final Connection connection) {
+                cancelConnectionTimeout(TLS_HANDSHAKE_TIMEOUT_ATTR, connection);
+            }
+
+            @Override
+            public void onFailure(final Connection connection, final Throwable t) {
+                cancelConnectionTimeout(TLS_HANDSHAKE_TIMEOUT_ATTR, connection);
+            }
+        });
         fcb.add(sslFilter);
         
         final AhcEventFilter eventFilter = new
@@ -395,19 +574,90 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
     // ------------------------------------------------- Package Private Methods
 
 
-    void touchConnection(final Connection c, final Request request) {
+    /**
+     * Signals the request on the passed {@link Connection} is making
+     * progress. Restarts the read inactivity timeout, if it's running, but
+     * never extends the absolute request deadline.
+     */
+    void touchConnection(final Connection c) {
+        final ConnectionTimeout t = READ_TIMEOUT_ATTR.get(c);
+        if (t != null && t.isArmed()) {
+            t.arm(readTimeout);
+        }
+    }
 
-        final long timeOut = request.getRequestTimeout() > 0
-                ? request.getRequestTimeout()
-                : clientConfig.getRequestTimeout();
-        
+    /**
+     * Sets the idle timeout of an upgraded (WebSocket) {@link Connection}.
+     */
+    void setIdleTimeout(final Connection c, final long timeoutMillis) {
+        if (idleTimeoutFilter != null) {
+            idleTimeoutFilter.setIdleTimeout(c, timeoutMillis > 0
+                    ? timeoutMillis
+                    : AhcIdleTimeoutFilter.FOREVER);
+        }
+    }
+
+
+    /**
+     * (Re)starts the read inactivity timeout of the passed {@link Connection}.
+     * The timeout fires if no response data is received for
+     * {@link AsyncHttpClientConfig#getReadTimeout()} milliseconds.
+     */
+    void armReadTimeout(final Connection c) {
+        if (readTimeout > 0) {
+            ConnectionTimeout.obtain(READ_TIMEOUT_ATTR, c, timingWheel,
+                    readTimeoutHandler).arm(readTimeout);
+        }
+    }
+
+    /**
+     * Cancels the read inactivity timeout of the passed {@link Connection}.
+     */
+    void disarmReadTimeout(final Connection c) {
+        final ConnectionTimeout t = READ_TIMEOUT_ATTR.get(c);
+        if (t != null) {
+            t.disarm();
+        }
+    }
+
+    /**
+     * Starts the time-to-first-byte timeout of the passed {@link Connection},
+     * once the request has been sent.
+     */
+    void armFirstByteTimeout(final Connection c, final Request request) {
+        final int firstByteTimeout =
+                getPhaseTimeout(request, TimeoutBudget.Phase.FIRST_BYTE);
+        if (firstByteTimeout > 0) {
+            ConnectionTimeout.obtain(FIRST_BYTE_TIMEOUT_ATTR, c, timingWheel,
+                    firstByteTimeoutHandler).arm(firstByteTimeout);
+        }
+    }
+
+    /**
+     * Cancels the time-to-first-byte timeout of the passed {@link Connection}.
+     */
+    void disarmFirstByteTimeout(final Connection c) {
+        final ConnectionTimeout t = FIRST_BYTE_TIMEOUT_ATTR.get(c);
+        if (t != null) {
+            t.disarm();
+        }
+    }
+
+    /**
+     * @return the timeout of the passed phase in milliseconds for the passed
+     *          {@link Request} (might be <tt>null</tt>), or a value less than
+     *          or equal to zero, if the phase is not limited
+     */
+    int getPhaseTimeout(final Request request, final TimeoutBudget.Phase phase) {
+        final int timeout = TimeoutBudget.resolve(phase,
+                request != null ? request.getTimeoutBudget() : null,
+                clientConfig.getTimeoutBudget());
         
-        if (timeOut > 0) {
-            if (resolver != null) {
-                resolver.setTimeoutMillis(c,
-                        System.currentTimeMillis() + timeOut);
-            }
+        if (timeout <= 0 && phase == TimeoutBudget.Phase.CONNECT) {
+            return clientConfig.getConnectTimeout();
         }
+        
+        return timeout;
     }
 
 
@@ -431,9 +681,9 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
             }
             final int patchRev = Integer.parseInt(version.substring(idx + 1));
             return (patchRev >= 18);
-        } else {
-            return version.startsWith("1.7") || version.startsWith("1.8");
         }
+        
+        return true;
     }
     
     private void doDefaultTransportConfig() {
@@ -447,8 +697,9 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
     }
 
 
-    private <T> CompletionHandler<WriteResult> createWriteCompletionHandler(
-            final GrizzlyResponseFuture<T> future) {
+    private CompletionHandler<WriteResult> createWriteCompletionHandler(
+            final HttpTransactionContext transactionCtx) {
+        final GrizzlyResponseFuture future = transactionCtx.future;
         return new CompletionHandler<WriteResult>() {
 
             public void cancelled() {
@@ -456,7 +707,8 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
             }
 
             public void failed(Throwable throwable) {
-                future.abort(throwable);
+                // may replay the request, if it's allowed
+                transactionCtx.abort(throwable);
             }
 
             public void completed(WriteResult result) {
@@ -471,6 +723,11 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
 
 
     void timeout(final Connection c) {
+        if (connectionManager.isReadyInPool(c)) {
+            // the pooled connection life cycle is controlled by ConnectionManager
+            return;
+        }
+        
         final HttpTransactionContext tx = HttpTransactionContext.currentTransaction(c);
         final TimeoutException te = new TimeoutException("Timeout exceeded");
         if (tx != null) {
@@ -480,6 +737,59 @@ public class GrizzlyAsyncHttpProvider implements AsyncHttpProvider {
         c.closeWithReason(new IOException("Timeout exceeded", te));
     }
 
+    void phaseTimeout(final Connection c, final TimeoutBudget.Phase phase) {
+        if (connectionManager.isReadyInPool(c)) {
+            // the response has been completed meanwhile
+            return;
+        }
+        
+        final HttpTransactionContext tx = HttpTransactionContext.currentTransaction(c);
+        final PhaseTimeoutException te = new PhaseTimeoutException(phase,
+                getPhaseTimeout(tx != null ? tx.getAhcRequest() : null, phase));
+        if (tx != null) {
+            tx.abort(te);
+        }
+        
+        c.closeWithReason(new IOException(te.getMessage(), te));
+    }
+
+    void readTimeout(final Connection c) {
+        if (connectionManager.isReadyInPool(c)) {
+            // the response has been completed meanwhile
+            return;
+        }
+        
+        final HttpTransactionContext tx = HttpTransactionContext.currentTransaction(c);
+        final TimeoutException te = new TimeoutException(
+                "Read timeout of " + readTimeout + " ms exceeded");
+        if (tx != null) {
+            tx.abort(te);
+        }
+        
+        c.closeWithReason(new IOException("Read timeout exceeded", te));
+    }
+
+    private static void cancelConnectionTimeout(
+            final Attribute<ConnectionTimeout> attribute, final Connection c) {
+        final ConnectionTimeout t = attribute.get(c);
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    private final class PhaseTimeoutHandler implements ConnectionTimeout.Handler {
+        private final TimeoutBudget.Phase phase;
+
+        private PhaseTimeoutHandler(final TimeoutBudget.Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void onTimeout(final Connection connection) {
+            phaseTimeout(connection, phase);
+        }
+    } // END PhaseTimeoutHandler
+
     private static final class ClientEncodingFilter implements EncodingFilter {
 
 
@@ -56,6 +56,9 @@
 package com.ning.http.client.providers.grizzly;
 
 import com.ning.http.client.AsyncHttpProviderConfig;
+import com.ning.http.client.CircuitBreakerConfig;
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import com.ning.http.client.LoadBalancer;
 import com.ning.http.client.SSLEngineFactory;
 import java.net.SocketAddress;
 
@@ -118,7 +121,99 @@ public class GrizzlyAsyncHttpProviderConfig implements AsyncHttpProviderConfig<G
          * (if compressed by a server), or <tt>false</tt> if decompression
          * has to be delegated to a user.
          */
-        DECOMPRESS_RESPONSE(Boolean.class, true)
+        DECOMPRESS_RESPONSE(Boolean.class, true),
+
+        /**
+         * The delay, in milliseconds, between two concurrent connection
+         * attempts when a host name resolves to several addresses (RFC 8305
+         * "Happy Eyeballs"). The first attempt to succeed is used and the
+         * others are closed. A value of zero or less disables racing and only
+         * the first resolved address is tried. Defaults to 250.
+         */
+        CONNECTION_ATTEMPT_DELAY(Integer.class, 250),
+
+        /**
+         * The tick duration, in milliseconds, of the timing wheel, which drives
+         * request, read and pooled connection idle timeouts. Timeouts expire
+         * no later than one tick after their deadline. Defaults to 10.
+         */
+        TIMER_TICK_DURATION(Integer.class, 10),
+
+        /**
+         * The maximum number of requests per endpoint, which wait for a pooled
+         * connection to be released, once the maximum number of connections
+         * (total or per host) has been reached. Waiting requests are served in
+         * FIFO order and give up once their pool acquisition timeout, request
+         * deadline or the connect timeout expires. Requests beyond the queue
+         * size fail immediately. Defaults to 0, in which case no request waits.
+         *
+         * @see GrizzlyAsyncHttpProvider#getPoolWaitQueueStatistics()
+         */
+        MAX_CONNECTION_WAIT_QUEUE_SIZE(Integer.class, 0),
+
+        /**
+         * The maximum number of endpoints (partitions of the connection pool)
+         * the provider keeps track of. Once exceeded, the endpoints without
+         * open connections or pending requests are evicted along with their
+         * connection sub-pools. A value of zero or less disables the limit.
+         * Defaults to 4096.
+         */
+        MAX_ENDPOINTS(Integer.class, 4096),
+
+        /**
+         * The time, in milliseconds, after which an endpoint without open
+         * connections or pending requests is evicted along with its connection
+         * sub-pool. A value of zero or less disables the idle eviction.
+         * Defaults to 60000.
+         */
+        ENDPOINT_IDLE_TIMEOUT(Integer.class, 60000),
+
+        /**
+         * If <tt>true</tt>, the client-wide {@link ConnectionPoolStatistics}
+         * are registered with the platform MBean server for the lifetime of
+         * the provider.  Defaults to <tt>false</tt>.
+         */
+        REGISTER_POOL_STATISTICS_MBEAN(Boolean.class, Boolean.FALSE),
+
+        /**
+         * If <tt>true</tt>, a pooled connection is checked before it's
+         * handed out to a request.  Connections closed while idle in the
+         * pool, by the server or because they got unsolicited data, are
+         * discarded and another connection is taken in their place.  The
+         * check uses the connection state only, it never reads the channel.
+         * Defaults to <tt>true</tt>.
+         */
+        VALIDATE_POOLED_CONNECTIONS(Boolean.class, Boolean.TRUE),
+
+        /**
+         * The {@link LoadBalancer}, which spreads the requests to the hosts
+         * it's configured with across their replicas.  Not set by default.
+         */
+        LOAD_BALANCER(LoadBalancer.class),
+
+        /**
+         * The {@link CircuitBreakerConfig} of the per-endpoint circuit
+         * breakers, which fail the requests to a failing endpoint right away.
+         * Not set by default, so the circuit breakers are disabled.
+         */
+        CIRCUIT_BREAKER(CircuitBreakerConfig.class),
+
+        /**
+         * The {@link ConcurrencyLimiterConfig} of the adaptive per-endpoint
+         * concurrency limits, which reject the requests an endpoint doesn't
+         * keep up with.  Not set by default, so the number of requests in
+         * flight is only limited by the connection limits.
+         */
+        CONCURRENCY_LIMITER(ConcurrencyLimiterConfig.class),
+
+        /**
+         * If <tt>true</tt>, file bodies ({@link com.ning.http.client.Request#getFile()}
+         * and {@link com.ning.http.client.generators.FileBodyGenerator}) sent
+         * over plain, non-TLS, connections are copied by the kernel straight
+         * from the file to the socket (sendfile), where the platform supports
+         * it.  Defaults to <tt>true</tt>.
+         */
+        SEND_FILE(Boolean.class, Boolean.TRUE)
         
         ;
         
@@ -56,7 +56,9 @@
 package com.ning.http.client.providers.grizzly;
 
 import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.LoadBalancer;
 import com.ning.http.client.listenable.AbstractListenableFuture;
+import com.ning.http.util.HashedTimingWheel;
 
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
@@ -85,6 +87,15 @@ final class GrizzlyResponseFuture<V> extends AbstractListenableFuture<V>
     
     // transaction context. Not null if connection is established
     private volatile HttpTransactionContext transactionCtx;
+    
+    // the absolute deadline (System.nanoTime() based) of the request
+    // execution, shared by all its transactions, and its timer
+    private volatile long deadlineNanos;
+    private volatile HashedTimingWheel.Timeout deadlineTimeout;
+    
+    // the current transaction, if it's load balanced or concurrency
+    // limited, guarded by "this"
+    private Exchange exchange;
 
 
     // ------------------------------------------------------------ Constructors
@@ -182,6 +193,8 @@ final class GrizzlyResponseFuture<V> extends AbstractListenableFuture<V>
 
     @Override
     public void cancelled() {
+        cancelDeadlineTimeout();
+        completeExchange(null);
         final AsyncHandler ah = asyncHandler;
         if (ah != null) {
             try {
@@ -195,6 +208,8 @@ final class GrizzlyResponseFuture<V> extends AbstractListenableFuture<V>
 
     @Override
     public void failed(final Throwable t) {
+        cancelDeadlineTimeout();
+        completeExchange(Boolean.TRUE);
         final AsyncHandler ah = asyncHandler;
         if (ah != null) {
             try {
@@ -213,6 +228,8 @@ final class GrizzlyResponseFuture<V> extends AbstractListenableFuture<V>
 
     @Override
     public void completed(V result) {
+        cancelDeadlineTimeout();
+        completeExchange(Boolean.FALSE);
         runListeners();
     }
 
@@ -248,4 +265,173 @@ final class GrizzlyResponseFuture<V> extends AbstractListenableFuture<V>
         this.transactionCtx = transactionCtx;
         return !delegate.isDone();
     }
+
+    /**
+     * Binds the absolute deadline of the request execution to the future.
+     * 
+     * @param deadlineNanos the deadline as a {@link System#nanoTime()} value
+     * @param deadlineTimeout the timer, which aborts the future on deadline
+     */
+    void setDeadline(final long deadlineNanos,
+            final HashedTimingWheel.Timeout deadlineTimeout) {
+        this.deadlineNanos = deadlineNanos;
+        this.deadlineTimeout = deadlineTimeout;
+        if (delegate.isDone()) {
+            deadlineTimeout.cancel();
+        }
+    }
+
+    /**
+     * Starts tracking the next transaction, sent to the passed load balanced
+     * backend, and limited by the passed concurrency limiter, either might
+     * be <tt>null</tt>. The previous transaction, if any, is completed with
+     * the passed outcome: it has succeeded, if the next transaction is a
+     * redirect or an authentication round-trip, or it has failed, if the
+     * next transaction is a retry.
+     */
+    void startExchange(final LoadBalancer.Backend backend,
+            final ConcurrencyLimiter limiter, final boolean isPreviousFailed) {
+        final Exchange next = backend != null || limiter != null
+                ? new Exchange(backend, limiter)
+                : null;
+        if (backend != null) {
+            backend.onRequestStarted();
+        }
+        
+        final Exchange previous;
+        synchronized (this) {
+            previous = exchange;
+            exchange = next;
+        }
+        
+        if (previous != null) {
+            previous.complete(isPreviousFailed);
+        }
+        
+        if (next != null && isDone()) {
+            // completed meanwhile
+            completeExchange(isCancelled() ? null : Boolean.FALSE);
+        }
+    }
+
+    /**
+     * Starts the round-trip time clock of the current transaction, once its
+     * connection has been checked out of the pool, so the time spent waiting
+     * for a connection is not attributed to the backend.
+     */
+    void onConnectionCheckedOut() {
+        final Exchange e;
+        synchronized (this) {
+            e = exchange;
+        }
+        
+        if (e != null) {
+            e.startNanos = System.nanoTime();
+        }
+    }
+    
+    /**
+     * Marks the current transaction as failed on the client side, before it
+     * got a connection (the pool wait queue is full, or the wait has timed
+     * out), so its outcome is not attributed to the backend.
+     */
+    void onConnectionAcquisitionFailed() {
+        final Exchange e;
+        synchronized (this) {
+            e = exchange;
+        }
+        
+        if (e != null) {
+            e.isAcquisitionFailed = true;
+        }
+    }
+
+    /**
+     * @return <tt>true</tt> if the request execution has a deadline, which
+     *          has already passed
+     */
+    boolean isDeadlineExceeded() {
+        return deadlineTimeout != null && deadlineNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return the time left until the deadline of the request execution,
+     *          or {@link Long#MAX_VALUE} if there's no deadline
+     */
+    long getRemainingTime(final TimeUnit unit) {
+        if (deadlineTimeout == null) {
+            return Long.MAX_VALUE;
+        }
+        
+        return unit.convert(Math.max(deadlineNanos - System.nanoTime(), 0),
+                TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param isFailure <tt>null</tt> if the request has been cancelled
+     */
+    private void completeExchange(final Boolean isFailure) {
+        final Exchange e;
+        synchronized (this) {
+            e = exchange;
+            exchange = null;
+        }
+        
+        if (e != null) {
+            e.complete(isFailure);
+        }
+    }
+
+    private void cancelDeadlineTimeout() {
+        final HashedTimingWheel.Timeout t = deadlineTimeout;
+        if (t != null) {
+            t.cancel();
+        }
+    }
+
+    /**
+     * A transaction, which reports its outcome and round-trip time to the
+     * load balanced backend and the concurrency limiter of its endpoint.
+     * A transaction, which has failed to get a connection from the pool,
+     * is reported like a cancelled one.
+     */
+    private static final class Exchange {
+        private final LoadBalancer.Backend backend;
+        private final ConcurrencyLimiter limiter;
+        // reset once the connection is checked out
+        private volatile long startNanos = System.nanoTime();
+        private volatile boolean isAcquisitionFailed;
+
+        private Exchange(final LoadBalancer.Backend backend,
+                final ConcurrencyLimiter limiter) {
+            this.backend = backend;
+            this.limiter = limiter;
+        }
+        
+        /**
+         * @param isFailure <tt>null</tt> if the request has been cancelled
+         */
+        private void complete(final Boolean isFailure) {
+            // a client side acquisition failure says nothing about the backend
+            final Boolean outcome = isAcquisitionFailed ? null : isFailure;
+            final long rttNanos = System.nanoTime() - startNanos;
+            if (backend != null) {
+                if (outcome == null) {
+                    backend.onRequestCancelled();
+                } else {
+                    backend.onRequestCompleted(rttNanos, outcome);
+                }
+            }
+            
+            if (limiter != null) {
+                if (outcome == null) {
+                    limiter.onIgnored();
+                } else if (outcome) {
+                    limiter.onDropped();
+                } else {
+                    limiter.onSample(rttNanos);
+                }
+            }
+        }
+    }
 }
@@ -56,18 +56,27 @@ package com.ning.http.client.providers.grizzly;
 
 import com.ning.http.client.providers.grizzly.events.GracefulCloseEvent;
 import com.ning.http.client.AsyncHandler;
+import com.ning.http.client.AsyncHandlerExtensions;
+import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.ProxyServer;
 import com.ning.http.client.Request;
+import com.ning.http.client.filter.FilterContext;
+import com.ning.http.client.filter.FilterException;
+import com.ning.http.client.filter.IOExceptionFilter;
+import com.ning.http.client.generators.ByteBufferBodyGenerator;
 import com.ning.http.client.uri.Uri;
 import com.ning.http.client.ws.WebSocket;
 import com.ning.http.util.AsyncHttpProviderUtils;
 import com.ning.http.util.ProxyUtils;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
 import org.glassfish.grizzly.CloseListener;
 import org.glassfish.grizzly.CloseType;
 import org.glassfish.grizzly.Closeable;
 import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.attributes.Attribute;
 import org.glassfish.grizzly.attributes.AttributeStorage;
@@ -119,6 +128,11 @@ public final class HttpTransactionContext {
     WebSocket webSocket;
     boolean establishingTunnel;
     boolean skipCleanup;
+    // the number of times the request has been retried
+    int retryCount;
+    // true, if the request has been sent over a connection, that had already
+    // been used by a previous request
+    boolean isReusedConnection;
     
     // don't recycle the context, don't return associated connection to
     // the pool
@@ -233,6 +247,79 @@ public final class HttpTransactionContext {
     HttpTransactionContext cloneAndStartTransactionFor(
             final Connection connection,
             final Request request) {
+        final GrizzlyResponseFuture responseFuture = future;
+        final HttpTransactionContext newContext =
+                cloneFor(connection, request, responseFuture);
+        
+        // detach the future and bind it to the new transaction
+        future = null;
+        if (responseFuture != null) {
+            responseFuture.setHttpTransactionCtx(newContext);
+        }
+        
+        return newContext;
+    }
+
+    /**
+     * Asynchronously obtains a {@link Connection} for the passed request and
+     * starts a new transaction, which inherits this transaction's state,
+     * on it. The response future is detached from this transaction right
+     * away, so events on the current connection can't complete or abort it
+     * while the new connection is being established.
+     * The completion handler is notified on the new connection's thread;
+     * on failure the response future is aborted.
+     * <tt>isPreviousFailed</tt> tells whether this transaction has failed
+     * (the request is retried) or has succeeded (a redirect, an
+     * authentication round-trip), which is reported to the load balancer
+     * and the concurrency limiter.
+     */
+    void cloneAndStartTransactionForNewConnection(final Request request,
+            final boolean isPreviousFailed,
+            final CompletionHandler<HttpTransactionContext> completionHandler) {
+        final GrizzlyResponseFuture responseFuture = future;
+        
+        // detach the future, it's bound to the new transaction once the
+        // connection is obtained
+        future = null;
+        responseFuture.setHttpTransactionCtx(null);
+        
+        try {
+            provider.getConnectionManager().openAsync(request, responseFuture,
+                    isPreviousFailed,
+                    new CompletionHandler<Connection>() {
+                @Override
+                public void cancelled() {
+                    responseFuture.cancel(true);
+                }
+
+                @Override
+                public void failed(final Throwable throwable) {
+                    responseFuture.abort(throwable);
+                }
+
+                @Override
+                public void completed(final Connection c) {
+                    final HttpTransactionContext newContext =
+                            cloneFor(c, request, responseFuture);
+                    if (responseFuture.setHttpTransactionCtx(newContext)) {
+                        completionHandler.completed(newContext);
+                    } else {
+                        // GrizzlyResponseFuture has been already completed (canceled?)
+                        newContext.closeConnection();
+                    }
+                }
+
+                @Override
+                public void updated(final Connection c) {
+                }
+            });
+        } catch (Exception e) {
+            responseFuture.abort(e);
+        }
+    }
+    
+    private HttpTransactionContext cloneFor(final Connection connection,
+            final Request request, final GrizzlyResponseFuture future) {
         final HttpTransactionContext newContext = startTransaction(
                 connection, provider, request, future);
         newContext.invocationStatus = invocationStatus;
@@ -241,9 +328,7 @@ public final class HttpTransactionContext {
         newContext.statusHandler = statusHandler;
         newContext.lastRedirectUri = lastRedirectUri;
         newContext.redirectCount = redirectCount;
-        
-        // detach the future
-        future = null;
+        newContext.retryCount = retryCount;
         
         return newContext;
     }
@@ -257,11 +342,131 @@ public final class HttpTransactionContext {
     }
 
     void abort(final Throwable t) {
-        if (future != null) {
-            future.abort(t);
+        if (t instanceof TimeoutException && connection != null) {
+            provider.getConnectionManager().onRequestTimedOut(connection);
+        }
+        
+        if (future != null && !retry(t)) {
+            final GrizzlyResponseFuture f = future;
+            if (f != null) {
+                f.abort(t);
+            }
         }
     }
 
+    /**
+     * Tries to replay the request on a new connection after an
+     * {@link IOException}. The configured {@link IOExceptionFilter}s are
+     * consulted first. If none of them asks for a replay, the request is
+     * retried automatically, if the response hasn't started yet and the
+     * request can safely be sent again. Both are limited by
+     * {@link AsyncHttpClientConfig#getMaxRequestRetry()}.
+     * 
+     * @return <tt>true</tt> if the request is being replayed, or
+     *          <tt>false</tt> if the request has to be aborted
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized boolean retry(final Throwable t) {
+        final GrizzlyResponseFuture f = future;
+        if (f == null) {
+            // has been detached concurrently, nothing to abort
+            return true;
+        }
+        
+        if (!(t instanceof IOException) || f.isDone()
+                || f.isDeadlineExceeded()) {
+            return false;
+        }
+        
+        final AsyncHttpClientConfig config = provider.getClientConfig();
+        if (retryCount >= config.getMaxRequestRetry()) {
+            return false;
+        }
+        
+        Request request = ahcRequest;
+        AsyncHandler handler = getAsyncHandler();
+        boolean isReplay = false;
+        
+        final List<IOExceptionFilter> filters = config.getIOExceptionFilters();
+        if (!filters.isEmpty()) {
+            FilterContext fc = new FilterContext.FilterContextBuilder()
+                    .asyncHandler(handler)
+                    .request(ahcRequest)
+                    .ioException((IOException) t)
+                    .build();
+            try {
+                for (IOExceptionFilter filter : filters) {
+                    fc = filter.filter(fc);
+                }
+            } catch (FilterException e) {
+                return false;
+            }
+            
+            if (fc.replayRequest()) {
+                isReplay = true;
+                request = fc.getRequest();
+                handler = fc.getAsyncHandler();
+            }
+        }
+        
+        if (!isReplay && (responseStatus != null || !isRetryable(ahcRequest))) {
+            return false;
+        }
+        
+        retryCount++;
+        if (handler instanceof AsyncHandlerExtensions) {
+            ((AsyncHandlerExtensions) handler).onRetry();
+        }
+        f.setAsyncHandler(handler);
+        
+        cloneAndStartTransactionForNewConnection(request, true,
+                new EmptyCompletionHandler<HttpTransactionContext>() {
+            @Override
+            public void completed(final HttpTransactionContext newContext) {
+                newContext.invocationStatus = StatusHandler.InvocationStatus.CONTINUE;
+                newContext.statusHandler = null;
+                try {
+                    provider.execute(newContext);
+                } catch (IOException ioe) {
+                    newContext.abort(ioe);
+                }
+            }
+        });
+        
+        closeConnection();
+        return true;
+    }
+
+    /**
+     * A request can be retried automatically if its body can be sent again,
+     * and either its method is idempotent, or it failed on a reused (pooled)
+     * connection, which the server might have closed just before the request
+     * was sent, before the request has been fully sent. A non-idempotent
+     * request, which has been fully sent, might have been processed by the
+     * server, so it's never retried automatically.
+     */
+    private boolean isRetryable(final Request request) {
+        if (request.getStreamData() != null
+                || (request.getBodyGenerator() != null
+                && !(request.getBodyGenerator() instanceof ByteBufferBodyGenerator))) {
+            // one-shot body
+            return false;
+        }
+        
+        // guarded by "this", see retry(...)
+        return isIdempotent(request.getMethod())
+                || (isReusedConnection && !isRequestFullySent);
+    }
+    
+    private static boolean isIdempotent(final String method) {
+        return "GET".equalsIgnoreCase(method)
+                || "HEAD".equalsIgnoreCase(method)
+                || "OPTIONS".equalsIgnoreCase(method)
+                || "TRACE".equalsIgnoreCase(method)
+                || "PUT".equalsIgnoreCase(method)
+                || "DELETE".equalsIgnoreCase(method);
+    }
+
     void done() {
         done(null);
     }
@@ -290,7 +495,7 @@ public final class HttpTransactionContext {
     }
 
     void touchConnection() {
-        provider.touchConnection(connection, ahcRequest);
+        provider.touchConnection(connection);
     }
 
     void closeConnection() {
@@ -339,6 +544,10 @@ public final class HttpTransactionContext {
         
         if (cleanupTask != null) {
             cleanupTask.run();
+        } else {
+            // start waiting for the response
+            provider.armReadTimeout(connection);
+            provider.armFirstByteTimeout(connection, ahcRequest);
         }
     }
     
@@ -0,0 +1,135 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.Connection;
+
+/**
+ * {@link ReadAheadFeeder}, which feeds an {@link InputStream}.
+ * 
+ * The stream is read with blocking reads, which are run by a dedicated
+ * thread pool, so a slow stream never blocks the I/O or the worker threads.
+ * 
+ * @author Grizzly team
+ */
+final class InputStreamFeeder extends ReadAheadFeeder {
+    
+    private static final ExecutorService READ_EXECUTOR =
+            Executors.newCachedThreadPool(new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(final Runnable r) {
+                    final Thread thread = new Thread(r,
+                            "grizzly-ahc-stream-reader-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    
+    private final InputStream in;
+    // whether the stream is closed once fed, or is left to its owner
+    private final boolean isCloseStream;
+    
+    // ------------------------------------------------------------ Constructors
+
+
+    InputStreamFeeder(final FeedableBodyGenerator feedableBodyGenerator,
+            final Connection connection, final InputStream in,
+            final boolean isCloseStream) {
+        super(feedableBodyGenerator, connection);
+        this.in = in;
+        this.isCloseStream = isCloseStream;
+    }
+
+    
+    // --------------------------------------------- Methods from ReadAheadFeeder
+
+    
+    @Override
+    protected void read(final Buffer buffer) {
+        READ_EXECUTOR.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final int read;
+                try {
+                    final ByteBuffer byteBuffer = buffer.toByteBuffer();
+                    if (byteBuffer.hasArray()) {
+                        read = in.read(byteBuffer.array(),
+                                byteBuffer.arrayOffset() + byteBuffer.position(),
+                                byteBuffer.remaining());
+                    } else {
+                        final byte[] bytes = new byte[byteBuffer.remaining()];
+                        read = in.read(bytes);
+                        if (read > 0) {
+                            byteBuffer.put(bytes, 0, read);
+                        }
+                    }
+                } catch (Throwable t) {
+                    onReadFailed(buffer, t);
+                    return;
+                }
+                
+                onRead(buffer, read, false);
+            }
+        });
+    }
+
+    @Override
+    protected void closeInput() {
+        if (isCloseStream) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -59,17 +59,19 @@ import com.ning.http.client.Body;
 import com.ning.http.client.BodyGenerator;
 import com.ning.http.client.Param;
 import com.ning.http.client.Request;
+import com.ning.http.client.generators.ByteBufferBodyGenerator;
+import com.ning.http.client.generators.FileBodyGenerator;
+import com.ning.http.client.generators.InputStreamBodyGenerator;
 import com.ning.http.client.listener.TransferCompletionHandler;
 import com.ning.http.client.multipart.MultipartBody;
 import com.ning.http.client.multipart.MultipartUtils;
 import com.ning.http.client.multipart.Part;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
 import org.glassfish.grizzly.Buffer;
 import org.glassfish.grizzly.EmptyCompletionHandler;
 import org.glassfish.grizzly.FileTransfer;
@@ -77,6 +79,7 @@ import org.glassfish.grizzly.WriteResult;
 import org.glassfish.grizzly.filterchain.FilterChainContext;
 import org.glassfish.grizzly.http.HttpContent;
 import org.glassfish.grizzly.http.HttpRequestPacket;
+import org.glassfish.grizzly.memory.CompositeBuffer;
 import org.glassfish.grizzly.memory.Buffers;
 import org.glassfish.grizzly.memory.MemoryManager;
 import org.glassfish.grizzly.utils.Charsets;
@@ -96,6 +99,7 @@ final class PayloadGenFactory {
             new PayloadGenerator[]{
                 new StringPayloadGenerator(), 
                 new ByteArrayPayloadGenerator(),
+                new CompositePayloadGenerator(),
                 new ParamsPayloadGenerator(),
                 new StreamDataPayloadGenerator(),
                 new PartsPayloadGenerator(), 
@@ -208,6 +212,88 @@ final class PayloadGenFactory {
     }
 
 
+    /**
+     * Sends the {@link Request#getCompositeByteData()} or the
+     * {@link ByteBufferBodyGenerator} slices as one {@link CompositeBuffer},
+     * which the transport writes with a single gathering write, without
+     * copying the slices together.
+     */
+    private static final class CompositePayloadGenerator extends PayloadGenerator {
+
+
+        // -------------------------------------------- Methods from BodyGenerator
+
+        public boolean handlesPayloadType(final Request request) {
+            return (request.getCompositeByteData() != null
+                    || request.getBodyGenerator() instanceof ByteBufferBodyGenerator);
+        }
+
+        @SuppressWarnings({"unchecked"})
+        public boolean generate(final FilterChainContext ctx,
+                             final Request request,
+                             final HttpRequestPacket requestPacket)
+        throws IOException {
+
+            final MemoryManager mm = ctx.getMemoryManager();
+            final CompositeBuffer gBuffer = CompositeBuffer.newBuffer(mm);
+            // the slices belong to the request, which may be sent again
+            gBuffer.allowInternalBuffersDispose(false);
+            gBuffer.allowBufferDispose(false);
+            
+            final List<byte[]> byteData = request.getCompositeByteData();
+            if (byteData != null) {
+                for (byte[] data : byteData) {
+                    if (data.length > 0) {
+                        gBuffer.append(Buffers.wrap(mm, data));
+                    }
+                }
+            } else {
+                final ByteBufferBodyGenerator generator =
+                        (ByteBufferBodyGenerator) request.getBodyGenerator();
+                for (ByteBuffer data : generator.getBuffers()) {
+                    if (data.hasRemaining()) {
+                        // leave the position of the request buffer untouched
+                        gBuffer.append(Buffers.wrap(mm, data.duplicate()));
+                    }
+                }
+            }
+            
+            if (requestPacket.getContentLength() == -1) {
+                requestPacket.setContentLengthLong(gBuffer.remaining());
+            }
+            final HttpContent content = requestPacket.httpContentBuilder()
+                    .content(gBuffer.hasRemaining() ? gBuffer : Buffers.EMPTY_BUFFER)
+                    .last(true)
+                    .build();
+            
+            ctx.write(content, ((!requestPacket.isCommitted())
+                    ? ctx.getTransportContext().getCompletionHandler()
+                    : null));
+            return true;
+        }
+        
+        @Override
+        protected long getContentLength(final Request request) {
+            if (request.getContentLength() >= 0) {
+                return request.getContentLength();
+            }
+            
+            long length = 0;
+            final List<byte[]> byteData = request.getCompositeByteData();
+            if (byteData != null) {
+                for (byte[] data : byteData) {
+                    length += data.length;
+                }
+            } else {
+                length = ((ByteBufferBodyGenerator) request.getBodyGenerator())
+                        .getContentLength();
+            }
+            
+            return length;
+        }        
+    }
+
+
     private static final class StringPayloadGenerator extends PayloadGenerator {
 
 
@@ -312,10 +398,6 @@ final class PayloadGenFactory {
                              final HttpRequestPacket requestPacket)
         throws IOException {
 
-            final MemoryManager mm = ctx.getMemoryManager();
-            Buffer buffer = mm.allocate(512);
-            final byte[] b = new byte[512];
-            int read;
             final InputStream in = request.getStreamData();
             try {
                 in.reset();
@@ -328,23 +410,8 @@ final class PayloadGenFactory {
                 in.mark(0);
             }
 
-            while ((read = in.read(b)) != -1) {
-                if (read > buffer.remaining()) {
-                    buffer = mm.reallocate(buffer, buffer.capacity() + 512);
-                }
-                buffer.put(b, 0, read);
-            }
-            buffer.trim();
-            if (buffer.hasRemaining()) {
-                final HttpContent content = requestPacket.httpContentBuilder()
-                        .content(buffer)
-                        .last(true)
-                        .build();
-                buffer.allowBufferDispose(false);
-                ctx.write(content, ((!requestPacket.isCommitted()) ? ctx.getTransportContext().getCompletionHandler() : null));
-            }
-            
-            return true;
+            // the request is chunked, unless its content length is set
+            return feedStream(ctx, requestPacket, in, false);
         }
 
     } // END StreamDataPayloadGenerator
@@ -423,10 +490,6 @@ final class PayloadGenFactory {
 
 
     private static final class FilePayloadGenerator extends PayloadGenerator {
-        private static final boolean SEND_FILE_SUPPORT;
-        static {
-            SEND_FILE_SUPPORT = /*configSendFileSupport()*/ false;
-        }
 
         // -------------------------------------------- Methods from PayloadGenerator
 
@@ -443,61 +506,12 @@ final class PayloadGenFactory {
 
             final File f = request.getFile();
             requestPacket.setContentLengthLong(f.length());
-            final HttpTransactionContext context =
-                    HttpTransactionContext.currentTransaction(requestPacket);
             
-            if (!SEND_FILE_SUPPORT || requestPacket.isSecure()) {
-                
-                final FileInputStream fis = new FileInputStream(request.getFile());
-                final MemoryManager mm = ctx.getMemoryManager();
-                AtomicInteger written = new AtomicInteger();
-                boolean last = false;
-                try {
-                    for (byte[] buf = new byte[MAX_CHUNK_SIZE]; !last; ) {
-                        Buffer b = null;
-                        int read;
-                        if ((read = fis.read(buf)) < 0) {
-                            last = true;
-                            b = Buffers.EMPTY_BUFFER;
-                        }
-                        if (b != Buffers.EMPTY_BUFFER) {
-                            written.addAndGet(read);
-                            b = Buffers.wrap(mm, buf, 0, read);
-                        }
-
-                        final HttpContent content =
-                                requestPacket.httpContentBuilder().content(b).
-                                        last(last).build();
-                        ctx.write(content, ((!requestPacket.isCommitted()) ? ctx.getTransportContext().getCompletionHandler() : null));
-                    }
-                } finally {
-                    try {
-                        fis.close();
-                    } catch (IOException ignored) {
-                    }
-                }
-            } else {
-                // write the headers
-                ctx.write(requestPacket, ((!requestPacket.isCommitted()) ? ctx.getTransportContext().getCompletionHandler() : null));
-                ctx.write(new FileTransfer(f), new EmptyCompletionHandler<WriteResult>() {
-
-                    @Override
-                    public void updated(WriteResult result) {
-                        final AsyncHandler ah = context.getAsyncHandler();
-                        if (ah instanceof TransferCompletionHandler) {
-                            final long written = result.getWrittenSize();
-                            context.totalBodyWritten += written;
-                            final long total = context.totalBodyWritten;
-                            ((TransferCompletionHandler) ah).onContentWriteProgress(
-                                    written,
-                                    total,
-                                    requestPacket.getContentLength());
-                        }
-                    }
-                });
+            if (isSendFileAllowed(requestPacket)) {
+                return sendFile(ctx, requestPacket, f, 0, f.length());
             }
-
-            return true;
+            
+            return feedFile(ctx, requestPacket, f, 0, f.length());
         }
 
         @Override
@@ -525,6 +539,30 @@ final class PayloadGenFactory {
         throws IOException {
             Body bodyLocal = null;
             final BodyGenerator generator = request.getBodyGenerator();
+            
+            // subclasses may customize the body, so only the plain
+            // FileBodyGenerator and InputStreamBodyGenerator are known to
+            // be backed by just their file region, or stream
+            if (generator.getClass() == FileBodyGenerator.class) {
+                final FileBodyGenerator fileGenerator = (FileBodyGenerator) generator;
+                final File file = fileGenerator.getFile();
+                final long position = fileGenerator.getRegionSeek();
+                final long length = fileGenerator.getRegionLength();
+                requestPacket.setContentLengthLong(length);
+                
+                if (isSendFileAllowed(requestPacket)) {
+                    return sendFile(ctx, requestPacket, file, position, length);
+                }
+                
+                return feedFile(ctx, requestPacket, file, position, length);
+            }
+            
+            if (generator.getClass() == InputStreamBodyGenerator.class) {
+                requestPacket.setChunked(true);
+                return feedStream(ctx, requestPacket,
+                        ((InputStreamBodyGenerator) generator).getInputStream(),
+                        true);
+            }
 
             try {
                 bodyLocal = generator.createBody();
@@ -580,4 +618,110 @@ final class PayloadGenFactory {
         }
 
     } // END BodyGeneratorAdapter        
+
+
+    // ---------------------------------------------------------- Private Methods
+
+
+    /**
+     * @return <tt>true</tt> if the body may be sent using sendfile: it's
+     *          supported by the platform, enabled for the provider, and the
+     *          connection is not secured, as TLS needs the bytes in memory
+     */
+    private static boolean isSendFileAllowed(final HttpRequestPacket requestPacket) {
+        final HttpTransactionContext context =
+                HttpTransactionContext.currentTransaction(requestPacket);
+        return !requestPacket.isSecure()
+                && context.provider.isSendFileEnabled();
+    }
+
+    /**
+     * Initiates the asynchronous transfer of the passed file region, which is
+     * read ahead of the writes by a bounded number of chunks, and fed as the
+     * connection write queue drains.
+     * 
+     * @return <tt>false</tt>, as the request is not fully sent yet
+     */
+    private static boolean feedFile(final FilterChainContext ctx,
+            final HttpRequestPacket requestPacket, final File file,
+            final long position, final long length) throws IOException {
+        final FeedableBodyGenerator generator = new FeedableBodyGenerator();
+        generator.setFeeder(new FileFeeder(generator, ctx.getConnection(),
+                file, position, length));
+        generator.initializeAsynchronousTransfer(ctx, requestPacket);
+        return false;
+    }
+    
+    /**
+     * Initiates the asynchronous transfer of the passed stream, which is
+     * read by a bounded number of chunks ahead of the writes, and fed as
+     * the connection write queue drains.
+     * 
+     * @return <tt>false</tt>, as the request is not fully sent yet
+     */
+    private static boolean feedStream(final FilterChainContext ctx,
+            final HttpRequestPacket requestPacket, final InputStream in,
+            final boolean isCloseStream) throws IOException {
+        final FeedableBodyGenerator generator = new FeedableBodyGenerator();
+        generator.setFeeder(new InputStreamFeeder(generator,
+                ctx.getConnection(), in, isCloseStream));
+        generator.initializeAsynchronousTransfer(ctx, requestPacket);
+        return false;
+    }
+    
+    /**
+     * Writes the headers, and then the passed file region, which the
+     * transport copies straight from the file to the socket
+     * ({@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}),
+     * without passing it through the heap. The request is fully sent once
+     * the file region has been written.
+     * 
+     * @return <tt>false</tt>, as the request is not fully sent yet
+     */
+    private static boolean sendFile(final FilterChainContext ctx,
+            final HttpRequestPacket requestPacket, final File file,
+            final long position, final long length) {
+        final HttpTransactionContext context =
+                HttpTransactionContext.currentTransaction(requestPacket);
+        
+        ctx.write(requestPacket, ((!requestPacket.isCommitted()) ? ctx.getTransportContext().getCompletionHandler() : null));
+        ctx.write(new FileTransfer(file, position, length),
+                new EmptyCompletionHandler<WriteResult>() {
+            // the size reported so far, the write result size is cumulative
+            private long reported;
+
+            @Override
+            public void updated(final WriteResult result) {
+                reportProgress(result.getWrittenSize());
+            }
+
+            @Override
+            public void completed(final WriteResult result) {
+                reportProgress(length);
+                context.onRequestFullySent();
+            }
+
+            @Override
+            public void failed(final Throwable throwable) {
+                context.abort(throwable);
+            }
+            
+            private void reportProgress(final long writtenSize) {
+                final long written = writtenSize - reported;
+                if (written <= 0) {
+                    return;
+                }
+                
+                reported = writtenSize;
+                final AsyncHandler ah = context.getAsyncHandler();
+                if (ah instanceof TransferCompletionHandler) {
+                    context.totalBodyWritten += written;
+                    ((TransferCompletionHandler) ah).onContentWriteProgress(
+                            written, context.totalBodyWritten, length);
+                }
+            }
+        });
+        
+        return false;
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of the requests waiting for a pooled connection, once the
+ * maximum number of connections has been reached, either of a single
+ * endpoint, or aggregated for the whole client.
+ * 
+ * @see GrizzlyAsyncHttpProviderConfig.Property#MAX_CONNECTION_WAIT_QUEUE_SIZE
+ * @see GrizzlyAsyncHttpProvider#getPoolWaitQueueStatistics()
+ * 
+ * @author Grizzly team
+ */
+public final class PoolWaitQueueStatistics {
+    private final PoolWaitQueueStatistics parent;
+    
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger peakQueueDepth = new AtomicInteger();
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    PoolWaitQueueStatistics(final PoolWaitQueueStatistics parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * @return the number of requests currently waiting for a connection
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the maximum number of requests, which have been waiting for a
+     *          connection at the same time
+     */
+    public int getPeakQueueDepth() {
+        return peakQueueDepth.get();
+    }
+
+    /**
+     * @return the number of completed waits, whatever their outcome
+     */
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    /**
+     * @return the time spent waiting for a connection by all the completed waits
+     */
+    public long getTotalWaitTime(final TimeUnit unit) {
+        return unit.convert(totalWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the average time spent waiting for a connection, or zero
+     *          if no wait has been completed yet
+     */
+    public long getAverageWaitTime(final TimeUnit unit) {
+        final long count = waitCount.get();
+        return count == 0
+                ? 0
+                : unit.convert(totalWaitNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the longest time spent waiting for a connection
+     */
+    public long getMaxWaitTime(final TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of requests, which timed out waiting for a connection
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return the number of requests, which have been rejected, because
+     *          the wait queue of their endpoint was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "PoolWaitQueueStatistics{"
+                + "queueDepth=" + getQueueDepth()
+                + ", peakQueueDepth=" + getPeakQueueDepth()
+                + ", waitCount=" + getWaitCount()
+                + ", averageWaitTime=" + getAverageWaitTime(TimeUnit.MILLISECONDS) + "ms"
+                + ", maxWaitTime=" + getMaxWaitTime(TimeUnit.MILLISECONDS) + "ms"
+                + ", timeoutCount=" + getTimeoutCount()
+                + ", rejectedCount=" + getRejectedCount()
+                + '}';
+    }
+
+    // --------------------------------------------------- Package Methods
+
+    void onWaitStarted() {
+        final int depth = queueDepth.incrementAndGet();
+        int peak;
+        while (depth > (peak = peakQueueDepth.get())) {
+            if (peakQueueDepth.compareAndSet(peak, depth)) {
+                break;
+            }
+        }
+        
+        if (parent != null) {
+            parent.onWaitStarted();
+        }
+    }
+
+    void onWaitCompleted(final long waitNanos, final boolean isTimedOut) {
+        queueDepth.decrementAndGet();
+        waitCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max;
+        while (waitNanos > (max = maxWaitNanos.get())) {
+            if (maxWaitNanos.compareAndSet(max, waitNanos)) {
+                break;
+            }
+        }
+        
+        if (isTimedOut) {
+            timeoutCount.incrementAndGet();
+        }
+        
+        if (parent != null) {
+            parent.onWaitCompleted(waitNanos, isTimedOut);
+        }
+    }
+
+    void onRejected() {
+        rejectedCount.incrementAndGet();
+        if (parent != null) {
+            parent.onRejected();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.glassfish.grizzly.Buffer;
+import org.glassfish.grizzly.CloseListener;
+import org.glassfish.grizzly.CloseType;
+import org.glassfish.grizzly.Closeable;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+
+import static com.ning.http.client.providers.grizzly.PayloadGenerator.MAX_CHUNK_SIZE;
+import static org.glassfish.grizzly.utils.Exceptions.makeIOException;
+
+/**
+ * {@link FeedableBodyGenerator.NonBlockingFeeder}, which reads the body
+ * asynchronously, off the I/O thread, and feeds it to the connection.
+ * 
+ * At most {@link #READ_AHEAD_CHUNKS} chunks are read ahead of the connection
+ * write queue, which is bounded by the connection max pending bytes, so the
+ * memory used by a request doesn't depend on the body size.  Feeding resumes
+ * once the write queue drains, or once the next chunk has been read.
+ * 
+ * @author Grizzly team
+ */
+abstract class ReadAheadFeeder extends FeedableBodyGenerator.NonBlockingFeeder {
+    
+    /**
+     * The max number of chunks read, but not fed yet.
+     */
+    static final int READ_AHEAD_CHUNKS = 4;
+    
+    private final Connection connection;
+    private final MemoryManager memoryManager;
+    
+    private final Deque<Buffer> chunks = new ArrayDeque<Buffer>(READ_AHEAD_CHUNKS);
+    private final ConnectionCloseListener closeListener =
+            new ConnectionCloseListener();
+
+    // guarded by this
+    private boolean isReading;
+    private boolean isInputClosePending;
+    private boolean isEndOfInput;
+    private boolean isLastFed;
+    private IOException failure;
+    private ReadyToFeedListener readyListener;
+    
+    // ------------------------------------------------------------ Constructors
+
+
+    ReadAheadFeeder(final FeedableBodyGenerator feedableBodyGenerator,
+            final Connection connection) {
+        super(feedableBodyGenerator);
+        this.connection = connection;
+        this.memoryManager = connection.getMemoryManager();
+        
+        connection.addCloseListener(closeListener);
+    }
+
+    
+    // ------------------------------------------- Methods from NonBlockingFeeder
+
+    
+    @Override
+    public synchronized void flush() throws IOException {
+        // the first flush starts reading
+        readAhead();
+        super.flush();
+    }
+    
+    @Override
+    public synchronized void canFeed() throws IOException {
+        if (failure != null) {
+            close();
+            throw failure;
+        }
+        
+        final Buffer chunk = chunks.poll();
+        final boolean last = isEndOfInput && chunks.isEmpty();
+        if (last) {
+            isLastFed = true;
+            close();
+        }
+        
+        feed(chunk != null ? chunk : Buffers.EMPTY_BUFFER, last);
+        readAhead();
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return isLastFed;
+    }
+
+    @Override
+    public synchronized boolean isReady() {
+        return failure != null
+                || !chunks.isEmpty()
+                || (isEndOfInput && !isLastFed);
+    }
+
+    @Override
+    public synchronized void notifyReadyToFeed(final ReadyToFeedListener listener) {
+        readyListener = listener;
+    }
+    
+    
+    // ------------------------------------------------------- Protected Methods
+
+    
+    /**
+     * Starts reading the next chunk into the passed {@link Buffer}, the read
+     * must complete with either {@link #onRead(Buffer, int, boolean)} or
+     * {@link #onReadFailed(Buffer, Throwable)}.
+     */
+    protected abstract void read(Buffer buffer);
+    
+    /**
+     * Releases the body source, once the body has been fed or has failed,
+     * never while a read started by {@link #read(Buffer)} is in flight.
+     */
+    protected abstract void closeInput();
+    
+    /**
+     * Completes the read started by {@link #read(Buffer)}.
+     * 
+     * @param buffer the {@link Buffer} passed to {@link #read(Buffer)}
+     * @param read the number of bytes read, or <tt>-1</tt> at the end of input
+     * @param isEndOfInput <tt>true</tt> if no more bytes are to be read
+     */
+    protected final void onRead(final Buffer buffer, final int read,
+            final boolean isEndOfInput) {
+        synchronized (this) {
+            onReadCompleted();
+            if (failure != null) {
+                // the feeder has failed while reading, and its chunks have
+                // been disposed already
+                buffer.tryDispose();
+                return;
+            }
+            
+            if (read > 0) {
+                buffer.position(read);
+                buffer.trim();
+                chunks.add(buffer);
+            } else {
+                buffer.tryDispose();
+            }
+            
+            if (isEndOfInput || read < 0) {
+                this.isEndOfInput = true;
+            } else {
+                readAhead();
+            }
+        }
+        
+        // feed on the reading thread, not to keep the I/O thread busy with
+        // the encoding, and the TLS encryption
+        notifyReady();
+    }
+    
+    /**
+     * Fails the read started by {@link #read(Buffer)}.
+     */
+    protected final void onReadFailed(final Buffer buffer, final Throwable t) {
+        buffer.tryDispose();
+        synchronized (this) {
+            onReadCompleted();
+            onFailure(t);
+        }
+        
+        notifyReady();
+    }
+    
+    
+    // --------------------------------------------------------- Private Methods
+
+    
+    private synchronized void readAhead() {
+        if (isReading || isEndOfInput || failure != null
+                || chunks.size() >= READ_AHEAD_CHUNKS) {
+            return;
+        }
+        
+        final Buffer buffer = memoryManager.allocate(MAX_CHUNK_SIZE);
+        buffer.allowBufferDispose(true);
+        isReading = true;
+        read(buffer);
+    }
+    
+    private synchronized void onFailure(final Throwable t) {
+        if (failure == null) {
+            failure = makeIOException(t);
+        }
+        
+        for (Buffer chunk; (chunk = chunks.poll()) != null; ) {
+            chunk.tryDispose();
+        }
+        
+        close();
+    }
+
+    /**
+     * @return the listener to notify, if the feeder has become ready
+     */
+    private synchronized ReadyToFeedListener takeReadyListener() {
+        if (!isReady()) {
+            return null;
+        }
+        
+        final ReadyToFeedListener listener = readyListener;
+        readyListener = null;
+        return listener;
+    }
+    
+    private synchronized void close() {
+        connection.removeCloseListener(closeListener);
+        if (isReading) {
+            // the input is closed once the in-flight read completes
+            isInputClosePending = true;
+        } else {
+            closeInput();
+        }
+    }
+    
+    private synchronized void onReadCompleted() {
+        isReading = false;
+        if (isInputClosePending) {
+            isInputClosePending = false;
+            closeInput();
+        }
+    }
+    
+    private void notifyReady() {
+        final ReadyToFeedListener listener = takeReadyListener();
+        if (listener != null) {
+            listener.ready();
+        }
+    }
+    
+    
+    // ----------------------------------------------------------- Inner Classes
+
+    
+    private final class ConnectionCloseListener
+            implements CloseListener<Closeable, CloseType> {
+
+        @Override
+        public void onClosed(final Closeable closeable, final CloseType type)
+                throws IOException {
+            onFailure(new IOException("Connection closed"));
+        }
+    } // END ConnectionCloseListener
+}
@@ -57,6 +57,7 @@ package com.ning.http.client.providers.grizzly;
 import com.ning.http.client.providers.grizzly.events.SSLSwitchingEvent;
 import java.io.IOException;
 import javax.net.ssl.SSLEngine;
+import org.glassfish.grizzly.CompletionHandler;
 import org.glassfish.grizzly.Connection;
 import org.glassfish.grizzly.Grizzly;
 import org.glassfish.grizzly.attributes.Attribute;
@@ -89,21 +90,10 @@ final class SwitchingSSLFilter extends SSLFilter {
         
         if (event.type() == SSLSwitchingEvent.class) {
             final SSLSwitchingEvent se = (SSLSwitchingEvent) event;
-            final boolean isSecure = se.isSecure();
-            CONNECTION_IS_SECURE.set(se.getConnection(), isSecure);
-            
-            // if enabling security - create SSLEngine here, because default
-            // Grizzly SSLFilter will use host/port info from the Connection, rather
-            // than request URL. Specifically this doesn't work with CONNECT tunnels.
-            if (isSecure &&
-                    SSLUtils.getSSLEngine(ctx.getConnection()) == null) {
-                // if SSLEngine is not yet set for the connection - initialize it
-                final SSLEngine sslEngine = getClientSSLEngineConfigurator()
-                        .createSSLEngine(se.getHost(),
-                                se.getPort() == -1 ? 443 : se.getPort()
-                        );
-                sslEngine.beginHandshake();
-                SSLUtils.setSSLEngine(ctx.getConnection(), sslEngine);
+            if (se.isSecure()) {
+                enableSecurity(ctx.getConnection(), se.getHost(), se.getPort());
+            } else {
+                CONNECTION_IS_SECURE.set(se.getConnection(), false);
             }
             return ctx.getStopAction();
         }
@@ -142,7 +132,38 @@ final class SwitchingSSLFilter extends SSLFilter {
     }
 
     
+    // --------------------------------------------------- Package Methods
+
+    /**
+     * Enables TLS on the passed {@link Connection} and starts the handshake
+     * right away, rather than once the first request is sent.
+     */
+    void handshake(final Connection connection, final String host,
+            final int port,
+            final CompletionHandler<SSLEngine> completionHandler)
+            throws IOException {
+        enableSecurity(connection, host, port);
+        handshake(connection, completionHandler);
+    }
+
     // ----------------------------------------------------- Private Methods
+
+    private void enableSecurity(final Connection connection,
+            final String host, final int port) throws IOException {
+        CONNECTION_IS_SECURE.set(connection, true);
+        
+        // create SSLEngine here, because default Grizzly SSLFilter will use
+        // host/port info from the Connection, rather than request URL.
+        // Specifically this doesn't work with CONNECT tunnels.
+        if (SSLUtils.getSSLEngine(connection) == null) {
+            // if SSLEngine is not yet set for the connection - initialize it
+            final SSLEngine sslEngine = getClientSSLEngineConfigurator()
+                    .createSSLEngine(host, port == -1 ? 443 : port);
+            sslEngine.beginHandshake();
+            SSLUtils.setSSLEngine(connection, sslEngine);
+        }
+    }
+    
     private boolean isSecure(final Connection c) {
         Boolean secStatus = CONNECTION_IS_SECURE.get(c);
         if (secStatus == null) {
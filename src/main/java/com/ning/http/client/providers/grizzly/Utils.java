@@ -100,6 +100,46 @@ public class Utils {
         return ("https".equals(scheme) || "wss".equals(scheme));
     }
     
+    /**
+     * @return <tt>true</tt> if the passed host is an IPv4 or IPv6 address
+     *          literal, which doesn't require name resolution.
+     */
+    static boolean isIpLiteral(final String host) {
+        final int len = host.length();
+        if (len == 0) {
+            return false;
+        }
+
+        if (host.indexOf(':') != -1) {
+            // IPv6 (host names can't contain ':')
+            return true;
+        }
+
+        // IPv4: four dot-separated decimal octets, each within 0-255
+        int dots = 0;
+        int octet = 0;
+        int digits = 0;
+        for (int i = 0; i < len; i++) {
+            final char c = host.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || ++dots > 3) {
+                    return false;
+                }
+                octet = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+
+        return dots == 3 && digits > 0;
+    }
+
     static String discoverTestName(final String defaultName) {
         final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
         final int strackTraceLen = stackTrace.length;
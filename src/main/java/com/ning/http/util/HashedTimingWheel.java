@@ -0,0 +1,477 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timing wheel (Varghese and Lauck) used to schedule large amounts of
+ * short, mostly cancelled, timeouts like request, idle and stall timeouts.
+ * <p>
+ * Both {@link #schedule(Runnable, long, TimeUnit)} and {@link Timeout#cancel()}
+ * are O(1), and the cost of a tick depends on the number of timeouts hashed
+ * into a single bucket only, not on the total number of scheduled timeouts.
+ * The precision of the wheel is bound by its tick duration: a timeout
+ * never expires before its deadline, but may expire up to one tick later.
+ * <p>
+ * Expired tasks are executed by the single wheel thread, so they are expected
+ * to be short and non-blocking. The thread is started lazily with the first
+ * scheduled timeout.
+ */
+public final class HashedTimingWheel {
+    private final static Logger LOGGER = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    private static final int WORKER_SHUTDOWN = 2;
+
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static class SharedHolder {
+        private static final HashedTimingWheel INSTANCE =
+                new HashedTimingWheel("ahc-timer", 100, TimeUnit.MILLISECONDS,
+                        DEFAULT_WHEEL_SIZE);
+    }
+
+    private final String threadName;
+    private final long tickDuration;
+    private final Bucket[] wheel;
+    private final int mask;
+
+    private final Queue<TimeoutImpl> newTimeouts =
+            new ConcurrentLinkedQueue<TimeoutImpl>();
+    private final Queue<TimeoutImpl> cancelledTimeouts =
+            new ConcurrentLinkedQueue<TimeoutImpl>();
+    private final AtomicInteger pendingTimeouts = new AtomicInteger();
+
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_INIT);
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+    private volatile long startTime;
+    private volatile Thread workerThread;
+
+    // ------------------------------------------------------------ Constructors
+
+
+    /**
+     * Creates a timing wheel with <tt>512</tt> buckets.
+     *
+     * @param threadName the name of the wheel thread
+     * @param tickDuration the duration of a tick, which is the wheel precision
+     * @param unit the {@link TimeUnit} of <tt>tickDuration</tt>
+     */
+    public HashedTimingWheel(final String threadName, final long tickDuration,
+            final TimeUnit unit) {
+        this(threadName, tickDuration, unit, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Creates a timing wheel.
+     *
+     * @param threadName the name of the wheel thread
+     * @param tickDuration the duration of a tick, which is the wheel precision
+     * @param unit the {@link TimeUnit} of <tt>tickDuration</tt>
+     * @param wheelSize the number of buckets, rounded up to a power of two
+     */
+    public HashedTimingWheel(final String threadName, final long tickDuration,
+            final TimeUnit unit, final int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("wheelSize is out of range: " + wheelSize);
+        }
+
+        int normalizedSize = 1;
+        while (normalizedSize < wheelSize) {
+            normalizedSize <<= 1;
+        }
+
+        this.threadName = threadName;
+        this.tickDuration = unit.toNanos(tickDuration);
+        wheel = new Bucket[normalizedSize];
+        for (int i = 0; i < normalizedSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        mask = normalizedSize - 1;
+    }
+
+    // ---------------------------------------------------------- Public Methods
+
+
+    /**
+     * @return the timing wheel shared by components, which have no
+     *          provider-specific wheel at hand. Its tick is 100 milliseconds
+     *          and it is never stopped.
+     */
+    public static HashedTimingWheel sharedInstance() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Schedules the <tt>task</tt> to be executed by the wheel thread once
+     * the <tt>delay</tt> is over.
+     * If the wheel has been stopped, the returned {@link Timeout} is cancelled
+     * and the task will never be executed.
+     */
+    public Timeout schedule(final Runnable task, final long delay,
+            final TimeUnit unit) {
+        if (task == null) {
+            throw new NullPointerException("task is null");
+        }
+
+        final TimeoutImpl timeout = new TimeoutImpl(task);
+        if (!start()) {
+            timeout.state = TimeoutImpl.ST_CANCELLED;
+            return timeout;
+        }
+
+        final long delayNanos = Math.max(0, unit.toNanos(delay));
+        long deadline = System.nanoTime() + delayNanos - startTime;
+        if (delayNanos > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE; // overflow
+        }
+        timeout.deadline = deadline;
+
+        pendingTimeouts.incrementAndGet();
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return the number of timeouts, which are scheduled and neither expired
+     *          nor cancelled yet.
+     */
+    public int getPendingTimeouts() {
+        return pendingTimeouts.get();
+    }
+
+    /**
+     * @return the duration of a tick in the passed {@link TimeUnit}.
+     */
+    public long getTickDuration(final TimeUnit unit) {
+        return unit.convert(tickDuration, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the wheel thread. The pending timeouts will never be expired.
+     */
+    public void stop() {
+        if (this == SharedHolder.INSTANCE) {
+            throw new IllegalStateException("The shared timing wheel can't be stopped");
+        }
+
+        if (workerState.getAndSet(WORKER_SHUTDOWN) == WORKER_STARTED) {
+            final Thread t = workerThread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+    }
+
+    // --------------------------------------------------------- Private Methods
+
+
+    private boolean start() {
+        switch (workerState.get()) {
+            case WORKER_STARTED:
+                break;
+            case WORKER_INIT:
+                if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+                    final Thread t = new Thread(new Worker(), threadName);
+                    t.setDaemon(true);
+                    workerThread = t;
+                    t.start();
+                }
+                break;
+            default:
+                return false;
+        }
+
+        while (startTime == 0) {
+            try {
+                startTimeInitialized.await();
+            } catch (InterruptedException ignored) {
+                // the start time will be initialized soon
+            }
+        }
+
+        return true;
+    }
+
+    // ---------------------------------------------------------- Nested Classes
+
+
+    /**
+     * A handle of a task scheduled on a {@link HashedTimingWheel}.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the scheduled task.
+         *
+         * @return <tt>true</tt> if the task has been cancelled, or
+         *          <tt>false</tt> if it has been executed or cancelled before
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        boolean isExpired();
+    }
+
+    private final class Worker implements Runnable {
+        private long tick;
+
+        @Override
+        public void run() {
+            startTime = System.nanoTime();
+            if (startTime == 0) {
+                // 0 is the "not initialized" marker
+                startTime = 1;
+            }
+            startTimeInitialized.countDown();
+
+            while (workerState.get() == WORKER_STARTED) {
+                if (waitForNextTick() < 0) {
+                    continue;
+                }
+
+                final Bucket bucket = wheel[(int) (tick & mask)];
+                processCancelledTimeouts();
+                transferNewTimeouts();
+                bucket.expireTimeouts();
+                tick++;
+            }
+
+            newTimeouts.clear();
+            cancelledTimeouts.clear();
+        }
+
+        private void transferNewTimeouts() {
+            // limit the transfer to protect the tick from being starved
+            for (int i = 0; i < 100000; i++) {
+                final TimeoutImpl timeout = newTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.state == TimeoutImpl.ST_CANCELLED) {
+                    continue;
+                }
+
+                final long calculated = timeout.deadline / tickDuration;
+                timeout.remainingRounds = (calculated - tick) / wheel.length;
+
+                // the deadline may be in the past already, expire it with the current tick
+                final long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+        }
+
+        private void processCancelledTimeouts() {
+            for (;;) {
+                final TimeoutImpl timeout = cancelledTimeouts.poll();
+                if (timeout == null) {
+                    break;
+                }
+                if (timeout.bucket != null) {
+                    timeout.bucket.remove(timeout);
+                }
+            }
+        }
+
+        /**
+         * @return the current time relative to the start time, or a
+         *          negative value if the wheel has been stopped
+         */
+        private long waitForNextTick() {
+            final long deadline = tickDuration * (tick + 1);
+
+            for (;;) {
+                final long currentTime = System.nanoTime() - startTime;
+                final long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+
+                if (sleepTimeMs <= 0) {
+                    return currentTime;
+                }
+
+                try {
+                    Thread.sleep(sleepTimeMs);
+                } catch (InterruptedException ignored) {
+                    if (workerState.get() == WORKER_SHUTDOWN) {
+                        return -1;
+                    }
+                }
+            }
+        }
+    }
+
+    private final class TimeoutImpl implements Timeout {
+        private static final int ST_INIT = 0;
+        private static final int ST_CANCELLED = 1;
+        private static final int ST_EXPIRED = 2;
+
+        private final Runnable task;
+        private long deadline;
+
+        // not private, so the field updater can access it
+        volatile int state = ST_INIT;
+
+        // the fields below are accessed by the wheel thread only
+        private long remainingRounds;
+        private TimeoutImpl next;
+        private TimeoutImpl prev;
+        private Bucket bucket;
+
+        private TimeoutImpl(final Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+                return false;
+            }
+
+            pendingTimeouts.decrementAndGet();
+            // the actual unlink is done by the wheel thread with the next tick
+            cancelledTimeouts.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == ST_CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state == ST_EXPIRED;
+        }
+
+        private void expire() {
+            if (!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+                return;
+            }
+
+            pendingTimeouts.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                LOGGER.warn("The timeout task " + task + " failed", t);
+            }
+        }
+    }
+
+    private static final AtomicIntegerFieldUpdater<TimeoutImpl> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(TimeoutImpl.class, "state");
+
+    /**
+     * A doubly linked list of timeouts, accessed by the wheel thread only.
+     */
+    private final class Bucket {
+        private TimeoutImpl head;
+        private TimeoutImpl tail;
+
+        private void add(final TimeoutImpl timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        private void expireTimeouts() {
+            TimeoutImpl timeout = head;
+
+            while (timeout != null) {
+                final TimeoutImpl next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    // the timeout has been hashed into this bucket, so
+                    // timeout.deadline <= deadline
+                    remove(timeout);
+                    timeout.expire();
+                } else if (timeout.isCancelled()) {
+                    remove(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+
+        private void remove(final TimeoutImpl timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+
+            final TimeoutImpl next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+
+            if (timeout == head) {
+                if (timeout == tail) {
+                    tail = null;
+                    head = null;
+                } else {
+                    head = next;
+                }
+            } else if (timeout == tail) {
+                tail = timeout.prev;
+            }
+
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class CachingNameResolverTest {
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static class CountingResolver implements NameResolver {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public InetAddress resolve(String name) throws UnknownHostException {
+            count.incrementAndGet();
+            if (name.startsWith("unknown")) {
+                throw new UnknownHostException(name);
+            }
+            return InetAddress.getByAddress(name, new byte[] { 127, 0, 0, 1 });
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPositiveCaching() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(1, TimeUnit.HOURS)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        InetAddress first = resolver.resolve("foo.test");
+        InetAddress second = resolver.resolve("foo.test");
+
+        assertSame(second, first);
+        assertEquals(delegate.count.get(), 1);
+        assertEquals(resolver.getMissCount(), 1);
+        assertEquals(resolver.getHitCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testNegativeCaching() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setNegativeTtl(1, TimeUnit.HOURS)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                resolver.resolve("unknown.test");
+                fail("UnknownHostException expected");
+            } catch (UnknownHostException expected) {
+            }
+        }
+
+        assertEquals(delegate.count.get(), 1);
+        assertEquals(resolver.getNegativeHitCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testExpiration() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(0, TimeUnit.SECONDS)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        resolver.resolve("foo.test");
+        resolver.resolve("foo.test");
+
+        assertEquals(delegate.count.get(), 2);
+        assertEquals(resolver.size(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testRefreshAhead() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(1, TimeUnit.HOURS)
+                .setRefreshAheadFactor(1e-12)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        resolver.resolve("foo.test");
+        Thread.sleep(1);
+        resolver.resolve("foo.test");
+
+        assertEquals(delegate.count.get(), 2);
+        assertEquals(resolver.getRefreshCount(), 1);
+        assertEquals(resolver.getMissCount(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testPrefetch() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        resolver.prefetch(Arrays.asList("a.test", "b.test"));
+        resolver.resolve("a.test");
+        resolver.resolve("b.test");
+
+        assertEquals(delegate.count.get(), 2);
+        assertEquals(resolver.getMissCount(), 0);
+        assertEquals(resolver.getHitCount(), 2);
+    }
+
+    @Test(groups = "fast")
+    public void testMaxSize() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(1, TimeUnit.HOURS)
+                .setMaxSize(100)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        for (int i = 0; i < 1000; i++) {
+            resolver.resolve("host" + i + ".test");
+        }
+
+        assertTrue(resolver.size() <= 100, "Cached: " + resolver.size());
+        assertTrue(resolver.getEvictionCount() >= 900);
+
+        // the most recent results are kept
+        resolver.resolve("host999.test");
+        assertEquals(delegate.count.get(), 1000);
+    }
+
+    @Test(groups = "fast")
+    public void testExpiredEntriesPurged() throws Exception {
+        CountingResolver delegate = new CountingResolver();
+        CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(50, TimeUnit.MILLISECONDS)
+                .setNegativeTtl(50, TimeUnit.MILLISECONDS)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        for (int i = 0; i < 10; i++) {
+            try {
+                resolver.resolve("unknown" + i + ".test");
+            } catch (UnknownHostException expected) {
+            }
+        }
+        assertEquals(resolver.size(), 10);
+
+        Thread.sleep(100);
+        resolver.resolve("foo.test");
+
+        // expired without ever being looked up again
+        assertEquals(resolver.size(), 1);
+        assertEquals(resolver.getEvictionCount(), 0);
+    }
+
+    @Test(groups = "fast")
+    public void testConcurrentMissesShareLookup() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingResolver delegate = new CountingResolver() {
+            @Override
+            public InetAddress resolve(String name) throws UnknownHostException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(name);
+                }
+                return super.resolve(name);
+            }
+        };
+        final CachingNameResolver resolver = new CachingNameResolver.Builder()
+                .setDelegate(delegate)
+                .setTtl(1, TimeUnit.HOURS)
+                .setRefreshExecutor(SAME_THREAD)
+                .build();
+
+        final InetAddress[] results = new InetAddress[8];
+        final Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int idx = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        results[idx] = resolver.resolve("foo.test");
+                    } catch (UnknownHostException ignored) {
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals(delegate.count.get(), 1);
+        for (InetAddress result : results) {
+            assertSame(result, results[0]);
+        }
+    }
+}
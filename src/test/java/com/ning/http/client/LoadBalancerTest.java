@@ -0,0 +1,272 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+public class LoadBalancerTest {
+
+    private static InetAddress address(int last) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) last });
+    }
+
+    @Test(groups = "fast")
+    public void testUnknownHostIsNotBalanced() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder().addHost("service", address(1)).build();
+
+        assertNull(lb.select("other"));
+        assertEquals(lb.select("SERVICE").getAddress(), address(1));
+    }
+
+    @Test(groups = "fast")
+    public void testRoundRobin() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.ROUND_ROBIN)
+                .addHost("service", address(1), address(2), address(3))
+                .build();
+
+        Set<InetAddress> selected = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            selected.add(lb.select("service").getAddress());
+        }
+        assertEquals(selected.size(), 3);
+    }
+
+    @Test(groups = "fast")
+    public void testLeastOutstandingRequests() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.LEAST_OUTSTANDING_REQUESTS)
+                .addHost("service", address(1), address(2))
+                .build();
+
+        LoadBalancer.Backend busy = lb.select("service");
+        busy.onRequestStarted();
+        for (int i = 0; i < 10; i++) {
+            LoadBalancer.Backend backend = lb.select("service");
+            assertTrue(backend != busy);
+            backend.onRequestStarted();
+            backend.onRequestCompleted(TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testPowerOfTwoChoicesPrefersLowLatency() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.POWER_OF_TWO_CHOICES)
+                .addHost("service", address(1), address(2))
+                .build();
+
+        List<LoadBalancer.Backend> backends = lb.getBackends("service");
+        LoadBalancer.Backend slow = backends.get(0);
+        LoadBalancer.Backend fast = backends.get(1);
+        slow.onRequestStarted();
+        slow.onRequestCompleted(TimeUnit.MILLISECONDS.toNanos(500), false);
+        fast.onRequestStarted();
+        fast.onRequestCompleted(TimeUnit.MILLISECONDS.toNanos(5), false);
+
+        for (int i = 0; i < 10; i++) {
+            assertSame(lb.select("service"), fast);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testOutlierEjection() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.ROUND_ROBIN)
+                .setOutlierEjection(2, 60000)
+                .addHost("service", address(1), address(2))
+                .build();
+
+        LoadBalancer.Backend failing = lb.getBackends("service").get(0);
+        for (int i = 0; i < 2; i++) {
+            failing.onRequestStarted();
+            failing.onRequestCompleted(TimeUnit.MILLISECONDS.toNanos(1), true);
+        }
+        assertTrue(failing.isEjected());
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(lb.select("service") != failing);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testResolvedHost() throws Exception {
+        final InetAddress[] addresses = { address(1), address(2) };
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setNameResolver(new NameResolver.MultiAddressNameResolver() {
+                    @Override
+                    public InetAddress resolve(String name) {
+                        return addresses[0];
+                    }
+
+                    @Override
+                    public InetAddress[] resolveAll(String name) {
+                        return addresses.clone();
+                    }
+                })
+                .addResolvedHost("service")
+                .build();
+
+        lb.refresh();
+        assertEquals(lb.getBackends("service").size(), 2);
+        assertNotNull(lb.select("service"));
+        for (LoadBalancer.Backend backend : lb.getBackends("service")) {
+            assertFalse(backend.isEjected());
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testResolvedHostRefreshedOnExecutor() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setNameResolver(new NameResolver.MultiAddressNameResolver() {
+                    @Override
+                    public InetAddress resolve(String name) throws UnknownHostException {
+                        return address(1);
+                    }
+
+                    @Override
+                    public InetAddress[] resolveAll(String name) throws UnknownHostException {
+                        return new InetAddress[] { address(1), address(2) };
+                    }
+                })
+                .addResolvedHost("service")
+                .build();
+        final AtomicInteger refreshes = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                refreshes.incrementAndGet();
+                command.run();
+            }
+        };
+        Request request = new RequestBuilder("GET").setUrl("http://service/").build();
+
+        // not refreshed without an executor
+        assertNull(lb.select(request));
+        assertEquals(lb.getBackends("service").size(), 0);
+
+        lb.select(request, executor);
+        assertEquals(refreshes.get(), 1);
+        assertEquals(lb.getBackends("service").size(), 2);
+
+        // not due again until the refresh interval has passed
+        assertNotNull(lb.select(request, executor));
+        assertEquals(refreshes.get(), 1);
+    }
+
+    @Test(groups = "fast")
+    public void testConsistentHashAffinity() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.CONSISTENT_HASH)
+                .setRoutingKey(LoadBalancer.pathPrefixRoutingKey(2))
+                .addHost("service", address(1), address(2), address(3))
+                .build();
+
+        LoadBalancer.Backend backend = lb.select(get("http://service/users/42/orders"));
+        for (int i = 0; i < 10; i++) {
+            assertSame(lb.select(get("http://service/users/42/profile?i=" + i)), backend);
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testConsistentHashRemapsFewKeys() throws Exception {
+        LoadBalancer.RoutingKey key = LoadBalancer.headerRoutingKey("X-Key");
+        LoadBalancer three = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.CONSISTENT_HASH).setRoutingKey(key)
+                .addHost("service", address(1), address(2), address(3))
+                .build();
+        LoadBalancer four = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.CONSISTENT_HASH).setRoutingKey(key)
+                .addHost("service", address(1), address(2), address(3), address(4))
+                .build();
+
+        int moved = 0;
+        int keys = 1000;
+        for (int i = 0; i < keys; i++) {
+            Request request = new RequestBuilder("GET").setUrl("http://service/").addHeader("X-Key", "k" + i).build();
+            InetAddress before = three.select(request).getAddress();
+            InetAddress after = four.select(request).getAddress();
+            if (!before.equals(after)) {
+                // keys only move to the new backend
+                assertEquals(after, address(4));
+                moved++;
+            }
+        }
+        // about a quarter of the keys
+        assertTrue(moved > keys / 8 && moved < keys / 2, "Keys moved: " + moved);
+    }
+
+    @Test(groups = "fast")
+    public void testConsistentHashBoundedLoad() throws Exception {
+        LoadBalancer lb = new LoadBalancer.Builder()
+                .setPolicy(LoadBalancer.Policy.CONSISTENT_HASH)
+                .setRoutingKey(LoadBalancer.pathPrefixRoutingKey(1))
+                .addHost("service", address(1), address(2))
+                .build();
+
+        Request request = get("http://service/hot");
+        LoadBalancer.Backend owner = lb.select(request);
+        for (int i = 0; i < 4; i++) {
+            owner.onRequestStarted();
+        }
+        // the owner is over its fair share, the key spills over
+        assertTrue(lb.select(request) != owner);
+    }
+
+    private static Request get(String url) {
+        return new RequestBuilder("GET").setUrl(url).build();
+    }
+}
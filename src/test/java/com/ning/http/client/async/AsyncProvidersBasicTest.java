@@ -77,6 +77,7 @@ import com.ning.http.client.AsyncHttpClientConfigBean;
 import com.ning.http.client.AsyncHttpProviderConfig;
 import com.ning.http.client.FluentCaseInsensitiveStringsMap;
 import com.ning.http.client.MaxRedirectException;
+import com.ning.http.client.NameResolver;
 import com.ning.http.client.ProxyServer;
 import com.ning.http.client.Request;
 import com.ning.http.client.RequestBuilder;
@@ -91,9 +92,12 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.ConnectException;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.channels.UnresolvedAddressException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -580,6 +584,37 @@ public abstract class AsyncProvidersBasicTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider", "async" })
+    public void asyncDoPostCompositeBodyTest() throws Throwable {
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            FluentCaseInsensitiveStringsMap h = new FluentCaseInsensitiveStringsMap();
+            h.add("Content-Type", "application/x-www-form-urlencoded");
+            // header, payload and trailer slices
+            List<byte[]> slices = Arrays.asList("param_0=value_0&".getBytes(), "param_1=value_1&param_2=value_2".getBytes(), new byte[0], "&param_3=value_3".getBytes());
+
+            Response response = client.preparePost(getTargetUrl()).setHeaders(h).setBody(slices).execute().get();
+            assertEquals(response.getStatusCode(), 200);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(response.getHeader("X-param_" + i), "value_" + i);
+            }
+
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (byte[] slice : slices) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(slice.length);
+                buffer.put(slice).flip();
+                buffers.add(buffer);
+            }
+
+            response = client.preparePost(getTargetUrl()).setHeaders(h).setByteBufferData(buffers).execute().get();
+            assertEquals(response.getStatusCode(), 200);
+            for (int i = 0; i < 4; i++) {
+                assertEquals(response.getHeader("X-param_" + i), "value_" + i);
+            }
+            // the request buffers are left untouched
+            assertEquals(buffers.get(1).remaining(), slices.get(1).length);
+        }
+    }
+
     @Test(groups = { "standalone", "default_provider", "async" })
     public void asyncDoPostInputStreamTest() throws Throwable {
         try (AsyncHttpClient client = getAsyncHttpClient(null)) {
@@ -784,6 +819,23 @@ public abstract class AsyncProvidersBasicTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider", "async" })
+    public void asyncRequestDefaultHeadersTest() throws Throwable {
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().setUserAgent("test-agent").setCompressionEnforced(true).build();
+        try (AsyncHttpClient client = getAsyncHttpClient(config)) {
+            // the second request reuses the connection, and its pre-encoded headers
+            for (int i = 0; i < 2; i++) {
+                Response response = client.prepareGet(getTargetUrl()).execute().get();
+
+                assertEquals(response.getStatusCode(), 200);
+                assertEquals(response.getHeader("X-Host"), "127.0.0.1:" + port1);
+                assertEquals(response.getHeader("X-User-Agent"), "test-agent");
+                assertEquals(response.getHeader("X-Accept"), "*/*");
+                assertEquals(response.getHeader("X-Accept-Encoding"), "gzip");
+            }
+        }
+    }
+
     @Test(groups = { "standalone", "default_provider", "async" })
     public void asyncDoPutTest() throws Throwable {
         try (AsyncHttpClient client = getAsyncHttpClient(null)) {
@@ -1105,6 +1157,28 @@ public abstract class AsyncProvidersBasicTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider", "async" })
+    public void asyncRequestNameResolverTest() throws Throwable {
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            final AtomicInteger resolveCount = new AtomicInteger();
+            final NameResolver resolver = new NameResolver() {
+                @Override
+                public InetAddress resolve(String name) throws UnknownHostException {
+                    resolveCount.incrementAndGet();
+                    if ("ahc.resolver.test".equals(name)) {
+                        return InetAddress.getByName("127.0.0.1");
+                    }
+                    throw new UnknownHostException(name);
+                }
+            };
+
+            Response response = client.prepareGet(String.format("http://ahc.resolver.test:%d/foo/test", port1))
+                    .setNameResolver(resolver).execute().get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+            assertEquals(resolveCount.get(), 1);
+        }
+    }
+
     @Test(groups = { "standalone", "default_provider", "async" })
     public void asyncContentLenghtGETTest() throws Throwable {
         try (AsyncHttpClient client = getAsyncHttpClient(null)) {
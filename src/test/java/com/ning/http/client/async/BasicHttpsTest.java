@@ -87,6 +87,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.ServerSocket;
 import java.net.URL;
+import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
 import java.security.SecureRandom;
@@ -254,6 +255,23 @@ public abstract class BasicHttpsTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider" })
+    public void largeFilePostTest() throws Throwable {
+        try (AsyncHttpClient client = getAsyncHttpClient(new Builder().setSSLContext(createSSLContext(new AtomicBoolean(true))).build())) {
+            // many more chunks than read ahead of the writes
+            byte[] bytes = "RatherLargeFileRatherLargeFileRatherLargeFileRatherLargeFile".getBytes("UTF-16");
+            File file = PutLargeFileTest.createTempFile(bytes, (1024 * 1024 / bytes.length) + 1);
+            try {
+                Response resp = client.preparePost(getTargetUrl()).setBody(file).setHeader("Content-Type", "text/html").execute().get(TIMEOUT, TimeUnit.SECONDS);
+                assertNotNull(resp);
+                assertEquals(resp.getStatusCode(), HttpServletResponse.SC_OK);
+                assertEquals(resp.getResponseBodyAsBytes(), Files.readAllBytes(file.toPath()));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
     @Test(groups = { "standalone", "default_provider" })
     public void multipleSSLRequestsTest() throws Throwable {
         try (AsyncHttpClient c = getAsyncHttpClient(new Builder().setSSLContext(createSSLContext(new AtomicBoolean(true))).build())) {
@@ -60,6 +60,7 @@ package com.ning.http.client.async;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.FluentCaseInsensitiveStringsMap;
 import com.ning.http.client.Response;
+import com.ning.http.client.generators.InputStreamBodyGenerator;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.testng.annotations.Test;
@@ -69,11 +70,19 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public abstract class InputStreamTest extends AbstractBasicTest {
 
@@ -81,10 +90,14 @@ public abstract class InputStreamTest extends AbstractBasicTest {
         public void handle(String s, Request r, HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
             if ("POST".equalsIgnoreCase(request.getMethod())) {
                 byte[] b = new byte[3];
-                request.getInputStream().read(b, 0, 3);
+                int total = Math.max(request.getInputStream().read(b, 0, 3), 0);
+                for (int read; (read = request.getInputStream().read(new byte[8192])) != -1; ) {
+                    total += read;
+                }
 
                 response.setStatus(HttpServletResponse.SC_OK);
                 response.addHeader("X-Param", new String(b));
+                response.addHeader("X-Consumed", String.valueOf(total));
             } else { // this handler is to handle POST request
                 response.sendError(HttpServletResponse.SC_FORBIDDEN);
             }
@@ -132,6 +145,100 @@ public abstract class InputStreamTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider" })
+    public void testLargeInputStream() throws Exception {
+
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            // streamed in chunks, without being buffered as a whole
+            final int size = 16 * 1024 * 1024;
+            InputStream is = new InputStream() {
+
+                private int remaining = size;
+
+                @Override
+                public int read() throws IOException {
+                    return remaining-- > 0 ? 'a' : -1;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (remaining <= 0) {
+                        return -1;
+                    }
+                    final int read = Math.min(len, remaining);
+                    Arrays.fill(b, off, off + read, (byte) 'a');
+                    remaining -= read;
+                    return read;
+                }
+            };
+
+            Response resp = client.preparePost(getTargetUrl()).setBody(is).execute().get();
+            assertNotNull(resp);
+            assertEquals(resp.getStatusCode(), HttpServletResponse.SC_OK);
+            assertEquals(resp.getHeader("X-Param"), "aaa");
+            assertEquals(resp.getHeader("X-Consumed"), String.valueOf(size));
+        }
+    }
+
+    @Test(groups = { "standalone", "default_provider" })
+    public void testInputStreamNotClosedWhileRead() throws Exception {
+
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            final CountDownLatch closed = new CountDownLatch(1);
+            final AtomicBoolean isClosedWhileRead = new AtomicBoolean();
+            // the second read outlives the request timeout, which fails the
+            // request while the read is in flight
+            InputStream is = new InputStream() {
+
+                private volatile boolean isReading;
+                private int reads;
+
+                @Override
+                public int read() throws IOException {
+                    return 'a';
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    isReading = true;
+                    try {
+                        if (reads++ > 0) {
+                            Thread.sleep(2000);
+                        }
+                        Arrays.fill(b, off, off + len, (byte) 'a');
+                        return len;
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    } finally {
+                        isReading = false;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (isReading) {
+                        isClosedWhileRead.set(true);
+                    }
+                    closed.countDown();
+                }
+            };
+
+            try {
+                client.preparePost(getTargetUrl())
+                        .setBody(new InputStreamBodyGenerator(is))
+                        .setRequestTimeout(500)
+                        .execute().get();
+                fail("The request must time out");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof TimeoutException, String.valueOf(e.getCause()));
+            }
+
+            // the stream is closed once the in-flight read completes
+            assertTrue(closed.await(10, TimeUnit.SECONDS));
+            assertFalse(isClosedWhileRead.get());
+        }
+    }
+
     @Override
     public AbstractHandler configureHandler() throws Exception {
         return new InputStreamHandler();
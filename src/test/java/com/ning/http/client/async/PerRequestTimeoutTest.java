@@ -63,7 +63,9 @@ import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.HttpResponseBodyPart;
+import com.ning.http.client.PhaseTimeoutException;
 import com.ning.http.client.Response;
+import com.ning.http.client.TimeoutBudget;
 import org.eclipse.jetty.continuation.Continuation;
 import org.eclipse.jetty.continuation.ContinuationSupport;
 import org.eclipse.jetty.server.Request;
@@ -182,6 +184,62 @@ public abstract class PerRequestTimeoutTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider" })
+    public void testReadTimeout() throws IOException {
+        try (AsyncHttpClient client = getAsyncHttpClient(new AsyncHttpClientConfig.Builder().setReadTimeout(1000).build())) {
+            Future<Response> responseFuture = client.prepareGet(getTargetUrl()).execute();
+            Response response = responseFuture.get(2500, TimeUnit.MILLISECONDS);
+            assertNull(response);
+        } catch (InterruptedException e) {
+            fail("Interrupted.", e);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } catch (TimeoutException e) {
+            fail("Timeout.", e);
+        }
+    }
+
+    @Test(groups = { "standalone", "default_provider" })
+    public void testReadTimeoutDoesNotCapTransferTime() throws Exception {
+        try (AsyncHttpClient client = getAsyncHttpClient(new AsyncHttpClientConfig.Builder().setReadTimeout(2000).build())) {
+            // every read completes within 2s, while the whole response takes 3s
+            Response response = client.prepareGet(getTargetUrl()).execute().get();
+            assertNotNull(response);
+            assertEquals(response.getResponseBody(), MSG + MSG);
+        }
+    }
+
+    @Test(groups = { "standalone", "default_provider" })
+    public void testFirstByteTimeoutBudget() throws Exception {
+        // the response status line is sent after 1.5s
+        final TimeoutBudget budget = new TimeoutBudget.Builder().setFirstByteTimeout(500).build();
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            client.prepareGet(getTargetUrl()).setTimeoutBudget(budget).execute().get(2000, TimeUnit.MILLISECONDS);
+            fail("Time to first byte timeout expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PhaseTimeoutException, String.valueOf(e.getCause()));
+            assertEquals(((PhaseTimeoutException) e.getCause()).getPhase(), TimeoutBudget.Phase.FIRST_BYTE);
+        }
+    }
+
+    @Test(groups = { "standalone", "default_provider" })
+    public void testTotalTimeoutBudgetOverridesDefault() throws Exception {
+        // every read completes within the read timeout, the total budget applies to the whole exchange
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setReadTimeout(2000)
+                .setTimeoutBudget(new TimeoutBudget.Builder().setTotalTimeout(10000).build())
+                .build();
+        try (AsyncHttpClient client = getAsyncHttpClient(config)) {
+            client.prepareGet(getTargetUrl())
+                    .setTimeoutBudget(new TimeoutBudget.Builder().setTotalTimeout(2000).build())
+                    .execute().get(2500, TimeUnit.MILLISECONDS);
+            fail("Total timeout expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof PhaseTimeoutException, String.valueOf(e.getCause()));
+            assertEquals(((PhaseTimeoutException) e.getCause()).getPhase(), TimeoutBudget.Phase.TOTAL);
+        }
+    }
+
     @Test(groups = { "standalone", "default_provider" })
     public void testGlobalIdleTimeout() throws IOException {
         final long times[] = new long[] { -1, -1 };
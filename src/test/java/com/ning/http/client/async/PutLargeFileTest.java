@@ -58,6 +58,7 @@ import com.ning.http.client.AsyncHttpClient;
 import com.ning.http.client.AsyncHttpClient.BoundRequestBuilder;
 import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.Response;
+import com.ning.http.client.generators.FileBodyGenerator;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.testng.Assert;
@@ -113,6 +114,42 @@ public abstract class PutLargeFileTest extends AbstractBasicTest {
         }
     }
 
+    @Test(groups = { "standalone", "default_provider" })
+    public void testPutFileRegion() throws Exception {
+        byte[] bytes = "RatherLargeFileRatherLargeFileRatherLargeFileRatherLargeFile".getBytes("UTF-16");
+        long repeats = (1024 * 1024 / bytes.length) + 1;
+        largeFile = createTempFile(bytes, (int) repeats);
+
+        try (AsyncHttpClient client = getAsyncHttpClient(null)) {
+            BoundRequestBuilder rb = client.preparePut(getTargetUrl());
+
+            rb.setBody(new FileBodyGenerator(largeFile, 1000, 500 * 1024));
+
+            Response response = rb.execute().get();
+            Assert.assertEquals(200, response.getStatusCode());
+            Assert.assertEquals(response.getHeader("X-Consumed"), String.valueOf(500 * 1024));
+        }
+    }
+
+    @Test(groups = { "standalone", "default_provider" })
+    public void testSlowUploadOutlivesReadTimeout() throws Exception {
+        // 64 MB, read by the server at about 10 MB/s, so the upload lasts
+        // several read timeouts, while the socket buffers drain within one
+        byte[] bytes = new byte[1024 * 1024];
+        largeFile = createTempFile(bytes, 64);
+        AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().setReadTimeout(2000).build();
+        try (AsyncHttpClient client = getAsyncHttpClient(config)) {
+            BoundRequestBuilder rb = client.preparePut(getTargetUrl());
+
+            rb.setBody(largeFile);
+            rb.setHeader("X-Read-Delay", "100");
+
+            Response response = rb.execute().get();
+            Assert.assertEquals(200, response.getStatusCode());
+            Assert.assertEquals(response.getHeader("X-Consumed"), String.valueOf(largeFile.length()));
+        }
+    }
+
     @AfterMethod
     public void after() {
         largeFile.delete();
@@ -126,15 +163,27 @@ public abstract class PutLargeFileTest extends AbstractBasicTest {
 
                 ServletInputStream in = req.getInputStream();
                 byte[] b = new byte[8092];
+                // the pause, in milliseconds, after every megabyte read
+                String readDelay = req.getHeader("X-Read-Delay");
 
                 int count = -1;
                 int total = 0;
+                int paused = 0;
                 while ((count = in.read(b)) != -1) {
                     total += count;
+                    if (readDelay != null && total / (1024 * 1024) > paused) {
+                        paused++;
+                        try {
+                            Thread.sleep(Long.parseLong(readDelay));
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
                 }
 
                 System.err.println("consumed " + total + " bytes.");
 
+                resp.setHeader("X-Consumed", String.valueOf(total));
                 resp.setStatus(200);
                 resp.getOutputStream().flush();
                 resp.getOutputStream().close();
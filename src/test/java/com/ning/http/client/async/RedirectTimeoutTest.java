@@ -84,6 +84,8 @@ public class RedirectTimeoutTest extends AbstractBasicTest {
 
     private static final String REDIRECT_PATH = "/redirectPath" ;
 
+    private static final String SLOW_REDIRECT_PATH = "/slowRedirectPath" ;
+
     private static final String FINAL_PATH = "/finalPath";
 
     private static final String PAYLOAD = "Ok";
@@ -134,6 +136,16 @@ public class RedirectTimeoutTest extends AbstractBasicTest {
         assertTimeout(responseFuture, timeout);
     }
 
+    @Test
+    public void testRequestTimeoutSpansRedirects() {
+        // each round-trip fits into the request timeout, both together don't
+        SLEEP_TIME = Long.valueOf(REQUEST_TIMEOUT) * 3 / 5;
+        AsyncHttpClient client = getAsyncHttpClient(clientConfig);
+        Request request = new RequestBuilder("GET").setRequestTimeout(Integer.valueOf(REQUEST_TIMEOUT)).setUrl(getTargetUrl().concat(SLOW_REDIRECT_PATH)).build();
+        ListenableFuture<Response> responseFuture = client.executeRequest(request);
+        assertTimeout(responseFuture, REQUEST_TIMEOUT);
+    }
+
     private void assertTimeout (ListenableFuture<Response> responseFuture, String timeout) {
         try {
             responseFuture.get(Long.valueOf(timeout) + DELTA, TimeUnit.MILLISECONDS);
@@ -155,7 +167,17 @@ public class RedirectTimeoutTest extends AbstractBasicTest {
     public static class PostRedirectGetHandler extends AbstractHandler {
         @Override
         public void handle(String pathInContext, org.eclipse.jetty.server.Request request, HttpServletRequest httpRequest, final HttpServletResponse httpResponse) throws IOException, ServletException {
-            if(httpRequest.getRequestURI().endsWith(REDIRECT_PATH)){
+            if(httpRequest.getRequestURI().endsWith(SLOW_REDIRECT_PATH)){
+                try {
+                    Thread.sleep(SLEEP_TIME);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                httpResponse.setStatus(HttpStatus.FOUND_302);
+                httpResponse.setHeader("Location", FINAL_PATH);
+            }
+            else if(httpRequest.getRequestURI().endsWith(REDIRECT_PATH)){
                 httpResponse.setStatus(HttpStatus.FOUND_302);
                 httpResponse.setHeader("Location", FINAL_PATH);
             }
@@ -57,8 +57,10 @@ package com.ning.http.client.async.grizzly;
 
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import com.ning.http.client.ListenableFuture;
@@ -69,6 +71,10 @@ import com.ning.http.client.AsyncHttpClientConfig;
 import com.ning.http.client.Response;
 import com.ning.http.client.async.ConnectionPoolTest;
 import com.ning.http.client.async.ProviderUtil;
+import com.ning.http.client.providers.grizzly.ConnectionPoolStatistics;
+import com.ning.http.client.providers.grizzly.GrizzlyAsyncHttpProvider;
+import com.ning.http.client.providers.grizzly.GrizzlyAsyncHttpProviderConfig;
+import com.ning.http.client.providers.grizzly.PoolWaitQueueStatistics;
 import java.util.concurrent.ExecutionException;
 
 public class GrizzlyConnectionPoolTest extends ConnectionPoolTest {
@@ -126,4 +132,106 @@ public class GrizzlyConnectionPoolTest extends ConnectionPoolTest {
             assertNotNull(exception);
         }
     }
+
+    @Test
+    public void testRequestsWaitForPooledConnection() throws Exception {
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 2);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxConnections(1)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = getTargetUrl();
+            // the first request gets the only connection, the next two wait for it
+            final ListenableFuture<Response> first = client.prepareGet(url).execute();
+            final ListenableFuture<Response> second = client.prepareGet(url).execute();
+            final ListenableFuture<Response> third = client.prepareGet(url).execute();
+            try {
+                client.prepareGet(url).execute().get(TIMEOUT, TimeUnit.SECONDS);
+                fail("The wait queue is full, the request must be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().startsWith("Max connections exceeded"), e.getCause().getMessage());
+            }
+
+            assertEquals(first.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(second.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(third.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+
+            final PoolWaitQueueStatistics stats = provider.getPoolWaitQueueStatistics();
+            assertEquals(stats.getQueueDepth(), 0);
+            assertEquals(stats.getPeakQueueDepth(), 2);
+            assertEquals(stats.getWaitCount(), 2);
+            assertEquals(stats.getRejectedCount(), 1);
+            assertEquals(stats.getTimeoutCount(), 0);
+        }
+    }
+
+    @Test
+    public void testWarmUpIsLimitedByPool() throws Exception {
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxConnections(3)
+                .build();
+        try (AsyncHttpClient client = getAsyncHttpClient(config)) {
+            final String url = getTargetUrl();
+            assertEquals(client.warmUp(url, 5).get(TIMEOUT, TimeUnit.SECONDS).intValue(), 3);
+            // the pooled connections are ready, so they are reused
+            assertEquals(client.warmUp(url, 2).get(TIMEOUT, TimeUnit.SECONDS).intValue(), 2);
+            assertEquals(client.prepareGet(url).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+        }
+    }
+
+    @Test
+    public void testWarmUpWithWaitQueueIsLimitedByPool() throws Exception {
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 5);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxConnections(3)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = getTargetUrl();
+            assertEquals(client.warmUp(url, 5).get(TIMEOUT, TimeUnit.SECONDS).intValue(), 3);
+
+            // the warm-up takes beyond the pool limits haven't been left
+            // waiting, so every request gets a warm connection right away
+            final ListenableFuture<Response> first = client.prepareGet(url).execute();
+            final ListenableFuture<Response> second = client.prepareGet(url).execute();
+            final ListenableFuture<Response> third = client.prepareGet(url).execute();
+            assertEquals(first.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(second.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(third.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(provider.getConnectionPoolStatistics().getPendingWaiters(), 0);
+            assertEquals(provider.getPoolWaitQueueStatistics().getWaitCount(), 0);
+        }
+    }
+
+    @Test
+    public void testConnectionPoolStatistics() throws Exception {
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = getTargetUrl();
+            assertEquals(client.prepareGet(url).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+            assertEquals(client.prepareGet(url).execute().get(TIMEOUT, TimeUnit.SECONDS).getStatusCode(), 200);
+
+            final ConnectionPoolStatistics stats = provider.getConnectionPoolStatistics();
+            assertEquals(stats.getCheckoutCount(), 2);
+            assertEquals(stats.getConnectCount() + stats.getReuseCount(), 2);
+            assertTrue(stats.getConnectCount() >= 1);
+            assertEquals(stats.getConnectFailureCount(), 0);
+            assertEquals(stats.getOpenConnections(), (int) stats.getConnectCount());
+
+            final Map<String, ConnectionPoolStatistics> endpoints = provider.getEndpointStatistics();
+            assertEquals(endpoints.size(), 1);
+            assertEquals(endpoints.values().iterator().next().getCheckoutCount(), 2);
+        }
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.generators;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+import com.ning.http.client.Body;
+
+public class ByteBufferBodyGeneratorTest {
+
+    @Test(groups = "standalone")
+    public void testReadsAcrossBuffers() throws IOException {
+        final ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.put("world".getBytes("US-ASCII")).flip();
+        final ByteBuffer heap = ByteBuffer.wrap("hello ".getBytes("US-ASCII"));
+
+        final ByteBufferBodyGenerator generator = new ByteBufferBodyGenerator(
+                Arrays.asList(heap, ByteBuffer.allocate(0), direct));
+        assertEquals(generator.getContentLength(), 11);
+
+        final Body body = generator.createBody();
+        final ByteBuffer chunk = ByteBuffer.allocate(4);
+        final StringBuilder sb = new StringBuilder();
+        long read;
+        while ((read = body.read(chunk)) != -1) {
+            chunk.flip();
+            sb.append(new String(chunk.array(), 0, chunk.limit(), "US-ASCII"));
+            assertEquals(read, chunk.limit());
+            chunk.clear();
+        }
+
+        assertEquals(sb.toString(), "hello world");
+        // the body buffers are left untouched
+        assertEquals(heap.remaining(), 6);
+        assertEquals(direct.remaining(), 5);
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.CircuitBreakerConfig;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensOnFailureRate() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig.Builder()
+                .setMinimumRequests(4)
+                .setFailureRateThreshold(0.5)
+                .build());
+
+        breaker.onSuccess(breaker.tryAcquire());
+        breaker.onFailure(breaker.tryAcquire());
+        breaker.onSuccess(breaker.tryAcquire());
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+    }
+
+    @Test
+    public void testHalfOpenProbes() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig.Builder()
+                .setMinimumRequests(1)
+                .setOpenDuration(50)
+                .build());
+
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+        Thread.sleep(100);
+
+        // a single probe is let through
+        long probe = breaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+
+        // a failed probe opens the circuit again
+        breaker.onFailure(probe);
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Thread.sleep(100);
+
+        // a successful one closes it
+        probe = breaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        breaker.onSuccess(probe);
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+        assertTrue(breaker.tryAcquire() != CircuitBreaker.REJECTED);
+    }
+
+    @Test
+    public void testReleasedProbeLetsAnotherThrough() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig.Builder()
+                .setMinimumRequests(1)
+                .setOpenDuration(50)
+                .build());
+
+        breaker.onFailure(breaker.tryAcquire());
+        Thread.sleep(100);
+
+        final long probe = breaker.tryAcquire();
+        assertTrue(probe != CircuitBreaker.REJECTED);
+        assertEquals(breaker.tryAcquire(), CircuitBreaker.REJECTED);
+
+        // the probe hasn't been sent, so another one may be
+        breaker.release(probe);
+        assertTrue(breaker.tryAcquire() != CircuitBreaker.REJECTED);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+    }
+
+    @Test
+    public void testStaleOutcomesAreIgnored() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(new CircuitBreakerConfig.Builder()
+                .setMinimumRequests(1)
+                .setOpenDuration(50)
+                .build());
+
+        // admitted while closed, answered after the circuit opened
+        final long stale = breaker.tryAcquire();
+        breaker.onFailure(breaker.tryAcquire());
+        assertEquals(breaker.getState(), CircuitBreaker.State.OPEN);
+        Thread.sleep(100);
+
+        final long probe = breaker.tryAcquire();
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+
+        // neither closes nor reopens the half-open circuit
+        breaker.onSuccess(stale);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+        breaker.onFailure(stale);
+        assertEquals(breaker.getState(), CircuitBreaker.State.HALF_OPEN);
+
+        breaker.onSuccess(probe);
+        assertEquals(breaker.getState(), CircuitBreaker.State.CLOSED);
+    }
+}
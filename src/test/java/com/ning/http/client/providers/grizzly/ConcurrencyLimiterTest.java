@@ -0,0 +1,120 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.Test;
+
+public class ConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void testRejectsAboveLimit() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                new ConcurrencyLimiterConfig.Builder().setInitialLimit(2).build());
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        assertEquals(limiter.getInFlight(), 2);
+
+        limiter.onIgnored();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testGrowsWhileRttIsStable() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                new ConcurrencyLimiterConfig.Builder().setInitialLimit(10).build());
+
+        for (int i = 0; i < 50; i++) {
+            saturate(limiter);
+            drain(limiter, RTT);
+        }
+        assertTrue(limiter.getLimit() > 10, "Limit: " + limiter.getLimit());
+    }
+
+    @Test
+    public void testShrinksAsRttRises() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+                new ConcurrencyLimiterConfig.Builder().setInitialLimit(50).build());
+
+        saturate(limiter);
+        drain(limiter, RTT);
+        for (int i = 0; i < 20; i++) {
+            saturate(limiter);
+            drain(limiter, RTT * 10);
+        }
+        assertTrue(limiter.getLimit() < 50, "Limit: " + limiter.getLimit());
+    }
+
+    @Test
+    public void testBacksOffOnFailures() throws Exception {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(new ConcurrencyLimiterConfig.Builder()
+                .setInitialLimit(20).setMinLimit(5).setBackoffRatio(0.5).build());
+
+        assertTrue(limiter.tryAcquire());
+        limiter.onDropped();
+        assertEquals(limiter.getLimit(), 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.onDropped();
+        }
+        assertEquals(limiter.getLimit(), 5);
+    }
+
+    private static void saturate(final ConcurrencyLimiter limiter) {
+        while (limiter.tryAcquire()) {
+        }
+    }
+
+    private static void drain(final ConcurrencyLimiter limiter, final long rttNanos) {
+        while (limiter.getInFlight() > 0) {
+            limiter.onSample(rttNanos);
+        }
+    }
+}
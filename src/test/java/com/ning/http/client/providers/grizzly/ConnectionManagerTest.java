@@ -0,0 +1,835 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.CircuitBreakerConfig;
+import com.ning.http.client.CircuitBreakerOpenException;
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import com.ning.http.client.ListenableFuture;
+import com.ning.http.client.NameResolver;
+import com.ning.http.client.PhaseTimeoutException;
+import com.ning.http.client.ProxyServer;
+import com.ning.http.client.RequestBuilder;
+import com.ning.http.client.Response;
+import com.ning.http.client.TimeoutBudget;
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.ConnectorHandler;
+import org.glassfish.grizzly.impl.FutureImpl;
+import org.glassfish.grizzly.utils.Futures;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.Test;
+
+public class ConnectionManagerTest {
+
+    @Test
+    public void testInterleaveAddressFamilies() throws Exception {
+        final InetAddress v6a = InetAddress.getByName("::1");
+        final InetAddress v6b = InetAddress.getByName("::2");
+        final InetAddress v4a = InetAddress.getByName("127.0.0.1");
+        final InetAddress v4b = InetAddress.getByName("127.0.0.2");
+        final InetAddress v4c = InetAddress.getByName("127.0.0.3");
+
+        final InetAddress[] result = ConnectionManager.interleaveAddressFamilies(
+                new InetAddress[] {v6a, v6b, v4a, v4b, v4c});
+
+        assertEquals(result, new InetAddress[] {v6a, v4a, v6b, v4b, v4c});
+    }
+
+    @Test
+    public void testInterleaveStartsWithPreferredFamily() throws Exception {
+        final InetAddress v4 = InetAddress.getByName("127.0.0.1");
+        final InetAddress v6 = InetAddress.getByName("::1");
+
+        final InetAddress[] result = ConnectionManager.interleaveAddressFamilies(
+                new InetAddress[] {v4, v6});
+
+        assertEquals(result, new InetAddress[] {v4, v6});
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConnectRaceClosesLosingConnection() throws Exception {
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.CONNECTION_ATTEMPT_DELAY, 10);
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(
+                new AsyncHttpClientConfig.Builder().setAsyncHttpClientProviderConfig(providerConfig).build());
+        try {
+            final ConnectorHandler<SocketAddress> connectorHandler = mock(ConnectorHandler.class);
+            final FutureImpl<Connection> future = Futures.createSafeFuture();
+            provider.getConnectionManager().new ConnectRace(future, new InetAddress[] {
+                    InetAddress.getByName("127.0.0.1"), InetAddress.getByName("127.0.0.2")},
+                    80, null, connectorHandler).start();
+
+            // the second attempt starts once the first one is overdue
+            final ArgumentCaptor<CompletionHandler> attempts = ArgumentCaptor.forClass(CompletionHandler.class);
+            verify(connectorHandler, timeout(2000).times(2)).connect(
+                    any(SocketAddress.class), isNull(SocketAddress.class), attempts.capture());
+
+            final Connection winner = mock(Connection.class);
+            final Connection loser = mock(Connection.class);
+            attempts.getAllValues().get(0).completed(winner);
+            attempts.getAllValues().get(1).completed(loser);
+
+            assertTrue(future.get(1, TimeUnit.SECONDS) == winner);
+            verify(loser).closeSilently();
+            verify(winner, never()).closeSilently();
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConnectRaceFallsThroughOnFailure() throws Exception {
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.CONNECTION_ATTEMPT_DELAY, 60000);
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(
+                new AsyncHttpClientConfig.Builder().setAsyncHttpClientProviderConfig(providerConfig).build());
+        try {
+            final ConnectorHandler<SocketAddress> connectorHandler = mock(ConnectorHandler.class);
+            final FutureImpl<Connection> future = Futures.createSafeFuture();
+            final InetAddress first = InetAddress.getByName("127.0.0.1");
+            final InetAddress second = InetAddress.getByName("127.0.0.2");
+            provider.getConnectionManager().new ConnectRace(future,
+                    new InetAddress[] {first, second}, 80, null, connectorHandler).start();
+
+            final ArgumentCaptor<SocketAddress> addresses = ArgumentCaptor.forClass(SocketAddress.class);
+            final ArgumentCaptor<CompletionHandler> attempts = ArgumentCaptor.forClass(CompletionHandler.class);
+            verify(connectorHandler).connect(addresses.capture(), isNull(SocketAddress.class), attempts.capture());
+            assertEquals(addresses.getValue(), new InetSocketAddress(first, 80));
+
+            // the failure starts the next attempt long before the attempt delay
+            attempts.getValue().failed(new IOException("Connection refused"));
+            verify(connectorHandler, times(2)).connect(addresses.capture(), isNull(SocketAddress.class), attempts.capture());
+            assertEquals(addresses.getValue(), new InetSocketAddress(second, 80));
+            assertFalse(future.isDone());
+
+            final Connection connection = mock(Connection.class);
+            attempts.getValue().completed(connection);
+            assertTrue(future.get(1, TimeUnit.SECONDS) == connection);
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testKeepAliveParameters() throws Exception {
+        assertEquals(ConnectionManager.getKeepAliveParameter("timeout=5, max=100", "timeout"), 5);
+        assertEquals(ConnectionManager.getKeepAliveParameter("timeout=5, max=100", "max"), 100);
+        assertEquals(ConnectionManager.getKeepAliveParameter(" Max = 7 ,timeout=2", "max"), 7);
+        assertEquals(ConnectionManager.getKeepAliveParameter("timeout=5", "max"), -1);
+        assertEquals(ConnectionManager.getKeepAliveParameter("timeout=abc", "timeout"), -1);
+        assertEquals(ConnectionManager.getKeepAliveParameter("", "timeout"), -1);
+
+        // evicted slightly before the server closes the connection
+        assertEquals(ConnectionManager.toPooledIdleTimeout(1), 750);
+        assertEquals(ConnectionManager.toPooledIdleTimeout(5), 4000);
+    }
+
+    @Test
+    public void testConnectionRetiredAfterKeepAliveMax() throws Exception {
+        // accepts two requests per connection
+        final AtomicInteger accepted = new AtomicInteger();
+        final ServerSocket server = startKeepAliveHintServer(0, 2, accepted);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxRequestRetry(0)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            for (int i = 0; i < 3; i++) {
+                assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            }
+
+            assertEquals(accepted.get(), 2);
+            assertEquals(provider.getConnectionPoolStatistics().getNotKeepAliveEvictionCount(), 1);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectionRetiredAfterKeepAliveTimeout() throws Exception {
+        // advertises a 1 second idle timeout, but never closes connections
+        final AtomicInteger accepted = new AtomicInteger();
+        final ServerSocket server = startKeepAliveHintServer(1, 0, accepted);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxRequestRetry(0)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            assertEquals(accepted.get(), 1);
+
+            // idle for longer than the hinted timeout
+            Thread.sleep(1500);
+            assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            assertEquals(accepted.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Starts a server, which keeps connections alive and advertises the
+     * passed <tt>Keep-Alive</tt> timeout in seconds, if positive, and the
+     * number of requests left out of the passed per-connection maximum,
+     * if positive, like Apache httpd does.
+     */
+    private static ServerSocket startKeepAliveHintServer(final int timeout,
+            final int max, final AtomicInteger accepted) throws IOException {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!server.isClosed()) {
+                        final Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        final Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    final BufferedReader in = new BufferedReader(
+                                            new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                                    final OutputStream out = socket.getOutputStream();
+                                    int served = 0;
+                                    String line;
+                                    while ((line = in.readLine()) != null) {
+                                        if (!line.isEmpty()) {
+                                            continue;
+                                        }
+                                        served++;
+                                        final StringBuilder keepAlive = new StringBuilder();
+                                        if (timeout > 0) {
+                                            keepAlive.append("timeout=").append(timeout);
+                                        }
+                                        if (max > 0) {
+                                            if (keepAlive.length() > 0) {
+                                                keepAlive.append(", ");
+                                            }
+                                            keepAlive.append("max=").append(max - served);
+                                        }
+                                        out.write(("HTTP/1.1 200 OK\r\nKeep-Alive: " + keepAlive
+                                                + "\r\nContent-Length: 2\r\n\r\nok").getBytes("ISO-8859-1"));
+                                        out.flush();
+                                    }
+                                } catch (Exception ignored) {
+                                } finally {
+                                    try {
+                                        socket.close();
+                                    } catch (IOException ignored) {
+                                    }
+                                }
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    @Test
+    public void testEndpointsEvictedOverCapacity() throws Exception {
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_ENDPOINTS, 2);
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(
+                new AsyncHttpClientConfig.Builder().setAsyncHttpClientProviderConfig(providerConfig).build());
+        try {
+            for (int i = 0; i < 5; i++) {
+                // registers the endpoint without connecting
+                provider.warmUp(new RequestBuilder("GET").setUrl("http://host" + i + ".example.com/").build(), 0).get();
+            }
+
+            final ConnectionManager connectionManager = provider.getConnectionManager();
+            final long deadline = System.currentTimeMillis() + 2000;
+            while (connectionManager.getEndpointCount() > 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(connectionManager.getEndpointCount() <= 2,
+                    "Endpoints registered: " + connectionManager.getEndpointCount());
+        } finally {
+            provider.close();
+        }
+    }
+
+    @Test
+    public void testEndpointKey() throws Exception {
+        final EndpointKey key = EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a").build(), null).copy();
+
+        // the default port and the path don't matter
+        assertEquals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com:80/b?c=d").build(), null), key);
+        assertEquals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com:80/b?c=d").build(), null).hashCode(), key.hashCode());
+
+        assertFalse(key.equals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("https://example.com/a").build(), null)));
+        assertFalse(key.equals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a").build(), new ProxyServer("proxy", 3128))));
+        assertFalse(key.equals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a")
+                        .setLocalInetAddress(InetAddress.getByName("127.0.0.1")).build(), null)));
+
+        // the endpoint resolves the host with the resolver of the request
+        final NameResolver resolver = new NameResolver() {
+            @Override
+            public InetAddress resolve(final String name) throws UnknownHostException {
+                return InetAddress.getByName("127.0.0.1");
+            }
+        };
+        assertFalse(key.equals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a")
+                        .setNameResolver(resolver).build(), null)));
+        assertEquals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a")
+                        .setNameResolver(NameResolver.JdkNameResolver.INSTANCE).build(), null), key);
+
+        // equal resolvers share the endpoint, even if they aren't the same instance
+        assertEquals(EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a")
+                        .setNameResolver(new LoopbackNameResolver()).build(), null).copy(),
+                EndpointKey.probe(
+                new RequestBuilder("GET").setUrl("http://example.com/a")
+                        .setNameResolver(new LoopbackNameResolver()).build(), null));
+    }
+
+    @Test
+    public void testIsIpLiteral() throws Exception {
+        assertTrue(Utils.isIpLiteral("127.0.0.1"));
+        assertTrue(Utils.isIpLiteral("255.255.255.255"));
+        assertTrue(Utils.isIpLiteral("::1"));
+        assertFalse(Utils.isIpLiteral("999.1.1.1"));
+        assertFalse(Utils.isIpLiteral("1.1.1.256"));
+        assertFalse(Utils.isIpLiteral("1.1.1"));
+        assertFalse(Utils.isIpLiteral("1.1.1.1.1"));
+        assertFalse(Utils.isIpLiteral("1..1.1"));
+        assertFalse(Utils.isIpLiteral("1.1.1."));
+        assertFalse(Utils.isIpLiteral("0001.1.1.1"));
+        assertFalse(Utils.isIpLiteral("example.com"));
+        assertFalse(Utils.isIpLiteral(""));
+    }
+
+    @Test
+    public void testServerClosedConnectionIsEvicted() throws Exception {
+        // keeps the connections alive, but closes each one right after the response
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!server.isClosed()) {
+                        final Socket socket = server.accept();
+                        accepted.incrementAndGet();
+                        try {
+                            final BufferedReader in = new BufferedReader(
+                                    new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                            String line;
+                            while ((line = in.readLine()) != null && !line.isEmpty()) {
+                            }
+                            final OutputStream out = socket.getOutputStream();
+                            out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                            out.flush();
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxRequestRetry(0)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            for (int i = 0; i < 3; i++) {
+                assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+                // the selector notices the close of the idle pooled connection
+                waitForServerCloseEvictions(provider, i + 1);
+            }
+
+            assertEquals(accepted.get(), 3);
+            assertEquals(provider.getConnectionPoolStatistics().getConnectFailureCount(), 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUnsolicitedResponseEvictsIdleConnection() throws Exception {
+        // answers the request, then sends an unsolicited 408 response on the
+        // idle connection, without closing it
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger accepted = new AtomicInteger();
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!server.isClosed()) {
+                        final Socket socket = server.accept();
+                        final boolean isFirst = accepted.incrementAndGet() == 1;
+                        final BufferedReader in = new BufferedReader(
+                                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                        String line;
+                        while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        }
+                        final OutputStream out = socket.getOutputStream();
+                        out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                        out.flush();
+                        if (isFirst) {
+                            Thread.sleep(100);
+                            out.write("HTTP/1.1 408 Request Timeout\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+                            out.flush();
+                        }
+                    }
+                } catch (Exception ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setMaxRequestRetry(0)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            assertEquals(client.prepareGet(url).execute().get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            waitForServerCloseEvictions(provider, 1);
+
+            // the 408 is never taken for the response of the next request
+            final Response response = client.prepareGet(url).execute().get(5, TimeUnit.SECONDS);
+            assertEquals(response.getStatusCode(), 200);
+            assertEquals(accepted.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void waitForServerCloseEvictions(final GrizzlyAsyncHttpProvider provider,
+            final long expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (provider.getConnectionPoolStatistics().getServerCloseEvictionCount() < expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(provider.getConnectionPoolStatistics().getServerCloseEvictionCount(), expected);
+    }
+
+    @Test
+    public void testCircuitBreakerFailsFast() throws Exception {
+        // a port nobody listens on
+        final ServerSocket closed = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final int port = closed.getLocalPort();
+        closed.close();
+
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.CIRCUIT_BREAKER,
+                new CircuitBreakerConfig.Builder().setMinimumRequests(2).build());
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(0)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            final String url = "http://127.0.0.1:" + port + "/";
+            for (int i = 0; i < 2; i++) {
+                try {
+                    client.prepareGet(url).execute().get(5, TimeUnit.SECONDS);
+                    fail("Connect failure expected");
+                } catch (ExecutionException e) {
+                    assertFalse(e.getCause() instanceof CircuitBreakerOpenException, String.valueOf(e.getCause()));
+                }
+            }
+
+            try {
+                client.prepareGet(url).execute().get(5, TimeUnit.SECONDS);
+                fail("Open circuit expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof CircuitBreakerOpenException, String.valueOf(e.getCause()));
+            }
+        }
+    }
+
+    @Test
+    public void testTimedOutWaiterLeavesPool() throws Exception {
+        final ServerSocket server = startKeepAliveServer(500);
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 1);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxConnectionsPerHost(1)
+                .setMaxRequestRetry(0)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            final ListenableFuture<Response> holder = client.prepareGet(url).execute();
+            waitForPendingPoolTakes(provider, 0);
+
+            try {
+                client.prepareGet(url)
+                        .setTimeoutBudget(new TimeoutBudget.Builder().setPoolAcquisitionTimeout(100).build())
+                        .execute().get(5, TimeUnit.SECONDS);
+                fail("Pool acquisition timeout expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof PhaseTimeoutException, String.valueOf(e.getCause()));
+            }
+
+            // the timed out waiter has left the wait list of the pool
+            assertEquals(provider.getConnectionManager().getPendingPoolTakeCount(), 0);
+            assertEquals(holder.get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRejectedWaiterLeavesPool() throws Exception {
+        final ServerSocket server = startKeepAliveServer(500);
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 1);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxConnectionsPerHost(1)
+                .setMaxRequestRetry(0)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            final ListenableFuture<Response> holder = client.prepareGet(url).execute();
+            waitForPendingPoolTakes(provider, 0);
+            final ListenableFuture<Response> waiter = client.prepareGet(url).execute();
+            waitForPendingPoolTakes(provider, 1);
+
+            try {
+                client.prepareGet(url).execute().get(5, TimeUnit.SECONDS);
+                fail("Wait queue overflow expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            }
+
+            // only the queued waiter is left in the wait list of the pool
+            assertEquals(provider.getConnectionManager().getPendingPoolTakeCount(), 1);
+            assertEquals(holder.get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            assertEquals(waiter.get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+            assertEquals(provider.getConnectionManager().getPendingPoolTakeCount(), 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectPhaseTimeout() throws Exception {
+        // a server, whose accept queue is full, doesn't answer new connects
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final List<Socket> backlog = new ArrayList<Socket>();
+        try {
+            while (true) {
+                final Socket socket = new Socket();
+                backlog.add(socket);
+                try {
+                    socket.connect(server.getLocalSocketAddress(), 200);
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+            }
+
+            final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                    .setMaxRequestRetry(0)
+                    .build();
+            try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+                client.prepareGet("http://127.0.0.1:" + server.getLocalPort() + "/")
+                        .setTimeoutBudget(new TimeoutBudget.Builder().setConnectTimeout(200).build())
+                        .execute().get(5, TimeUnit.SECONDS);
+                fail("Connect timeout expected");
+            } catch (ExecutionException e) {
+                assertPhaseTimeout(e, TimeoutBudget.Phase.CONNECT, 200);
+            }
+        } finally {
+            for (Socket socket : backlog) {
+                socket.close();
+            }
+            server.close();
+        }
+    }
+
+    @Test
+    public void testTlsHandshakePhaseTimeout() throws Exception {
+        // accepts connections, but never answers the client hello
+        final ServerSocket server = startKeepAliveServer(0);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(0)
+                .setTimeoutBudget(new TimeoutBudget.Builder().setTlsHandshakeTimeout(200).build())
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            client.prepareGet("https://127.0.0.1:" + server.getLocalPort() + "/")
+                    .execute().get(5, TimeUnit.SECONDS);
+            fail("TLS handshake timeout expected");
+        } catch (ExecutionException e) {
+            assertPhaseTimeout(e, TimeoutBudget.Phase.TLS_HANDSHAKE, 200);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testPoolAcquisitionPhaseTimeout() throws Exception {
+        final ServerSocket server = startKeepAliveServer(1000);
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 1);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxConnectionsPerHost(1)
+                .setMaxRequestRetry(0)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            final ListenableFuture<Response> holder = client.prepareGet(url).execute();
+            waitForPendingPoolTakes(provider, 0);
+
+            final long start = System.currentTimeMillis();
+            try {
+                client.prepareGet(url)
+                        .setTimeoutBudget(new TimeoutBudget.Builder().setPoolAcquisitionTimeout(200).build())
+                        .execute().get(5, TimeUnit.SECONDS);
+                fail("Pool acquisition timeout expected");
+            } catch (ExecutionException e) {
+                assertPhaseTimeout(e, TimeoutBudget.Phase.POOL_ACQUISITION, 200);
+            }
+
+            // failed before the connection in use has been released
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(holder.get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void assertPhaseTimeout(final ExecutionException e,
+            final TimeoutBudget.Phase phase, final long timeout) {
+        Throwable cause = e.getCause();
+        while (cause != null && !(cause instanceof PhaseTimeoutException)) {
+            cause = cause.getCause();
+        }
+        assertTrue(cause != null, "PhaseTimeoutException expected, got " + e.getCause());
+        assertEquals(((PhaseTimeoutException) cause).getPhase(), phase);
+        assertEquals(((PhaseTimeoutException) cause).getTimeout(), timeout);
+    }
+
+    @Test
+    public void testPoolAcquisitionFailuresAreIgnoredByConcurrencyLimiter() throws Exception {
+        final ServerSocket server = startKeepAliveServer(1000);
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.MAX_CONNECTION_WAIT_QUEUE_SIZE, 1);
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.CONCURRENCY_LIMITER,
+                new ConcurrencyLimiterConfig.Builder()
+                        .setInitialLimit(20).setMinLimit(1).setBackoffRatio(0.5).build());
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxConnectionsPerHost(1)
+                .setMaxRequestRetry(0)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            final String url = "http://127.0.0.1:" + server.getLocalPort() + "/";
+            final ListenableFuture<Response> holder = client.prepareGet(url).execute();
+            waitForPendingPoolTakes(provider, 0);
+
+            // waits for the connection in use, and times out
+            final ListenableFuture<Response> waiter = client.prepareGet(url)
+                    .setTimeoutBudget(new TimeoutBudget.Builder().setPoolAcquisitionTimeout(200).build())
+                    .execute();
+            waitForPendingPoolTakes(provider, 1);
+            // the wait queue is full
+            try {
+                client.prepareGet(url).execute().get(5, TimeUnit.SECONDS);
+                fail("Wait queue rejection expected");
+            } catch (ExecutionException expected) {
+            }
+            try {
+                waiter.get(5, TimeUnit.SECONDS);
+                fail("Pool acquisition timeout expected");
+            } catch (ExecutionException expected) {
+            }
+
+            // the backend is still serving the first request, and has not
+            // been blamed for the client side failures
+            final ConcurrencyLimiter limiter =
+                    provider.getConcurrencyLimiters().values().iterator().next();
+            assertFalse(holder.isDone());
+            assertEquals(limiter.getLimit(), 20);
+            assertEquals(limiter.getInFlight(), 1);
+            assertEquals(holder.get(5, TimeUnit.SECONDS).getResponseBody(), "ok");
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void waitForPendingPoolTakes(final GrizzlyAsyncHttpProvider provider,
+            final int expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (provider.getConnectionManager().getPendingPoolTakeCount() != expected
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(provider.getConnectionManager().getPendingPoolTakeCount(), expected);
+    }
+
+    /**
+     * Starts a server, which answers every request on a kept alive
+     * connection after the passed delay in milliseconds.
+     */
+    private static ServerSocket startKeepAliveServer(final long responseDelay) throws IOException {
+        final ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!server.isClosed()) {
+                        final Socket socket = server.accept();
+                        final Thread handler = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    final BufferedReader in = new BufferedReader(
+                                            new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                                    final OutputStream out = socket.getOutputStream();
+                                    String line;
+                                    while ((line = in.readLine()) != null) {
+                                        if (!line.isEmpty()) {
+                                            continue;
+                                        }
+                                        Thread.sleep(responseDelay);
+                                        out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                                        out.flush();
+                                    }
+                                } catch (Exception ignored) {
+                                } finally {
+                                    try {
+                                        socket.close();
+                                    } catch (IOException ignored) {
+                                    }
+                                }
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                } catch (IOException ignored) {
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    private static final class LoopbackNameResolver implements NameResolver {
+
+        @Override
+        public InetAddress resolve(final String name) throws UnknownHostException {
+            return InetAddress.getByName("127.0.0.1");
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            return obj instanceof LoopbackNameResolver;
+        }
+
+        @Override
+        public int hashCode() {
+            return LoopbackNameResolver.class.hashCode();
+        }
+    }
+}
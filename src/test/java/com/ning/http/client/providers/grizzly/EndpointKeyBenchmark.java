@@ -0,0 +1,121 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import com.ning.http.client.ConnectionPoolPartitioning;
+import com.ning.http.client.Request;
+import com.ning.http.client.RequestBuilder;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the endpoint lookup keyed by the partition id String, which is
+ * built for every request, with the allocation-free {@link EndpointKey}
+ * lookup. Run with <tt>-prof gc</tt> to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointKeyBenchmark {
+    private static final int HOSTS = 64;
+    
+    private final ConcurrentMap<String, Object> stringKeyedMap =
+            new ConcurrentHashMap<String, Object>();
+    private final ConcurrentMap<EndpointKey, Object> endpointKeyedMap =
+            new ConcurrentHashMap<EndpointKey, Object>();
+    private Request[] requests;
+    private int idx;
+
+    @Setup
+    public void setUp() {
+        requests = new Request[HOSTS];
+        for (int i = 0; i < HOSTS; i++) {
+            requests[i] = new RequestBuilder("GET")
+                    .setUrl("https://host" + i + ".example.com/path?q=" + i)
+                    .build();
+            stringKeyedMap.put(partitionId(requests[i]), requests[i]);
+            endpointKeyedMap.put(EndpointKey.probe(requests[i], null).copy(), requests[i]);
+        }
+    }
+
+    @Benchmark
+    public Object partitionIdString() {
+        return stringKeyedMap.get(partitionId(nextRequest()));
+    }
+
+    @Benchmark
+    public Object endpointKey() {
+        return endpointKeyedMap.get(EndpointKey.probe(nextRequest(), null));
+    }
+    
+    private Request nextRequest() {
+        return requests[idx++ & (HOSTS - 1)];
+    }
+    
+    // the partition id, as it used to be built by ConnectionManager
+    private static String partitionId(final Request request) {
+        return (request.getInetAddress() != null ? request.getInetAddress().toString() + "_" : "")
+                + ConnectionPoolPartitioning.PerHostConnectionPoolPartitioning.INSTANCE
+                        .getPartitionKey(request.getUri(), null).toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(EndpointKeyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+
+package com.ning.http.client.providers.grizzly;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.ConcurrencyLimiterConfig;
+import com.ning.http.client.LoadBalancer;
+import com.ning.http.client.Response;
+import com.ning.http.client.async.EventCollectingHandler;
+import com.ning.http.client.filter.FilterContext;
+import com.ning.http.client.filter.FilterException;
+import com.ning.http.client.filter.IOExceptionFilter;
+import org.testng.annotations.Test;
+
+public class RequestRetryTest {
+
+    @Test
+    public void testRetriesAreCapped() throws Exception {
+        final DroppingServer server = new DroppingServer(Integer.MAX_VALUE);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(2)
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            try {
+                client.prepareGet(server.getUrl()).execute().get(5, TimeUnit.SECONDS);
+                fail("IOException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            }
+
+            // the initial attempt and two retries
+            assertEquals(server.accepted.get(), 3);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testSentNonIdempotentRequestIsNotRetried() throws Exception {
+        final DroppingServer server = new DroppingServer(1);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(5)
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            try {
+                client.preparePost(server.getUrl()).setBody("data").execute().get(5, TimeUnit.SECONDS);
+                fail("IOException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            }
+
+            assertEquals(server.accepted.get(), 1);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testIOExceptionFilterReplaysRequest() throws Exception {
+        final DroppingServer server = new DroppingServer(1);
+        final AtomicInteger filtered = new AtomicInteger();
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .addIOExceptionFilter(new IOExceptionFilter() {
+                    @Override
+                    public <T> FilterContext<T> filter(final FilterContext<T> ctx)
+                            throws FilterException {
+                        filtered.incrementAndGet();
+                        return new FilterContext.FilterContextBuilder<T>(ctx)
+                                .replayRequest(true)
+                                .build();
+                    }
+                })
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            // a sent POST is never retried automatically, only replayed by the filter
+            final Response response = client.preparePost(server.getUrl())
+                    .setBody("data").execute().get(5, TimeUnit.SECONDS);
+
+            assertEquals(response.getResponseBody(), "ok");
+            assertEquals(filtered.get(), 1);
+            assertEquals(server.accepted.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRetryNotifiesHandler() throws Exception {
+        final DroppingServer server = new DroppingServer(1);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder().build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            final EventCollectingHandler handler = new EventCollectingHandler();
+            final Response response = client.prepareGet(server.getUrl())
+                    .execute(handler).get(5, TimeUnit.SECONDS);
+            handler.waitForCompletion();
+
+            assertEquals(response.getResponseBody(), "ok");
+            assertTrue(handler.firedEvents.contains("Retry"), handler.firedEvents.toString());
+            assertEquals(server.accepted.get(), 2);
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRetriedAttemptCountsAsBackendFailure() throws Exception {
+        final DroppingServer server = new DroppingServer(Integer.MAX_VALUE);
+        final InetAddress localhost = InetAddress.getByName("127.0.0.1");
+        final LoadBalancer loadBalancer = new LoadBalancer.Builder()
+                .setOutlierEjection(2, 60000)
+                .addHost("127.0.0.1", localhost)
+                .build();
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.LOAD_BALANCER, loadBalancer);
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(1)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        try (AsyncHttpClient client = new AsyncHttpClient(new GrizzlyAsyncHttpProvider(config), config)) {
+            try {
+                client.prepareGet(server.getUrl()).execute().get(5, TimeUnit.SECONDS);
+                fail("IOException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            }
+
+            // both the initial attempt and the retry have failed
+            assertEquals(server.accepted.get(), 2);
+            assertTrue(loadBalancer.getBackends("127.0.0.1").get(0).isEjected());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testRetriedAttemptIsDroppedByConcurrencyLimiter() throws Exception {
+        final DroppingServer server = new DroppingServer(Integer.MAX_VALUE);
+        final GrizzlyAsyncHttpProviderConfig providerConfig = new GrizzlyAsyncHttpProviderConfig();
+        providerConfig.addProperty(GrizzlyAsyncHttpProviderConfig.Property.CONCURRENCY_LIMITER,
+                new ConcurrencyLimiterConfig.Builder()
+                        .setInitialLimit(20).setMinLimit(1).setBackoffRatio(0.5).build());
+        final AsyncHttpClientConfig config = new AsyncHttpClientConfig.Builder()
+                .setMaxRequestRetry(1)
+                .setAsyncHttpClientProviderConfig(providerConfig)
+                .build();
+        final GrizzlyAsyncHttpProvider provider = new GrizzlyAsyncHttpProvider(config);
+        try (AsyncHttpClient client = new AsyncHttpClient(provider, config)) {
+            try {
+                client.prepareGet(server.getUrl()).execute().get(5, TimeUnit.SECONDS);
+                fail("IOException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException, String.valueOf(e.getCause()));
+            }
+
+            // both the initial attempt and the retry back the limit off
+            final ConcurrencyLimiter limiter =
+                    provider.getConcurrencyLimiters().values().iterator().next();
+            assertEquals(limiter.getLimit(), 5);
+            assertEquals(limiter.getInFlight(), 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Closes the first <tt>drops</tt> connections once the request headers
+     * are read, answers the requests on the following ones.
+     */
+    private static final class DroppingServer {
+        private final ServerSocket server;
+        private final AtomicInteger accepted = new AtomicInteger();
+
+        private DroppingServer(final int drops) throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            final Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!server.isClosed()) {
+                            final Socket socket = server.accept();
+                            final boolean isDropped = accepted.incrementAndGet() <= drops;
+                            try {
+                                final BufferedReader in = new BufferedReader(
+                                        new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                                String line;
+                                while ((line = in.readLine()) != null && !line.isEmpty()) {
+                                }
+                                if (isDropped) {
+                                    continue;
+                                }
+                                final OutputStream out = socket.getOutputStream();
+                                out.write(("HTTP/1.1 200 OK\r\nConnection: close\r\n"
+                                        + "Content-Length: 2\r\n\r\nok").getBytes("ISO-8859-1"));
+                                out.flush();
+                            } finally {
+                                socket.close();
+                            }
+                        }
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        private String getUrl() {
+            return "http://127.0.0.1:" + server.getLocalPort() + "/";
+        }
+
+        private void close() throws IOException {
+            server.close();
+        }
+    }
+}
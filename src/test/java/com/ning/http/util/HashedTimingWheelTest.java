@@ -0,0 +1,127 @@
+/*
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS HEADER.
+ *
+ * Copyright (c) 2017 Oracle and/or its affiliates. All rights reserved.
+ *
+ * The contents of this file are subject to the terms of either the GNU
+ * General Public License Version 2 only ("GPL") or the Common Development
+ * and Distribution License("CDDL") (collectively, the "License").  You
+ * may not use this file except in compliance with the License.  You can
+ * obtain a copy of the License at
+ * https://oss.oracle.com/licenses/CDDL+GPL-1.1
+ * or LICENSE.txt.  See the License for the specific
+ * language governing permissions and limitations under the License.
+ *
+ * When distributing the software, include this License Header Notice in each
+ * file and include the License file at LICENSE.txt.
+ *
+ * GPL Classpath Exception:
+ * Oracle designates this particular file as subject to the "Classpath"
+ * exception as provided by Oracle in the GPL Version 2 section of the License
+ * file that accompanied this code.
+ *
+ * Modifications:
+ * If applicable, add the following below the License Header, with the fields
+ * enclosed by brackets [] replaced by your own identifying information:
+ * "Portions Copyright [year] [name of copyright owner]"
+ *
+ * Contributor(s):
+ * If you wish your version of this file to be governed by only the CDDL or
+ * only the GPL Version 2, indicate your decision by adding "[Contributor]
+ * elects to include this software in this distribution under the [CDDL or GPL
+ * Version 2] license."  If you don't indicate a single choice of license, a
+ * recipient has the option to distribute your version of this file under
+ * either the CDDL, the GPL Version 2 or to extend the choice of license to
+ * its licensees as provided above.  However, if you add GPL Version 2 code
+ * and therefore, elected the GPL Version 2 license, then the option applies
+ * only if the new code is made subject to such option by the copyright
+ * holder.
+ */
+package com.ning.http.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.testng.annotations.Test;
+
+public class HashedTimingWheelTest {
+
+    @Test(groups = "fast")
+    public void testTimeoutNeverExpiresEarly() throws Exception {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test-timer",
+                10, TimeUnit.MILLISECONDS, 8);
+        try {
+            final long[] delays = {0, 30, 150, 500}; // 500ms spans several rounds
+            final CountDownLatch latch = new CountDownLatch(delays.length);
+            final AtomicInteger earlyExpirations = new AtomicInteger();
+            
+            for (final long delay : delays) {
+                final long start = System.nanoTime();
+                wheel.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(delay)) {
+                            earlyExpirations.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(earlyExpirations.get(), 0);
+            assertEquals(wheel.getPendingTimeouts(), 0);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testCancelledTimeoutIsNotExecuted() throws Exception {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test-timer",
+                10, TimeUnit.MILLISECONDS);
+        try {
+            final AtomicInteger executed = new AtomicInteger();
+            final Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    executed.incrementAndGet();
+                }
+            };
+            
+            final HashedTimingWheel.Timeout cancelled =
+                    wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+            final HashedTimingWheel.Timeout kept =
+                    wheel.schedule(task, 50, TimeUnit.MILLISECONDS);
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            assertEquals(wheel.getPendingTimeouts(), 1);
+            
+            Thread.sleep(300);
+            assertTrue(cancelled.isCancelled());
+            assertTrue(kept.isExpired());
+            assertFalse(kept.cancel());
+            assertEquals(executed.get(), 1);
+        } finally {
+            wheel.stop();
+        }
+    }
+
+    @Test(groups = "fast")
+    public void testScheduleAfterStop() {
+        final HashedTimingWheel wheel = new HashedTimingWheel("test-timer",
+                10, TimeUnit.MILLISECONDS);
+        wheel.stop();
+        
+        final HashedTimingWheel.Timeout timeout = wheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+        assertTrue(timeout.isCancelled());
+    }
+}